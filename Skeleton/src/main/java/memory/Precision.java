@@ -0,0 +1,10 @@
+package memory;
+/**
+ * The elements of a SharedVector are stored either as doubles, or as floats that take half the memory
+ * and half the bandwidth of every kernel that reads them.
+ * For a product of float matrices, this is also the precision its sums are accumulated in.
+ */
+public enum Precision {
+    DOUBLE,
+    FLOAT
+}
@@ -3,9 +3,39 @@ package memory;
 public class SharedMatrix {
 
     private volatile SharedVector[] vectors = {}; // underlying vectors
+    private final boolean transposed; // true for a transposed view: the vectors are read in the opposite orientation
 
     public SharedMatrix() {
         this.vectors = new SharedVector[0];
+        this.transposed = false;
+    }
+
+    SharedMatrix(SharedVector[] vectors, boolean transposed) {
+        this.vectors = vectors;
+        this.transposed = transposed;
+    }
+
+    /**
+     * Creates a row-major matrix of zeros with the given shape, for kernels that write their output into it.
+     */
+    public SharedMatrix(int rows, int cols) {
+        this(rows, cols, Precision.DOUBLE);
+    }
+
+    /**
+     * Creates a row-major matrix of zeros with the given shape, whose elements are stored in the given precision.
+     */
+    public SharedMatrix(int rows, int cols, Precision precision) {
+        if (rows < 0 || cols < 0) {
+            throw new IllegalArgumentException("Matrix dimensions cant be negative");
+        }
+        this.transposed = false;
+        this.vectors = new SharedVector[rows];
+        for (int i = 0; i < rows; i++) {
+            this.vectors[i] = precision == Precision.FLOAT
+                    ? SharedVector.ofFloats(new float[cols], VectorOrientation.ROW_MAJOR)
+                    : new SharedVector(new double[cols], VectorOrientation.ROW_MAJOR);
+        }
     }
 
     public SharedMatrix(double[][] matrix) {
@@ -15,12 +45,126 @@ public class SharedMatrix {
         }
 
         // Initialize vectors from the provided matrix
+        this.transposed = false;
         this.vectors = new SharedVector[matrix.length];
         for (int i = 0; i < matrix.length; i++) {
             this.vectors[i] = new SharedVector(matrix[i].clone(), VectorOrientation.ROW_MAJOR);
         }
     }
 
+    /**
+     * Wraps the given arrays, without copying them, as the columns of a column-major matrix.
+     * The caller must not use the arrays afterwards.
+     */
+    public static SharedMatrix ofColumns(double[][] columns) {
+        if (columns == null) {
+            throw new IllegalArgumentException("columns cant be null");
+        }
+        SharedVector[] vectors = new SharedVector[columns.length];
+        for (int j = 0; j < columns.length; j++) {
+            if (columns[j] == null || columns[j].length != columns[0].length) {
+                throw new IllegalArgumentException("All columns must have the same length");
+            }
+            vectors[j] = new SharedVector(columns[j], VectorOrientation.COLUMN_MAJOR);
+        }
+        return new SharedMatrix(vectors, false);
+    }
+
+    /**
+     * Wraps the given arrays, without copying them, as the rows of a row-major matrix.
+     * The caller must not use the arrays afterwards.
+     */
+    public static SharedMatrix ofDoubleRows(double[][] rows) {
+        if (rows == null) {
+            throw new IllegalArgumentException("rows cant be null");
+        }
+        SharedVector[] vectors = new SharedVector[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            if (rows[i] == null || rows[i].length != rows[0].length) {
+                throw new IllegalArgumentException("Inconsistent row sizes in matrix.");
+            }
+            vectors[i] = new SharedVector(rows[i], VectorOrientation.ROW_MAJOR);
+        }
+        return new SharedMatrix(vectors, false);
+    }
+
+    /**
+     * Wraps the given arrays, without copying them, as the rows of a row-major float matrix.
+     * The caller must not use the arrays afterwards.
+     */
+    public static SharedMatrix ofFloatRows(float[][] rows) {
+        if (rows == null) {
+            throw new IllegalArgumentException("rows cant be null");
+        }
+        SharedVector[] vectors = new SharedVector[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            if (rows[i] == null || rows[i].length != rows[0].length) {
+                throw new IllegalArgumentException("Inconsistent row sizes in matrix.");
+            }
+            vectors[i] = SharedVector.ofFloats(rows[i], VectorOrientation.ROW_MAJOR);
+        }
+        return new SharedMatrix(vectors, false);
+    }
+
+    /**
+     * Copies the rows into a row-major matrix whose elements are stored in the given precision.
+     */
+    public static SharedMatrix ofRows(double[][] matrix, Precision precision) {
+        if (precision != Precision.FLOAT) {
+            return new SharedMatrix(matrix);
+        }
+        if (matrix == null) {
+            throw new IllegalArgumentException("matrix cant be null");
+        }
+        float[][] rows = new float[matrix.length][];
+        for (int i = 0; i < matrix.length; i++) {
+            rows[i] = new float[matrix[i].length];
+            for (int j = 0; j < rows[i].length; j++) {
+                rows[i][j] = (float) matrix[i][j];
+            }
+        }
+        return ofFloatRows(rows);
+    }
+
+    /**
+     * Returns this matrix if its elements are stored in the given precision, otherwise a copy of it in
+     * that precision (see {@link #copy(Precision)}).
+     */
+    public SharedMatrix toPrecision(Precision precision) {
+        SharedVector[] tempVectors = this.vectors;
+        if (tempVectors.length == 0 || tempVectors[0].getPrecision() == precision) {
+            return this;
+        }
+        return copy(precision);
+    }
+
+    /**
+     * Returns a copy of this matrix whose elements are stored in the given precision,
+     * stored the same way and read in the same orientation. Each vector is read under its read lock.
+     */
+    public SharedMatrix copy(Precision precision) {
+        SharedVector[] tempVectors = this.vectors;
+        SharedVector[] copied = new SharedVector[tempVectors.length];
+        for (int i = 0; i < tempVectors.length; i++) {
+            SharedVector vector = tempVectors[i];
+            vector.readLock();
+            try {
+                copied[i] = vector.copy(precision);
+            } finally {
+                vector.readUnlock();
+            }
+        }
+        return new SharedMatrix(copied, this.transposed);
+    }
+
+    /**
+     * Returns the precision the elements are stored in; an empty matrix is a double one.
+     */
+    public Precision getPrecision() {
+        SharedVector[] tempVectors = this.vectors;
+        return tempVectors.length == 0 ? Precision.DOUBLE : tempVectors[0].getPrecision();
+    }
+
     public void loadRowMajor(double[][] matrix) {
         // Capture the current state ("old matrix")
         SharedVector[] oldVectors = this.vectors;
@@ -44,7 +188,7 @@ public class SharedMatrix {
 
             for (int i = 0; i < matrix.length; i++) {
                 double[] row = matrix[i].clone();
-                newVectors[i] = new SharedVector(row, VectorOrientation.ROW_MAJOR);
+                newVectors[i] = new SharedVector(row, storedAs(VectorOrientation.ROW_MAJOR));
             }
 
             // Swap in the new vectors
@@ -87,7 +231,7 @@ public class SharedMatrix {
                     columnData[row] = matrix[row][col];
                 }
                 // Create SharedVector for this column
-                newVectors[col] = new SharedVector(columnData, VectorOrientation.COLUMN_MAJOR);
+                newVectors[col] = new SharedVector(columnData, storedAs(VectorOrientation.COLUMN_MAJOR));
             }
 
             // Swap in the new vectors
@@ -115,7 +259,7 @@ public class SharedMatrix {
             // Determine dimensions and orientation from the tempVectors
             int rows;
             int cols;
-            VectorOrientation orient = tempVectors[0].getOrientation();
+            VectorOrientation orient = orientationOf(tempVectors);
 
             if (orient == VectorOrientation.ROW_MAJOR) {
                 rows = tempVectors.length;
@@ -153,6 +297,58 @@ public class SharedMatrix {
         } 
     }
 
+    /**
+     * Copies the logical rows from the given one on into the given arrays, one row per array, so that a
+     * large matrix can be read a block at a time instead of as one row-major copy.
+     * Each vector is locked once for the whole block.
+     */
+    public void readRows(int from, double[][] into) {
+        SharedVector[] tempVectors = this.vectors;
+        int[] shape = shape();
+        if (from < 0 || from + into.length > shape[0]) {
+            throw new IllegalArgumentException("Index out of bounds");
+        }
+        if (orientationOf(tempVectors) == VectorOrientation.ROW_MAJOR) {
+            for (int i = 0; i < into.length; i++) {
+                SharedVector row = tempVectors[from + i];
+                row.readLock();
+                try {
+                    if (row.getPrecision() == Precision.DOUBLE) {
+                        System.arraycopy(row.elements(), 0, into[i], 0, shape[1]);
+                    } else {
+                        for (int j = 0; j < shape[1]; j++) {
+                            into[i][j] = row.element(j);
+                        }
+                    }
+                } finally {
+                    row.readUnlock();
+                }
+            }
+            return;
+        }
+        for (int j = 0; j < shape[1]; j++) {
+            SharedVector column = tempVectors[j];
+            column.readLock();
+            try {
+                for (int i = 0; i < into.length; i++) {
+                    into[i][j] = column.element(from + i);
+                }
+            } finally {
+                column.readUnlock();
+            }
+        }
+    }
+
+    /**
+     * Returns the transpose of this matrix as a view over the same vectors, without copying any data.
+     * The view reads the vectors in the opposite orientation, so a row-major matrix becomes
+     * a column-major one with the same storage (and vice versa).
+     * Writes through either matrix are visible in the other.
+     */
+    public SharedMatrix transposeView() {
+        return new SharedMatrix(this.vectors, !this.transposed);
+    }
+
     public SharedVector get(int index) {
         // To ensure we get the latest array ahead of comparsion
         SharedVector[] tempVectors = this.vectors;
@@ -166,6 +362,22 @@ public class SharedMatrix {
         return this.vectors.length;
     }
 
+    /**
+     * Returns the logical {rows, columns} of the matrix, whichever orientation it is stored in.
+     */
+    public int[] shape() {
+        SharedVector[] tempVectors = this.vectors;
+
+        if (tempVectors.length == 0) {
+            return new int[]{0, 0};
+        }
+        int vectorLength = tempVectors[0].length();
+        if (orientationOf(tempVectors) == VectorOrientation.ROW_MAJOR) {
+            return new int[]{tempVectors.length, vectorLength};
+        }
+        return new int[]{vectorLength, tempVectors.length};
+    }
+
     public VectorOrientation getOrientation() {
         // To ensure we get the latest array ahead of comparsion
         SharedVector[] tempVectors = this.vectors;
@@ -174,7 +386,20 @@ public class SharedMatrix {
             return null;
         }
 
-        return tempVectors[0].getOrientation();
+        return orientationOf(tempVectors);
+    }
+
+    // Orientation of the matrix stored in the given vectors, as seen through this (possibly transposed) matrix
+    private VectorOrientation orientationOf(SharedVector[] vecs) {
+        return storedAs(vecs[0].getOrientation());
+    }
+
+    // Flag to give new vectors so that this (possibly transposed) matrix reads them in the given orientation
+    private VectorOrientation storedAs(VectorOrientation orientation) {
+        if (!transposed) {
+            return orientation;
+        }
+        return orientation == VectorOrientation.ROW_MAJOR ? VectorOrientation.COLUMN_MAJOR : VectorOrientation.ROW_MAJOR;
     }
 
     private void acquireAllVectorReadLocks(SharedVector[] vecs) {
@@ -214,4 +439,4 @@ public class SharedMatrix {
             vec.writeUnlock();
         }
     }
-}
\ No newline at end of file
+}
@@ -4,7 +4,8 @@ import java.util.concurrent.locks.ReadWriteLock;
 
 public class SharedVector {
 
-    private double[] vector;
+    private double[] vector; // the elements of a double vector, null for a float one
+    private float[] floats; // the elements of a float vector, null for a double one
     private VectorOrientation orientation;
     private ReadWriteLock lock = new java.util.concurrent.locks.ReentrantReadWriteLock();
 
@@ -16,13 +17,29 @@ public class SharedVector {
         this.orientation = orientation;
     }
 
+    private SharedVector(float[] vector, VectorOrientation orientation) {
+        this.floats = vector;
+        this.orientation = orientation;
+    }
+
+    /**
+     * Creates a vector that stores its elements as floats. The kernels keep it a float vector,
+     * rounding to float whatever they write into it.
+     */
+    public static SharedVector ofFloats(float[] vector, VectorOrientation orientation) {
+        if (vector==null) {
+            throw new IllegalArgumentException("vector cant be null");
+        }
+        return new SharedVector(vector, orientation);
+    }
+
     public double get(int index) {
-        readLock(); // Acquire read lock to ensure consistent read 
+        readLock(); // Acquire read lock to ensure consistent read
         try{
-            if(index < 0 || index >= this.vector.length){
+            if(index < 0 || index >= size()){
                 throw new IllegalArgumentException("Index out of bounds");
             }
-            return this.vector[index];
+            return floats != null ? this.floats[index] : this.vector[index];
         }finally{
             readUnlock(); // Read finished then unlock in finally block to make sure unlock always happens so other threads can access it
         }
@@ -31,7 +48,7 @@ public class SharedVector {
     public int length() {
         readLock(); // Acquire read lock in order to ensure consistent read
         try{
-            return this.vector.length;
+            return size();
         }
         finally{
             readUnlock(); // Read finished then unlock in finally block to make sure unlock always happens so other threads can access it
@@ -48,6 +65,16 @@ public class SharedVector {
         }
     }
 
+    public Precision getPrecision() {
+        readLock(); // Acquire read lock to ensure consistent read
+        try{
+            return floats != null ? Precision.FLOAT : Precision.DOUBLE;
+        }
+        finally{
+            readUnlock(); // Read finished then unlock in finally block to make sure unlock always happens so other threads can access it
+        }
+    }
+
     public void writeLock() {
         this.lock.writeLock().lock();
     }
@@ -64,6 +91,55 @@ public class SharedVector {
         this.lock.readLock().unlock();
     }
 
+    // Underlying elements for other classes of this package, widened into a new array for a float vector;
+    // the caller must hold a lock on this vector
+    double[] elements() {
+        if (floats == null) {
+            return this.vector;
+        }
+        double[] widened = new double[floats.length];
+        for (int i = 0; i < widened.length; i++) {
+            widened[i] = floats[i];
+        }
+        return widened;
+    }
+
+    // Underlying elements of a float vector, or the elements of a double vector rounded into a new array;
+    // the caller must hold a lock on this vector
+    float[] floatElements() {
+        if (floats != null) {
+            return this.floats;
+        }
+        float[] rounded = new float[vector.length];
+        for (int i = 0; i < rounded.length; i++) {
+            rounded[i] = (float) vector[i];
+        }
+        return rounded;
+    }
+
+    // A copy of the elements, as a float[] for a float vector and a double[] otherwise;
+    // the caller must hold a lock on this vector
+    Object copyOfElements() {
+        return floats != null ? floats.clone() : vector.clone();
+    }
+
+    // A copy of this vector whose elements are stored in the given precision; the caller must hold a lock on this vector
+    SharedVector copy(Precision precision) {
+        if (precision == Precision.FLOAT) {
+            return ofFloats(floats != null ? floats.clone() : floatElements(), orientation);
+        }
+        return new SharedVector(floats != null ? elements() : vector.clone(), orientation);
+    }
+
+    // Element at the index, widened for a float vector; the caller must hold a lock on this vector
+    double element(int index) {
+        return floats != null ? floats[index] : vector[index];
+    }
+
+    private int size() {
+        return floats != null ? floats.length : vector.length;
+    }
+
     public void transpose() {
         if (orientation == VectorOrientation.ROW_MAJOR) {
             orientation = VectorOrientation.COLUMN_MAJOR;
@@ -75,18 +151,109 @@ public class SharedVector {
     public void add(SharedVector other) {
         // lock other to ensure consistent reading
         // Access to this.vector is safe because the caller holds the WRITE LOCK
-        other.readLock(); 
+        other.readLock();
         try {
+            if (floats != null) {
+                float[] y = other.floatElements();
+                for (int i = 0; i < floats.length; i++) {
+                    this.floats[i] += y[i];
+                }
+                return;
+            }
+            double[] y = other.elements();
             for (int i = 0; i < vector.length; i++) {
                 // Access to this.vector[i] is safe because the caller holds the WRITE LOCK
-                this.vector[i] += other.vector[i];
+                this.vector[i] += y[i];
             }
         } finally {
             other.readUnlock(); // unlock read lock in finally block to make sure unlock always happens so other threads can access it
         }
     }
 
+    public void subtract(SharedVector other) {
+        // lock other to ensure consistent reading
+        // Access to this.vector is safe because the caller holds the WRITE LOCK
+        other.readLock();
+        try {
+            if (floats != null) {
+                float[] y = other.floatElements();
+                for (int i = 0; i < floats.length; i++) {
+                    this.floats[i] -= y[i];
+                }
+                return;
+            }
+            double[] y = other.elements();
+            for (int i = 0; i < vector.length; i++) {
+                // Access to this.vector[i] is safe because the caller holds the WRITE LOCK
+                this.vector[i] -= y[i];
+            }
+        } finally {
+            other.readUnlock(); // unlock read lock in finally block to make sure unlock always happens so other threads can access it
+        }
+    }
+
+    /**
+     * Replaces this vector with the index-th row (if this vector is a row) or column (if it is a column)
+     * of the matrix. When the matrix is stored the other way, the elements are read at position index
+     * of every stored vector, so no transposed copy of the matrix is ever made.
+     * The copy keeps the precision of the matrix vectors it is read from.
+     */
+    public void copyFrom(SharedMatrix matrix, int index) {
+        if (matrix==null) {
+            throw  new IllegalArgumentException("matrix cant be null");
+        }
+        if (matrix.getOrientation() == this.orientation) {
+            // Same orientation: the wanted vector is stored as is
+            SharedVector source = matrix.get(index);
+            source.readLock();
+            try {
+                Object copy = source.copyOfElements();
+                this.vector = copy instanceof double[] elements ? elements : null;
+                this.floats = copy instanceof float[] elements ? elements : null;
+            } finally {
+                source.readUnlock();
+            }
+            return;
+        }
+        // Opposite orientation: gather the index-th element of every stored vector
+        int length = matrix.length();
+        double[] tempResult = null;
+        float[] tempFloats = null;
+        for (int i = 0; i < length; i++) {
+            SharedVector source = matrix.get(i);
+            source.readLock();
+            try {
+                if (index < 0 || index >= source.size()) {
+                    throw new IllegalArgumentException("Index out of bounds");
+                }
+                if (i == 0) {
+                    // The gathered vector takes the precision of the first stored vector
+                    tempFloats = source.floats != null ? new float[length] : null;
+                    tempResult = source.floats != null ? null : new double[length];
+                }
+                if (tempFloats != null) {
+                    tempFloats[i] = source.floats != null ? source.floats[index] : (float) source.vector[index];
+                } else {
+                    tempResult[i] = source.floats != null ? source.floats[index] : source.vector[index];
+                }
+            } finally {
+                source.readUnlock();
+            }
+        }
+        // Update vector to result
+        this.vector = tempFloats == null && tempResult == null ? new double[0] : tempResult;
+        this.floats = tempFloats;
+    }
+
     public void negate() {
+        if (floats != null) {
+            for (int i = 0; i < floats.length; i++) {
+                if (floats[i]!=0) {
+                    this.floats[i] = this.floats[i] * -1;
+                }
+            }
+            return;
+        }
         for(int i = 0; i < vector.length; i++){
             if (vector[i]!=0) {
                 this.vector[i] = this.vector[i] * -1;
@@ -95,18 +262,23 @@ public class SharedVector {
     }
 
     public double dot(SharedVector other) {
-        if (this.vector.length!=other.vector.length) {
+        if (this.size()!=other.size()) {
             throw new IllegalArgumentException("Vectors must be of the same length for dot product.");
         }
         // lock other to ensure consistent reading
         // Access to this.vector is safe because the caller holds the WRITE LOCK
-        other.readLock(); 
+        other.readLock();
         try{
+            if (this.floats != null && other.floats != null) {
+                return doubleDot(this.floats, other.floats);
+            }
+            double[] x = this.elements();
+            double[] y = other.elements();
             double sum = 0;
 
             // Compute dot product
-            for(int i = 0; i < vector.length; i++){
-            sum += this.vector[i] * other.vector[i];
+            for(int i = 0; i < x.length; i++){
+            sum += x[i] * y[i];
             }
             return sum;
 
@@ -115,6 +287,308 @@ public class SharedVector {
         }
     }
 
+    // Dot product of float vectors, each product and the sum kept in double
+    private static double doubleDot(float[] x, float[] y) {
+        double sum = 0;
+        for (int i = 0; i < x.length; i++) {
+            sum += (double) x[i] * y[i];
+        }
+        return sum;
+    }
+
+    // Dot product of float vectors, each product and the sum rounded to float
+    private static float floatDot(float[] x, float[] y) {
+        float sum = 0;
+        for (int i = 0; i < x.length; i++) {
+            sum += x[i] * y[i];
+        }
+        return sum;
+    }
+
+
+    /**
+     * Adds the product of the row vector and the matrix (stored in either orientation) to this vector,
+     * or subtracts it when negate is set. The product is accumulated into the existing elements,
+     * so this vector must already have the product's length; a zero vector receives the product itself.
+     * The caller holds the write lock of this vector; the row and the matrix are only read.
+     */
+    public void addVecMatMul(SharedVector row, SharedMatrix matrix, boolean negate) {
+        addVecMatMul(row, matrix, negate, Precision.DOUBLE);
+    }
+
+    /**
+     * Like {@link #addVecMatMul(SharedVector, SharedMatrix, boolean)}, accumulating the product into a float
+     * vector in the given precision: in double, the sums are kept in doubles and rounded to float once,
+     * at the end; in float, every product and partial sum is rounded to float, which reads and writes
+     * only floats. A double vector always accumulates in double.
+     */
+    public void addVecMatMul(SharedVector row, SharedMatrix matrix, boolean negate, Precision accumulation) {
+        if (row==null || matrix==null) {
+            throw  new IllegalArgumentException("row and matrix cant be null");
+        }
+        if (this.floats != null) {
+            addFloatVecMatMul(row, matrix, negate, accumulation == Precision.FLOAT);
+            return;
+        }
+        row.readLock();
+        try {
+            double[] x = row.elements();
+            if (matrix.getOrientation() == VectorOrientation.ROW_MAJOR) {
+                // Row-major matrix: accumulate every matrix row scaled by the matching element of the row
+                if (x.length != matrix.length()) {
+                    throw new IllegalArgumentException("Dimension mismatch: Vector length " +
+                            x.length + " != Matrix rows " + matrix.length());
+                }
+                for (int r = 0; r < x.length; r++) {
+                    SharedVector rowVector = matrix.get(r);
+                    rowVector.readLock();
+                    try {
+                        double[] y = rowVector.elements();
+                        if (y.length != this.vector.length) {
+                            throw new IllegalArgumentException("Dimension mismatch: Matrix columns " +
+                                    y.length + " != Vector length " + this.vector.length);
+                        }
+                        double scale = negate ? -x[r] : x[r];
+                        for (int col = 0; col < this.vector.length; col++) {
+                            this.vector[col] += scale * y[col];
+                        }
+                    } finally {
+                        rowVector.readUnlock();
+                    }
+                }
+            } else {
+                // Column-major matrix: each element gets the dot product of the row with one column
+                if (matrix.length() != this.vector.length) {
+                    throw new IllegalArgumentException("Dimension mismatch: Matrix columns " +
+                            matrix.length() + " != Vector length " + this.vector.length);
+                }
+                for (int col = 0; col < this.vector.length; col++) {
+                    double sum = row.dot(matrix.get(col));
+                    this.vector[col] += negate ? -sum : sum;
+                }
+            }
+        } finally {
+            row.readUnlock();
+        }
+    }
+
+    // addVecMatMul into this float vector, accumulating in float or in double
+    private void addFloatVecMatMul(SharedVector row, SharedMatrix matrix, boolean negate, boolean floatAccumulation) {
+        row.readLock();
+        try {
+            float[] x = row.floatElements();
+            if (matrix.getOrientation() == VectorOrientation.ROW_MAJOR) {
+                if (x.length != matrix.length()) {
+                    throw new IllegalArgumentException("Dimension mismatch: Vector length " +
+                            x.length + " != Matrix rows " + matrix.length());
+                }
+                // With double accumulation the sums are kept aside, and this vector is written once at the end
+                double[] sums = null;
+                if (!floatAccumulation) {
+                    sums = new double[floats.length];
+                    for (int col = 0; col < floats.length; col++) {
+                        sums[col] = floats[col];
+                    }
+                }
+                for (int r = 0; r < x.length; r++) {
+                    SharedVector rowVector = matrix.get(r);
+                    rowVector.readLock();
+                    try {
+                        float[] y = rowVector.floatElements();
+                        if (y.length != this.floats.length) {
+                            throw new IllegalArgumentException("Dimension mismatch: Matrix columns " +
+                                    y.length + " != Vector length " + this.floats.length);
+                        }
+                        float scale = negate ? -x[r] : x[r];
+                        if (sums == null) {
+                            for (int col = 0; col < y.length; col++) {
+                                this.floats[col] += scale * y[col];
+                            }
+                        } else {
+                            for (int col = 0; col < y.length; col++) {
+                                sums[col] += (double) scale * y[col];
+                            }
+                        }
+                    } finally {
+                        rowVector.readUnlock();
+                    }
+                }
+                if (sums != null) {
+                    for (int col = 0; col < floats.length; col++) {
+                        this.floats[col] = (float) sums[col];
+                    }
+                }
+            } else {
+                if (matrix.length() != this.floats.length) {
+                    throw new IllegalArgumentException("Dimension mismatch: Matrix columns " +
+                            matrix.length() + " != Vector length " + this.floats.length);
+                }
+                for (int col = 0; col < this.floats.length; col++) {
+                    SharedVector colVector = matrix.get(col);
+                    colVector.readLock();
+                    try {
+                        float[] y = colVector.floatElements();
+                        if (x.length != y.length) {
+                            throw new IllegalArgumentException("Vectors must be of the same length for dot product.");
+                        }
+                        if (floatAccumulation) {
+                            float sum = floatDot(x, y);
+                            this.floats[col] += negate ? -sum : sum;
+                        } else {
+                            double sum = doubleDot(x, y);
+                            this.floats[col] = (float) (this.floats[col] + (negate ? -sum : sum));
+                        }
+                    } finally {
+                        colVector.readUnlock();
+                    }
+                }
+            }
+        } finally {
+            row.readUnlock();
+        }
+    }
+
+    /**
+     * Adds the product of the index-th row of a sparse matrix and the matrix (stored in either orientation)
+     * to this vector. Only the stored elements of the row are visited, so the work is proportional to
+     * its non-zeros. The caller holds the write lock of this vector; the matrix is only read.
+     */
+    public void addVecMatMul(SparseMatrix rows, int index, SharedMatrix matrix) {
+        if (rows==null || matrix==null) {
+            throw  new IllegalArgumentException("rows and matrix cant be null");
+        }
+        // A float vector accumulates in double, into a copy rounded back at the end
+        double[] target = elements();
+        int[] columns = rows.columns();
+        double[] values = rows.values();
+        int start = rows.rowStart()[index];
+        int end = rows.rowStart()[index + 1];
+        if (matrix.getOrientation() == VectorOrientation.ROW_MAJOR) {
+            // Row-major matrix: accumulate the matrix rows picked by the stored elements
+            for (int p = start; p < end; p++) {
+                SharedVector rowVector = matrix.get(columns[p]);
+                rowVector.readLock();
+                try {
+                    if (rowVector.size() != target.length) {
+                        throw new IllegalArgumentException("Dimension mismatch: Matrix columns " +
+                                rowVector.size() + " != Vector length " + target.length);
+                    }
+                    double scale = values[p];
+                    if (rowVector.floats != null) {
+                        for (int col = 0; col < target.length; col++) {
+                            target[col] += scale * rowVector.floats[col];
+                        }
+                    } else {
+                        for (int col = 0; col < target.length; col++) {
+                            target[col] += scale * rowVector.vector[col];
+                        }
+                    }
+                } finally {
+                    rowVector.readUnlock();
+                }
+            }
+        } else {
+            // Column-major matrix: each element gets a sparse dot product with one column
+            if (matrix.length() != target.length) {
+                throw new IllegalArgumentException("Dimension mismatch: Matrix columns " +
+                        matrix.length() + " != Vector length " + target.length);
+            }
+            for (int col = 0; col < target.length; col++) {
+                SharedVector colVector = matrix.get(col);
+                colVector.readLock();
+                try {
+                    double sum = 0;
+                    if (colVector.floats != null) {
+                        for (int p = start; p < end; p++) {
+                            sum += values[p] * colVector.floats[columns[p]];
+                        }
+                    } else {
+                        for (int p = start; p < end; p++) {
+                            sum += values[p] * colVector.vector[columns[p]];
+                        }
+                    }
+                    target[col] += sum;
+                } finally {
+                    colVector.readUnlock();
+                }
+            }
+        }
+        roundInto(target);
+    }
+
+    /**
+     * Adds the product of the row vector and a sparse matrix to this vector, scattering each stored
+     * element of the matrix rows picked by the non-zero elements of the row.
+     * The caller holds the write lock of this vector.
+     */
+    public void addVecMatMul(SharedVector row, SparseMatrix matrix) {
+        if (row==null || matrix==null) {
+            throw  new IllegalArgumentException("row and matrix cant be null");
+        }
+        double[] target = elements();
+        if (matrix.cols() != target.length) {
+            throw new IllegalArgumentException("Dimension mismatch: Matrix columns " +
+                    matrix.cols() + " != Vector length " + target.length);
+        }
+        int[] rowStart = matrix.rowStart();
+        int[] columns = matrix.columns();
+        double[] values = matrix.values();
+        row.readLock();
+        try {
+            double[] x = row.elements();
+            if (x.length != matrix.rows()) {
+                throw new IllegalArgumentException("Dimension mismatch: Vector length " +
+                        x.length + " != Matrix rows " + matrix.rows());
+            }
+            for (int r = 0; r < x.length; r++) {
+                double scale = x[r];
+                if (scale == 0) {
+                    continue;
+                }
+                for (int p = rowStart[r]; p < rowStart[r + 1]; p++) {
+                    target[columns[p]] += scale * values[p];
+                }
+            }
+        } finally {
+            row.readUnlock();
+        }
+        roundInto(target);
+    }
+
+    /**
+     * Adds the product of the index-th row of a sparse matrix and another sparse matrix to this vector.
+     * The caller holds the write lock of this vector.
+     */
+    public void addVecMatMul(SparseMatrix rows, int index, SparseMatrix matrix) {
+        if (rows==null || matrix==null) {
+            throw  new IllegalArgumentException("rows and matrix cant be null");
+        }
+        double[] target = elements();
+        if (matrix.cols() != target.length) {
+            throw new IllegalArgumentException("Dimension mismatch: Matrix columns " +
+                    matrix.cols() + " != Vector length " + target.length);
+        }
+        int[] rowStart = matrix.rowStart();
+        int[] columns = matrix.columns();
+        double[] values = matrix.values();
+        for (int q = rows.rowStart()[index]; q < rows.rowStart()[index + 1]; q++) {
+            int r = rows.columns()[q];
+            double scale = rows.values()[q];
+            for (int p = rowStart[r]; p < rowStart[r + 1]; p++) {
+                target[columns[p]] += scale * values[p];
+            }
+        }
+        roundInto(target);
+    }
+
+    // Writes the sums of a kernel back into this vector, if it is a float vector
+    private void roundInto(double[] sums) {
+        if (floats != null) {
+            for (int i = 0; i < floats.length; i++) {
+                this.floats[i] = (float) sums[i];
+            }
+        }
+    }
 
     public void vecMatMul(SharedMatrix matrix) {
         // Resolve dimensions
@@ -135,22 +609,46 @@ public class SharedVector {
         }
 
         // Validate Dimensions
-        if (this.vector.length != matRows) {
+        if (this.size() != matRows) {
             throw new IllegalArgumentException("Dimension mismatch: Vector length " +
-                    this.vector.length + " != Matrix rows " + matRows);
+                    this.size() + " != Matrix rows " + matRows);
         }
 
+        double[] x = this.elements();
         double[] tempResult = new double[matCols];
 
-        // Matrix is Col Major (We made it like this in LAE)
-        for (int col = 0; col < matCols; col++) {
-            SharedVector colVector = matrix.get(col);   
-            tempResult[col] = this.dot(colVector); 
+        if (matOrient == VectorOrientation.ROW_MAJOR) {
+            // Row-major matrix: accumulate every matrix row scaled by the matching element of this vector
+            for (int row = 0; row < matRows; row++) {
+                SharedVector rowVector = matrix.get(row);
+                rowVector.readLock();
+                try {
+                    double scale = x[row];
+                    double[] y = rowVector.elements();
+                    for (int col = 0; col < matCols; col++) {
+                        tempResult[col] += scale * y[col];
+                    }
+                } finally {
+                    rowVector.readUnlock();
+                }
+            }
+        } else {
+            // Column-major matrix: each result element is the dot product with one column
+            for (int col = 0; col < matCols; col++) {
+                SharedVector colVector = matrix.get(col);
+                tempResult[col] = this.dot(colVector);
+            }
+        }
+
+        // Update vector to result, keeping the precision of this vector
+        if (this.floats != null) {
+            this.floats = new float[matCols];
+            for (int col = 0; col < matCols; col++) {
+                this.floats[col] = (float) tempResult[col];
+            }
+        } else {
+            this.vector = tempResult;
         }
-        
-        // Update vector to result
-        this.vector = tempResult;
         this.orientation = VectorOrientation.ROW_MAJOR;
     }
 }
-    
@@ -0,0 +1,101 @@
+package memory;
+
+/**
+ * An immutable matrix that stores only its non-zero elements, row by row (compressed sparse rows):
+ * the elements of row i are at positions rowStart[i] to rowStart[i + 1] - 1 of columns and values.
+ * It is never written after construction, so any number of threads may read it without locks.
+ */
+public class SparseMatrix {
+
+    private final int rows;
+    private final int cols;
+    private final int[] rowStart;
+    private final int[] columns;
+    private final double[] values;
+
+    /**
+     * Wraps the given arrays without copying them. The caller must not change them afterwards.
+     */
+    public SparseMatrix(int rows, int cols, int[] rowStart, int[] columns, double[] values) {
+        if (rowStart == null || columns == null || values == null) {
+            throw new IllegalArgumentException("arrays cant be null");
+        }
+        if (rows < 0 || cols < 0 || rowStart.length != rows + 1 || columns.length != values.length
+                || rowStart[0] != 0 || rowStart[rows] != columns.length) {
+            throw new IllegalArgumentException("Invalid sparse matrix structure.");
+        }
+        for (int i = 0; i < rows; i++) {
+            if (rowStart[i] > rowStart[i + 1]) {
+                throw new IllegalArgumentException("Invalid sparse matrix structure.");
+            }
+        }
+        for (int column : columns) {
+            if (column < 0 || column >= cols) {
+                throw new IllegalArgumentException("Index out of bounds");
+            }
+        }
+        this.rows = rows;
+        this.cols = cols;
+        this.rowStart = rowStart;
+        this.columns = columns;
+        this.values = values;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int cols() {
+        return cols;
+    }
+
+    public int[] shape() {
+        return new int[]{rows, cols};
+    }
+
+    public int nonZeros() {
+        return values.length;
+    }
+
+    /**
+     * Returns the position of the first stored element of the row; the row ends where the next one starts.
+     */
+    public int rowStart(int row) {
+        return rowStart[row];
+    }
+
+    public int columnAt(int position) {
+        return columns[position];
+    }
+
+    public double valueAt(int position) {
+        return values[position];
+    }
+
+    // Underlying arrays for the kernels of this package; they are never written
+    int[] rowStart() {
+        return rowStart;
+    }
+
+    int[] columns() {
+        return columns;
+    }
+
+    double[] values() {
+        return values;
+    }
+
+    /**
+     * Returns a dense row-major copy, for operations that have no sparse kernel.
+     * Elements stored more than once at the same position are summed.
+     */
+    public double[][] readRowMajor() {
+        double[][] dense = new double[rows][cols];
+        for (int i = 0; i < rows; i++) {
+            for (int p = rowStart[i]; p < rowStart[i + 1]; p++) {
+                dense[i][columns[p]] += values[p];
+            }
+        }
+        return dense;
+    }
+}
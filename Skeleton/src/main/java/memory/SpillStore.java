@@ -0,0 +1,191 @@
+package memory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.Stream;
+
+/**
+ * Keeps matrices in temporary files while they are not needed, so they do not take heap memory.
+ * Each matrix is written to its own file in a compact binary format: a header of
+ * {rows, columns, orientation and precision} followed by the elements of every stored vector as little-endian
+ * doubles, or floats for a float matrix. A reloaded matrix has the same shape, orientation and precision
+ * as the one that was spilled.
+ */
+public class SpillStore implements AutoCloseable {
+
+    private static final int HEADER_BYTES = 2 * Integer.BYTES + 1;
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private Path directory = null; // created on the first spill
+    private int spillCount = 0;
+    private long spilledBytes = 0;
+
+    /**
+     * Writes the matrix to a new temporary file, reading every stored vector under its read lock.
+     * Returns the file to pass to reload.
+     */
+    public Path spill(SharedMatrix matrix) throws IOException {
+        if (matrix == null) {
+            throw new IllegalArgumentException("matrix cant be null");
+        }
+        int[] shape = matrix.shape();
+        VectorOrientation orientation = matrix.getOrientation();
+        int count = matrix.length();
+        SharedVector[] vectors = new SharedVector[count];
+        for (int i = 0; i < count; i++) {
+            vectors[i] = matrix.get(i);
+        }
+        return write(shape, orientation, matrix.getPrecision(), vectors.length, i -> {
+            SharedVector vector = vectors[i];
+            vector.readLock();
+            try {
+                return vector.copyOfElements();
+            } finally {
+                vector.readUnlock();
+            }
+        });
+    }
+
+    /**
+     * Writes a row-major array to a new temporary file. Returns the file to pass to reload.
+     */
+    public Path spill(double[][] matrix) throws IOException {
+        if (matrix == null) {
+            throw new IllegalArgumentException("matrix cant be null");
+        }
+        int[] shape = {matrix.length, matrix.length == 0 ? 0 : matrix[0].length};
+        return write(shape, VectorOrientation.ROW_MAJOR, Precision.DOUBLE, matrix.length, i -> matrix[i]);
+    }
+
+    /**
+     * Reads a spilled matrix back into memory and deletes its file.
+     */
+    public SharedMatrix reload(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            readAtLeast(channel, buffer, HEADER_BYTES);
+            buffer.flip();
+            int rows = buffer.getInt();
+            int cols = buffer.getInt();
+            byte flags = buffer.get();
+            VectorOrientation orientation = (flags & 1) == 0 ? VectorOrientation.ROW_MAJOR : VectorOrientation.COLUMN_MAJOR;
+            boolean floats = (flags & 2) != 0;
+            int elementBytes = floats ? Float.BYTES : Double.BYTES;
+            int count = orientation == VectorOrientation.ROW_MAJOR ? rows : cols;
+            int length = orientation == VectorOrientation.ROW_MAJOR ? cols : rows;
+
+            SharedVector[] vectors = new SharedVector[count];
+            for (int i = 0; i < count; i++) {
+                double[] elements = floats ? null : new double[length];
+                float[] floatElements = floats ? new float[length] : null;
+                for (int j = 0; j < length; j++) {
+                    if (buffer.remaining() < elementBytes) {
+                        buffer.compact();
+                        readAtLeast(channel, buffer, elementBytes);
+                        buffer.flip();
+                    }
+                    if (floats) {
+                        floatElements[j] = buffer.getFloat();
+                    } else {
+                        elements[j] = buffer.getDouble();
+                    }
+                }
+                vectors[i] = floats ? SharedVector.ofFloats(floatElements, orientation) : new SharedVector(elements, orientation);
+            }
+            return new SharedMatrix(vectors, false);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    public int getSpillCount() {
+        return spillCount;
+    }
+
+    public long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    /**
+     * Deletes every file still held by the store, and its directory.
+     */
+    @Override
+    public void close() throws IOException {
+        if (directory == null) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+        Files.deleteIfExists(directory);
+        directory = null;
+    }
+
+    private interface VectorSource {
+        // The elements of the index-th stored vector, as a double[] or a float[]
+        Object vector(int index);
+    }
+
+    private Path write(int[] shape, VectorOrientation orientation, Precision precision, int count,
+                       VectorSource source) throws IOException {
+        if (directory == null) {
+            directory = Files.createTempDirectory("lae-spill");
+        }
+        Path file = Files.createTempFile(directory, "matrix", ".bin");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            int flags = (orientation == VectorOrientation.ROW_MAJOR ? 0 : 1) | (precision == Precision.FLOAT ? 2 : 0);
+            buffer.putInt(shape[0]).putInt(shape[1]).put((byte) flags);
+            for (int i = 0; i < count; i++) {
+                Object vector = source.vector(i);
+                if (vector instanceof float[] floats) {
+                    for (float value : floats) {
+                        if (buffer.remaining() < Float.BYTES) {
+                            writeFully(channel, buffer);
+                        }
+                        buffer.putFloat(value);
+                    }
+                    continue;
+                }
+                for (double value : (double[]) vector) {
+                    if (buffer.remaining() < Double.BYTES) {
+                        writeFully(channel, buffer);
+                    }
+                    buffer.putDouble(value);
+                }
+            }
+            writeFully(channel, buffer);
+        } catch (IOException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        spillCount++;
+        spilledBytes += HEADER_BYTES + (long) shape[0] * shape[1] * (precision == Precision.FLOAT ? Float.BYTES : Double.BYTES);
+        return file;
+    }
+
+    // Writes everything put in the buffer so far, and leaves the buffer empty for the next puts
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // Reads until the buffer holds at least the given number of bytes, failing if the file ends first
+    private static void readAtLeast(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        while (buffer.position() < bytes) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Spill file is truncated.");
+            }
+        }
+    }
+}
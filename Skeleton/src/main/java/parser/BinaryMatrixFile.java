@@ -0,0 +1,224 @@
+package parser;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and writes matrices in a compact binary format, used for large operands and results
+ * instead of JSON text. A file is a 16-byte little-endian header (the magic "LAEM", the number of
+ * rows, the number of columns and the element type) followed by the elements row by row, as
+ * little-endian float64 (type 1) or float32 (type 2) values.
+ * <p>
+ * Files are read through a memory mapping, so the elements are copied once, from the page cache
+ * straight into the rows of the matrix, in double or in float; an operand's rows then become the
+ * engine's storage as they are. A mapping holds at most 2 GB, so a larger file is mapped one window at a time.
+ */
+public class BinaryMatrixFile {
+
+    public static final int HEADER_BYTES = 16;
+    public static final int FLOAT64 = 1;
+    public static final int FLOAT32 = 2;
+    private static final int MAGIC = 0x4D45414C; // "LAEM" read as a little-endian int
+    // Bytes of a file mapped at once, below the 2 GB limit of a mapping
+    static final long MAP_WINDOW_BYTES = 1L << 30;
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private BinaryMatrixFile() {}
+
+    /**
+     * Reads the matrix of a binary file.
+     */
+    public static double[][] read(Path path) throws IOException {
+        return read(path, MAP_WINDOW_BYTES);
+    }
+
+    /**
+     * Reads the matrix of a binary file, mapping at most windowBytes of it at a time.
+     */
+    static double[][] read(Path path, long windowBytes) throws IOException {
+        return (double[][]) read(path, false, windowBytes);
+    }
+
+    /**
+     * Reads the matrix of a binary file in float. A float32 file is read as it is stored, without
+     * passing through double; a float64 file is rounded to float.
+     */
+    public static float[][] readFloats(Path path) throws IOException {
+        return readFloats(path, MAP_WINDOW_BYTES);
+    }
+
+    /**
+     * Reads the matrix of a binary file in float, mapping at most windowBytes of it at a time.
+     */
+    static float[][] readFloats(Path path, long windowBytes) throws IOException {
+        return (float[][]) read(path, true, windowBytes);
+    }
+
+    // Reads the rows as double[] or float[] arrays
+    private static Object[] read(Path path, boolean floats, long windowBytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                throw new IOException("Not a binary matrix file: " + path);
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            if (mapped.getInt(0) != MAGIC) {
+                throw new IOException("Not a binary matrix file: " + path);
+            }
+            int rows = mapped.getInt(4);
+            int cols = mapped.getInt(8);
+            int type = mapped.getInt(12);
+            int elementBytes = type == FLOAT64 ? Double.BYTES : type == FLOAT32 ? Float.BYTES : -1;
+            if (elementBytes < 0) {
+                throw new IOException("Unsupported element type " + type + " in " + path);
+            }
+            if (rows < 1 || cols < 0 || size != HEADER_BYTES + (long) rows * cols * elementBytes) {
+                throw new IOException("Invalid binary matrix header in " + path);
+            }
+            Object[] matrix = floats ? new float[rows][cols] : new double[rows][cols];
+            readElements(channel, HEADER_BYTES, elementBytes, ByteOrder.LITTLE_ENDIAN, matrix, windowBytes);
+            return matrix;
+        }
+    }
+
+    /**
+     * Fills the vectors, double[] or float[] arrays, one after the other with the float64 or float32
+     * elements stored from the given offset of the file, mapping at most windowBytes of the file at a time.
+     * A vector may span two windows.
+     */
+    static void readElements(FileChannel channel, long offset, int elementBytes, ByteOrder order,
+                             Object[] vectors, long windowBytes) throws IOException {
+        long total = 0;
+        for (Object vector : vectors) {
+            total += length(vector);
+        }
+        long windowElements = Math.max(1, windowBytes / elementBytes);
+        int vector = 0;
+        int index = 0;
+        for (long read = 0; read < total; ) {
+            long count = Math.min(windowElements, total - read);
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, offset + read * elementBytes,
+                    count * elementBytes).order(order);
+            read += count;
+            DoubleBuffer doubles = elementBytes == Double.BYTES ? data.asDoubleBuffer() : null;
+            FloatBuffer floats = doubles == null ? data.asFloatBuffer() : null;
+            while (doubles != null ? doubles.hasRemaining() : floats.hasRemaining()) {
+                index = fill(doubles, floats, vectors[vector], index);
+                if (index == length(vectors[vector])) {
+                    vector++;
+                    index = 0;
+                }
+            }
+        }
+    }
+
+    // Copies elements of the window, from whichever buffer is not null, into the vector from the index,
+    // until either runs out, and returns the index reached. Only a narrowing or widening copy goes one by one.
+    private static int fill(DoubleBuffer doubles, FloatBuffer floats, Object vector, int index) {
+        if (vector instanceof double[] target) {
+            if (doubles != null) {
+                int n = Math.min(target.length - index, doubles.remaining());
+                doubles.get(target, index, n);
+                return index + n;
+            }
+            for (; index < target.length && floats.hasRemaining(); index++) {
+                target[index] = floats.get();
+            }
+            return index;
+        }
+        float[] target = (float[]) vector;
+        if (floats != null) {
+            int n = Math.min(target.length - index, floats.remaining());
+            floats.get(target, index, n);
+            return index + n;
+        }
+        for (; index < target.length && doubles.hasRemaining(); index++) {
+            target[index] = (float) doubles.get();
+        }
+        return index;
+    }
+
+    private static int length(Object vector) {
+        return vector instanceof double[] doubles ? doubles.length : ((float[]) vector).length;
+    }
+
+    /**
+     * Writes the matrix as a float64 binary file, replacing any existing file.
+     */
+    public static void write(double[][] matrix, Path path) throws IOException {
+        write(matrix, path, FLOAT64);
+    }
+
+    /**
+     * Writes the matrix as a binary file of the given element type, {@link #FLOAT64} or {@link #FLOAT32},
+     * replacing any existing file. Elements written as float32 are rounded to float.
+     */
+    public static void write(double[][] matrix, Path path, int type) throws IOException {
+        if (type != FLOAT64 && type != FLOAT32) {
+            throw new IllegalArgumentException("Unsupported element type " + type);
+        }
+        int rows = matrix.length;
+        int cols = rows == 0 ? 0 : matrix[0].length;
+        int elementBytes = type == FLOAT64 ? Double.BYTES : Float.BYTES;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(HEADER_BYTES, Math.min(1 << 20, cols * elementBytes)))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            buffer.putInt(MAGIC).putInt(rows).putInt(cols).putInt(type);
+            for (double[] row : matrix) {
+                if (row.length != cols) {
+                    throw new IllegalArgumentException("Inconsistent row sizes in matrix.");
+                }
+                for (double value : row) {
+                    if (!buffer.hasRemaining()) {
+                        drain(channel, buffer);
+                    }
+                    if (type == FLOAT64) {
+                        buffer.putDouble(value);
+                    } else {
+                        buffer.putFloat((float) value);
+                    }
+                }
+            }
+            drain(channel, buffer);
+        }
+    }
+
+    /**
+     * Converts a matrix between JSON and binary, choosing the direction from the output's extension:
+     * an output ending in .bin is written as binary from a JSON input, any other output is written as
+     * JSON from a binary input. A JSON input is either a matrix or a result file {"result": matrix}.
+     */
+    public static void convert(Path input, Path output) throws IOException {
+        if (output.getFileName().toString().endsWith(".bin")) {
+            JsonNode json = mapper.readTree(input.toFile());
+            if (json.has("result")) {
+                json = json.get("result");
+            }
+            write(mapper.treeToValue(json, double[][].class), output);
+        } else {
+            OutputWriter.write(read(input), output.toString());
+        }
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
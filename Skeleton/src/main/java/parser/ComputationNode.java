@@ -1,5 +1,8 @@
 package parser;
 
+import memory.SharedMatrix;
+import memory.SparseMatrix;
+
 import java.util.List;
 
 public class ComputationNode {
@@ -7,6 +10,9 @@ public class ComputationNode {
     private ComputationNodeType nodeType;
     private List<ComputationNode> children = null;
     private double[][] matrix = null; // only used for MATRIX nodes
+    private SharedMatrix result = null; // engine-owned result, only used for resolved MATRIX nodes
+    private SparseMatrix sparse = null; // only used for MATRIX nodes read from a sparse file
+    private String placeholderName = null; // only used for placeholder MATRIX nodes of a prepared expression
 
     public ComputationNode(String operatorStr, List<ComputationNode> children) throws IllegalArgumentException {
         this.nodeType = mapOperator(operatorStr);
@@ -38,6 +44,43 @@ public class ComputationNode {
         this.matrix = matrix;
     }
 
+    /**
+     * Creates a leaf holding a matrix already in engine form, such as a column-major operand read from a file,
+     * so that it is not converted to rows first.
+     */
+    public ComputationNode(SharedMatrix matrix) {
+        if (matrix == null) {
+            throw new IllegalArgumentException("matrix cant be null");
+        }
+        this.nodeType = ComputationNodeType.MATRIX;
+        this.result = matrix;
+    }
+
+    /**
+     * Creates a leaf holding a sparse matrix, which multiplications read as is; other operations
+     * read it as a dense copy.
+     */
+    public ComputationNode(SparseMatrix sparse) {
+        if (sparse == null) {
+            throw new IllegalArgumentException("sparse cant be null");
+        }
+        this.nodeType = ComputationNodeType.MATRIX;
+        this.sparse = sparse;
+    }
+
+    /**
+     * Creates a named placeholder for a matrix of the given shape, bound to an actual matrix
+     * each time a prepared expression is executed. Until then it holds a matrix of zeros.
+     */
+    public ComputationNode(String placeholderName, int rows, int cols) {
+        if (placeholderName == null || rows < 0 || cols < 0) {
+            throw new IllegalArgumentException("Invalid placeholder: " + placeholderName + " " + rows + "x" + cols);
+        }
+        this.nodeType = ComputationNodeType.MATRIX;
+        this.matrix = new double[rows][cols];
+        this.placeholderName = placeholderName;
+    }
+
     public ComputationNodeType getNodeType() {
         return nodeType;
     }
@@ -46,6 +89,13 @@ public class ComputationNode {
         return children;
     }
 
+    /**
+     * Returns the name of this placeholder, or null if the node is not a placeholder.
+     */
+    public String getPlaceholderName() {
+        return placeholderName;
+    }
+
     /**
      * Recursively finds the first resolvable node in the tree.
      * A resolvable node is defined as a node that is not of type MATRIX,
@@ -88,9 +138,93 @@ public class ComputationNode {
         this.nodeType = ComputationNodeType.MATRIX;
         this.children = null;
         this.matrix = matrix;
+        this.result = null;
+        this.sparse = null;
+    }
+
+    /**
+     * Resolves this node by setting its type to MATRIX and keeping the engine's result matrix as is,
+     * so the parent operation can consume it without a copy.
+     */
+    public void resolve(SharedMatrix result) {
+        this.nodeType = ComputationNodeType.MATRIX;
+        this.children = null;
+        this.matrix = null;
+        this.result = result;
+        this.sparse = null;
+    }
+
+    /**
+     * Returns the engine-owned result of this node, or null if the node holds a parsed matrix.
+     */
+    public SharedMatrix getResult() {
+        return result;
+    }
+
+    /**
+     * Returns the sparse matrix of this leaf, or null if the node holds a dense matrix.
+     */
+    public SparseMatrix getSparse() {
+        return sparse;
+    }
+
+    /**
+     * Hands the engine-owned result over to the caller, which may then write into it.
+     * Afterwards this node no longer contains a matrix.
+     */
+    public SharedMatrix takeResult() {
+        SharedMatrix taken = result;
+        result = null;
+        return taken;
     }
 
+    /**
+     * Turns this node back into an unresolved operation over the given children,
+     * so that a prepared tree can be evaluated again after the engine resolved it.
+     */
+    public void reset(ComputationNodeType nodeType, List<ComputationNode> children) {
+        this.nodeType = nodeType;
+        this.children = children;
+        this.matrix = null;
+        this.result = null;
+        this.sparse = null;
+    }
+
+    /**
+     * Drops the matrix held by this node once no operation will read it again,
+     * so its memory can be reclaimed while the rest of the tree is still being computed.
+     */
+    public void release() {
+        this.matrix = null;
+        this.result = null;
+        this.sparse = null;
+    }
+
+    /**
+     * Returns the {rows, columns} shape of the matrix held by this node, without materialising it.
+     */
+    public int[] getShape() {
+        if (matrix == null && result != null) {
+            return result.shape();
+        }
+        if (matrix == null && sparse != null) {
+            return sparse.shape();
+        }
+        double[][] m = getMatrix();
+        return new int[]{m.length, m.length == 0 ? 0 : m[0].length};
+    }
+
+    /**
+     * Returns the matrix of this node. A result kept by the engine or a sparse matrix is materialised
+     * row-major on each call.
+     */
     public double[][] getMatrix() {
+        if (matrix == null && result != null) {
+            return result.readRowMajor();
+        }
+        if (matrix == null && sparse != null) {
+            return sparse.readRowMajor();
+        }
         if (matrix == null) {
             throw new IllegalStateException("This node does not contain a matrix.");
         }
@@ -98,4 +232,4 @@ public class ComputationNode {
     }
 
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,360 @@
+package parser;
+
+import java.math.BigInteger;
+
+/**
+ * Formats doubles straight into bytes, without creating a String per number, exactly as
+ * {@link Double#toString(double)} does: the shortest decimal that reads back as the same double,
+ * in plain notation from 10^-3 up to 10^7 and in computerized scientific notation otherwise.
+ * Floats are formatted as {@link Float#toString(float)} does, with the shortest decimal that reads
+ * back as the same float.
+ * <p>
+ * The shortest decimal is found with the Schubfach algorithm, which scales the double and the two ends
+ * of its rounding interval by one 126-bit approximation of a power of ten, and picks the shortest
+ * decimal inside the interval, or the one closest to the double when several have the same length.
+ * A float only needs the upper 63 bits of the approximation.
+ */
+final class DoubleFormatter {
+
+    // Longest output, as in -2.2250738585072014E-308
+    static final int MAX_LENGTH = 24;
+
+    private static final int PRECISION = 53;
+    private static final int MIN_EXPONENT = -1074;
+    private static final long HIDDEN_BIT = 1L << (PRECISION - 1);
+    // Subnormal significands below this have too few digits for the interval, and are scaled by 10 first
+    private static final long TINY_SIGNIFICAND = 3;
+    // Most significant digits a double needs
+    private static final int MAX_DIGITS = 17;
+    private static final long MASK_63 = (1L << 63) - 1;
+    private static final long MASK_32 = (1L << 32) - 1;
+
+    private static final int FLOAT_PRECISION = 24;
+    private static final int FLOAT_MIN_EXPONENT = -149;
+    private static final int FLOAT_HIDDEN_BIT = 1 << (FLOAT_PRECISION - 1);
+    private static final int FLOAT_TINY_SIGNIFICAND = 8;
+
+    // Powers of ten k covered by the table
+    private static final int SMALLEST_POWER = -324;
+    private static final int LARGEST_POWER = 292;
+    // For each k, g = floor(10^-k / 2^r) + 1 with 2^125 <= g < 2^126, split into its high and low 63 bits
+    private static final long[] G_HIGH = new long[LARGEST_POWER - SMALLEST_POWER + 1];
+    private static final long[] G_LOW = new long[LARGEST_POWER - SMALLEST_POWER + 1];
+
+    private static final long[] POWERS_OF_TEN = new long[MAX_DIGITS + 2];
+    // "00" to "99"
+    private static final byte[] DIGIT_PAIRS = new byte[200];
+
+    static {
+        for (int k = SMALLEST_POWER; k <= LARGEST_POWER; k++) {
+            int r = floorLog2Pow10(-k) - 125;
+            BigInteger g;
+            if (k <= 0) {
+                BigInteger power = BigInteger.TEN.pow(-k);
+                g = r >= 0 ? power.shiftRight(r) : power.shiftLeft(-r);
+            } else {
+                g = BigInteger.ONE.shiftLeft(-r).divide(BigInteger.TEN.pow(k));
+            }
+            g = g.add(BigInteger.ONE);
+            G_HIGH[k - SMALLEST_POWER] = g.shiftRight(63).longValue();
+            G_LOW[k - SMALLEST_POWER] = g.longValue() & MASK_63;
+        }
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+        for (int i = 0; i < 100; i++) {
+            DIGIT_PAIRS[2 * i] = (byte) ('0' + i / 10);
+            DIGIT_PAIRS[2 * i + 1] = (byte) ('0' + i % 10);
+        }
+    }
+
+    private DoubleFormatter() {}
+
+    /**
+     * Writes the value into out at pos, and returns the position after it. At most {@link #MAX_LENGTH}
+     * bytes are written.
+     */
+    static int format(double value, byte[] out, int pos) {
+        long bits = Double.doubleToRawLongBits(value);
+        long fraction = bits & (HIDDEN_BIT - 1);
+        int biasedExponent = (int) (bits >>> (PRECISION - 1)) & 0x7FF;
+        if (biasedExponent == 0x7FF) {
+            return ascii(fraction != 0 ? "NaN" : bits < 0 ? "-Infinity" : "Infinity", out, pos);
+        }
+        if (bits < 0) {
+            out[pos++] = '-';
+        }
+        if (biasedExponent != 0) {
+            int shift = -MIN_EXPONENT + 1 - biasedExponent;
+            long significand = HIDDEN_BIT | fraction;
+            if (0 < shift && shift < PRECISION) {
+                long integer = significand >> shift;
+                if (integer << shift == significand) {
+                    // Integers below 2^53 are written with all their digits
+                    return digits(integer, 0, out, pos);
+                }
+            }
+            return shortest(-shift, significand, 0, out, pos);
+        }
+        if (fraction != 0) {
+            return fraction < TINY_SIGNIFICAND
+                    ? shortest(MIN_EXPONENT, 10 * fraction, -1, out, pos)
+                    : shortest(MIN_EXPONENT, fraction, 0, out, pos);
+        }
+        return ascii("0.0", out, pos);
+    }
+
+    /**
+     * Writes the float value into out at pos, and returns the position after it. At most {@link #MAX_LENGTH}
+     * bytes are written.
+     */
+    static int format(float value, byte[] out, int pos) {
+        int bits = Float.floatToRawIntBits(value);
+        int fraction = bits & (FLOAT_HIDDEN_BIT - 1);
+        int biasedExponent = (bits >>> (FLOAT_PRECISION - 1)) & 0xFF;
+        if (biasedExponent == 0xFF) {
+            return ascii(fraction != 0 ? "NaN" : bits < 0 ? "-Infinity" : "Infinity", out, pos);
+        }
+        if (bits < 0) {
+            out[pos++] = '-';
+        }
+        if (biasedExponent != 0) {
+            int shift = -FLOAT_MIN_EXPONENT + 1 - biasedExponent;
+            int significand = FLOAT_HIDDEN_BIT | fraction;
+            if (0 < shift && shift < FLOAT_PRECISION) {
+                int integer = significand >> shift;
+                if (integer << shift == significand) {
+                    return digits(integer, 0, out, pos);
+                }
+            }
+            return shortestFloat(-shift, significand, 0, out, pos);
+        }
+        if (fraction != 0) {
+            return fraction < FLOAT_TINY_SIGNIFICAND
+                    ? shortestFloat(FLOAT_MIN_EXPONENT, 10 * fraction, -1, out, pos)
+                    : shortestFloat(FLOAT_MIN_EXPONENT, fraction, 0, out, pos);
+        }
+        return ascii("0.0", out, pos);
+    }
+
+    /**
+     * Writes the shortest decimal in the rounding interval of significand * 2^exponent,
+     * whose decimal exponent is then corrected by exponentCorrection.
+     */
+    private static int shortest(int exponent, long significand, int exponentCorrection, byte[] out, int pos) {
+        int odd = (int) significand & 1;
+        // The double and the ends of its interval, in units of a quarter of the last binary place
+        long center = significand << 2;
+        long right = center + 2;
+        long left;
+        int k;
+        if (significand != HIDDEN_BIT || exponent == MIN_EXPONENT) {
+            left = center - 2;
+            k = floorLog10Pow2(exponent);
+        } else {
+            // At a power of two the interval below is half as wide
+            left = center - 1;
+            k = floorLog10ThreeQuartersPow2(exponent);
+        }
+        int h = exponent + floorLog2Pow10(-k) + 2;
+        long gHigh = G_HIGH[k - SMALLEST_POWER];
+        long gLow = G_LOW[k - SMALLEST_POWER];
+        // The three points scaled by 10^-k, rounded to odd so that exact ties stay recognisable
+        long scaledCenter = roundToOdd(gHigh, gLow, center << h);
+        long scaledLeft = roundToOdd(gHigh, gLow, left << h);
+        long scaledRight = roundToOdd(gHigh, gLow, right << h);
+
+        long s = scaledCenter >> 2;
+        if (s >= 100) {
+            // Try one digit less first: the multiples of 10 around s
+            long sp10 = 10 * Math.multiplyHigh(s, 115_292_150_460_684_698L << 4);
+            long tp10 = sp10 + 10;
+            boolean lowerInside = scaledLeft + odd <= sp10 << 2;
+            boolean upperInside = (tp10 << 2) + odd <= scaledRight;
+            if (lowerInside != upperInside) {
+                return digits(lowerInside ? sp10 : tp10, k, out, pos);
+            }
+        }
+        long t = s + 1;
+        boolean lowerInside = scaledLeft + odd <= s << 2;
+        boolean upperInside = (t << 2) + odd <= scaledRight;
+        if (lowerInside != upperInside) {
+            return digits(lowerInside ? s : t, k + exponentCorrection, out, pos);
+        }
+        // Both or neither are inside: take the closer one, and the even one on a tie
+        long difference = scaledCenter - ((s + t) << 1);
+        return digits(difference < 0 || difference == 0 && (s & 1) == 0 ? s : t, k + exponentCorrection, out, pos);
+    }
+
+    /**
+     * The float counterpart of shortest, on 32-bit scaled values.
+     */
+    private static int shortestFloat(int exponent, int significand, int exponentCorrection, byte[] out, int pos) {
+        int odd = significand & 1;
+        long center = (long) significand << 2;
+        long right = center + 2;
+        long left;
+        int k;
+        if (significand != FLOAT_HIDDEN_BIT || exponent == FLOAT_MIN_EXPONENT) {
+            left = center - 2;
+            k = floorLog10Pow2(exponent);
+        } else {
+            left = center - 1;
+            k = floorLog10ThreeQuartersPow2(exponent);
+        }
+        int h = exponent + floorLog2Pow10(-k) + 33;
+        long g = G_HIGH[k - SMALLEST_POWER] + 1;
+        int scaledCenter = roundToOdd(g, center << h);
+        int scaledLeft = roundToOdd(g, left << h);
+        int scaledRight = roundToOdd(g, right << h);
+
+        int s = scaledCenter >> 2;
+        if (s >= 100) {
+            int sp10 = 10 * (int) (s * 1_717_986_919L >>> 34);
+            int tp10 = sp10 + 10;
+            boolean lowerInside = scaledLeft + odd <= sp10 << 2;
+            boolean upperInside = (tp10 << 2) + odd <= scaledRight;
+            if (lowerInside != upperInside) {
+                return digits(lowerInside ? sp10 : tp10, k, out, pos);
+            }
+        }
+        int t = s + 1;
+        boolean lowerInside = scaledLeft + odd <= s << 2;
+        boolean upperInside = (t << 2) + odd <= scaledRight;
+        if (lowerInside != upperInside) {
+            return digits(lowerInside ? s : t, k + exponentCorrection, out, pos);
+        }
+        int difference = scaledCenter - ((s + t) << 1);
+        return digits(difference < 0 || difference == 0 && (s & 1) == 0 ? s : t, k + exponentCorrection, out, pos);
+    }
+
+    // The upper 32 bits of g * cp / 2^63, with its lowest bit set when the bits dropped are not all zero
+    private static int roundToOdd(long g, long cp) {
+        long x1 = Math.multiplyHigh(g, cp);
+        long upper = x1 >>> 31;
+        return (int) (upper | (x1 & MASK_32) + MASK_32 >>> 32);
+    }
+
+    // The upper 64 bits of g * cp / 2^63, with its lowest bit set when the bits dropped are not all zero
+    private static long roundToOdd(long gHigh, long gLow, long cp) {
+        long x1 = Math.multiplyHigh(gLow, cp);
+        long y0 = gHigh * cp;
+        long y1 = Math.multiplyHigh(gHigh, cp);
+        long z = (y0 >>> 1) + x1;
+        long upper = y1 + (z >>> 63);
+        return upper | ((z & MASK_63) + MASK_63) >>> 63;
+    }
+
+    /**
+     * Writes the decimal f * 10^e in the layout of Double.toString.
+     */
+    private static int digits(long f, int e, byte[] out, int pos) {
+        while (f % 10 == 0 && f != 0) {
+            f /= 10;
+            e++;
+        }
+        int length = 1;
+        while (length < POWERS_OF_TEN.length - 1 && f >= POWERS_OF_TEN[length]) {
+            length++;
+        }
+        // The value is 0.d1d2...dn * 10^point
+        int point = e + length;
+        if (0 < point && point <= 7) {
+            // Plain, with at least one digit after the point
+            if (length <= point) {
+                pos = writeDigits(f, length, out, pos);
+                for (int i = length; i < point; i++) {
+                    out[pos++] = '0';
+                }
+                out[pos++] = '.';
+                out[pos++] = '0';
+            } else {
+                writeDigits(f, length, out, pos + 1);
+                System.arraycopy(out, pos + 1, out, pos, point);
+                out[pos + point] = '.';
+                pos += length + 1;
+            }
+            return pos;
+        }
+        if (-3 < point && point <= 0) {
+            out[pos++] = '0';
+            out[pos++] = '.';
+            for (int i = point; i < 0; i++) {
+                out[pos++] = '0';
+            }
+            return writeDigits(f, length, out, pos);
+        }
+        // Scientific, with one digit before the point
+        writeDigits(f, length, out, pos + 1);
+        out[pos] = out[pos + 1];
+        out[pos + 1] = '.';
+        pos += length + 1;
+        if (length == 1) {
+            out[pos++] = '0';
+        }
+        out[pos++] = 'E';
+        int exponent = point - 1;
+        if (exponent < 0) {
+            out[pos++] = '-';
+            exponent = -exponent;
+        }
+        if (exponent >= 100) {
+            out[pos++] = (byte) ('0' + exponent / 100);
+        }
+        if (exponent >= 10) {
+            out[pos++] = (byte) ('0' + exponent / 10 % 10);
+        }
+        out[pos++] = (byte) ('0' + exponent % 10);
+        return pos;
+    }
+
+    // Writes the given number of digits of f, most significant first, two at a time
+    private static int writeDigits(long f, int length, byte[] out, int pos) {
+        int i = pos + length;
+        while (f > Integer.MAX_VALUE) {
+            long q = f / 100;
+            int pair = (int) (f - q * 100) << 1;
+            out[--i] = DIGIT_PAIRS[pair + 1];
+            out[--i] = DIGIT_PAIRS[pair];
+            f = q;
+        }
+        int n = (int) f;
+        while (n >= 100) {
+            int q = n / 100;
+            int pair = (n - q * 100) << 1;
+            out[--i] = DIGIT_PAIRS[pair + 1];
+            out[--i] = DIGIT_PAIRS[pair];
+            n = q;
+        }
+        if (n >= 10) {
+            out[--i] = DIGIT_PAIRS[(n << 1) + 1];
+            out[--i] = DIGIT_PAIRS[n << 1];
+        } else {
+            out[--i] = (byte) ('0' + n);
+        }
+        return pos + length;
+    }
+
+    private static int ascii(String text, byte[] out, int pos) {
+        for (int i = 0; i < text.length(); i++) {
+            out[pos++] = (byte) text.charAt(i);
+        }
+        return pos;
+    }
+
+    // floor(q * log10(2)), for |q| <= 5456721
+    private static int floorLog10Pow2(int q) {
+        return (int) (q * 661_971_961_083L >> 41);
+    }
+
+    // floor(q * log10(2) + log10(3/4)), for |q| <= 5456721
+    private static int floorLog10ThreeQuartersPow2(int q) {
+        return (int) (q * 661_971_961_083L + -274_743_187_321L >> 41);
+    }
+
+    // floor(e * log2(10)), for |e| <= 1838394
+    private static int floorLog2Pow10(int e) {
+        return (int) (e * 913_124_641_741L >> 38);
+    }
+}
@@ -1,68 +1,611 @@
 package parser;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import memory.Precision;
+import memory.SharedMatrix;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.text.ParseException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
 
+/**
+ * Parses an expression from its JSON token stream, without building a JSON tree of the input:
+ * matrix elements go straight from the tokens into primitive rows, and row widths are checked
+ * as the rows are read. Only the small fields of an operation or a placeholder are read as trees.
+ * <p>
+ * A large operand can be given as a reference to a binary matrix file, {"file": "A.bin"} (see
+ * {@link BinaryMatrixFile}), to a NumPy array, {"file": "A.npy"} (see {@link NpyFile}), or to a sparse
+ * Matrix Market file, {"file": "A.mtx"} (see {@link MatrixMarketFile}), relative to the directory of the input file.
+ * <p>
+ * An input file whose name ends in .gz is decompressed as it is parsed, never as a whole.
+ * <p>
+ * In an input file of at least {@link #PARALLEL_PARSE_MIN_BYTES}, the plain matrix literals are found by a
+ * scan of the raw bytes first, split at row boundaries, and parsed in pieces on the parser's executor
+ * without creating a String per number. Meanwhile the structure is parsed from a copy of the document
+ * in which every such literal is replaced by a single digit, and each literal is awaited where it appears.
+ * Literals are started in document order, only a little ahead of the one awaited, so that other work on
+ * the same executor, such as the computation of an operand parsed earlier, is not queued behind all of them.
+ * <p>
+ * Given a listener, the parser hands it every operation operand of the root as soon as the operand is
+ * complete, so it can be computed while the rest of the input is read. Each operand of the root is
+ * then parsed in a structural table of its own, so nothing it holds is shared with the rest of the tree.
+ * <p>
+ * A parser set to single precision rounds every row to floats as soon as it is read, so a matrix is
+ * never held in doubles as a whole, and keeps the matrices in engine form as float matrices.
+ */
 public class InputParser {
 
-    private final ObjectMapper mapper = new ObjectMapper();
+    // Input files at least this large have their matrix literals parsed on the executor
+    public static final long PARALLEL_PARSE_MIN_BYTES = 1 << 20;
+    // A piece of a literal parsed by one task has at least this many bytes
+    private static final int MIN_PIECE_BYTES = 1 << 18;
+    // Literals starting within this many bytes after the one awaited are parsed ahead of the structure
+    private static final int LITERAL_LOOKAHEAD_BYTES = 8 << 20;
+    // Size of the buffer of compressed input
+    private static final int GZIP_BUFFER_BYTES = 1 << 16;
+
+    // Thread safe once configured, so every parser shares it instead of initialising its own
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final Executor workers;
+
+    // Structural hash table of the current parse: maps a subtree key to the single node that represents it
+    private final Map<Object, ComputationNode> canonicalNodes = new HashMap<>();
+    // Directory that matrix file references are relative to, null for the working directory
+    private Path baseDirectory = null;
+    // Literals of the mapped file being parsed, or null
+    private Literals literals = null;
+    // Receives the completed operation operands of the root, or null
+    private Consumer<ComputationNode> completedOperands = null;
+    // Number of operand lists the parser is in
+    private int depth = 0;
+    // Precision the parsed matrices are stored in
+    private Precision precision = Precision.DOUBLE;
+
+    /**
+     * Creates a parser that parses the literals of large files on the calling thread.
+     */
+    public InputParser() {
+        this(Runnable::run);
+    }
+
+    /**
+     * Creates a parser that parses the literals of large files on the given executor, such as the engine's workers.
+     */
+    public InputParser(Executor workers) {
+        if (workers == null) {
+            throw new IllegalArgumentException("workers cant be null");
+        }
+        this.workers = workers;
+    }
+
+    /**
+     * Makes the parser store the matrices it reads in the given precision. In float, literals and dense
+     * matrix files become float matrices in engine form; NumPy and sparse files are read as they are.
+     */
+    public void setPrecision(Precision precision) {
+        if (precision == null) {
+            throw new IllegalArgumentException("precision cant be null");
+        }
+        this.precision = precision;
+    }
 
     public ComputationNode parse(String inputPath) throws ParseException {
+        File inputFile = new File(inputPath);
         try {
-            File inputFile = new File(inputPath);
-            JsonNode rootJsonNode = mapper.readTree(inputFile);
-            ComputationNode root = parseJsonNode(rootJsonNode);
-            return root;
+            if (inputPath.endsWith(".gz")) {
+                try (InputStream input = new GZIPInputStream(new FileInputStream(inputFile), GZIP_BUFFER_BYTES);
+                     JsonParser parser = mapper.createParser(input)) {
+                    baseDirectory = inputFile.getAbsoluteFile().getParentFile().toPath();
+                    return parse(parser);
+                }
+            }
+            long size = inputFile.length();
+            if (size >= PARALLEL_PARSE_MIN_BYTES && size < Integer.MAX_VALUE) {
+                baseDirectory = inputFile.getAbsoluteFile().getParentFile().toPath();
+                return parseMapped(inputFile.toPath());
+            }
+            try (JsonParser parser = mapper.createParser(inputFile)) {
+                baseDirectory = inputFile.getAbsoluteFile().getParentFile().toPath();
+                return parse(parser);
+            }
         } catch (IOException e) {
             throw new ParseException("Failed to read the input JSON file: " + e.getMessage(), 0);
         }
     }
 
-    private ComputationNode parseJsonNode(JsonNode jsonNode) throws ParseException {
-        if (jsonNode.has("operator") && jsonNode.has("operands")) {
-            String operatorStr = jsonNode.get("operator").asText();
-            ArrayNode operandJsonNodes = (ArrayNode) jsonNode.get("operands");
-            List<ComputationNode> operands = new ArrayList<>();
-            for (int i = 0; i < operandJsonNodes.size(); i++) {
-                operands.add(parseJsonNode(operandJsonNodes.get(i)));
+    /**
+     * Parses the input file like {@link #parse(String)}, and hands every operation operand of the root
+     * to the listener, on the calling thread, as soon as the operand has been read. An operand shares
+     * identical subtrees with the operands before and after it, so while the parse goes on the listener
+     * may read it but must neither release nor overwrite any of its nodes. The returned tree holds the
+     * operand nodes themselves.
+     */
+    public ComputationNode parse(String inputPath, Consumer<ComputationNode> completedOperands) throws ParseException {
+        if (completedOperands == null) {
+            throw new IllegalArgumentException("completedOperands cant be null");
+        }
+        this.completedOperands = completedOperands;
+        try {
+            return parse(inputPath);
+        } finally {
+            this.completedOperands = null;
+        }
+    }
+
+    /**
+     * Starts parsing the plain literals of the mapped file on the executor, then parses the structure
+     * from a condensed copy of the document, with a single digit in place of each literal.
+     */
+    private ComputationNode parseMapped(Path path) throws IOException, ParseException {
+        ByteBuffer bytes;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        List<int[]> ranges = MatrixLiterals.find(bytes);
+        int condensedSize = bytes.limit();
+        for (int[] literal : ranges) {
+            condensedSize -= literal[1] - literal[0] - 1;
+        }
+        byte[] condensed = new byte[condensedSize];
+        literals = new Literals(bytes, ranges);
+        int written = 0;
+        int copied = 0;
+        for (int[] literal : ranges) {
+            bytes.get(copied, condensed, written, literal[0] - copied);
+            written += literal[0] - copied;
+            literals.indexAt.put((long) written, literals.indexAt.size());
+            condensed[written++] = '0';
+            copied = literal[1];
+        }
+        bytes.get(copied, condensed, written, bytes.limit() - copied);
+        literals.startUpTo(0);
+        try (JsonParser parser = mapper.createParser(condensed)) {
+            return parse(parser);
+        } finally {
+            literals = null;
+        }
+    }
+
+    /**
+     * The plain literals of a mapped file, started in document order as the structure parse reaches them.
+     */
+    private final class Literals {
+        private final ByteBuffer bytes;
+        private final List<int[]> ranges;
+        // Index of each literal by the offset of the digit standing for it in the condensed document
+        private final Map<Long, Integer> indexAt = new HashMap<>();
+        private final List<CompletableFuture<MatrixKey>> started = new ArrayList<>();
+
+        Literals(ByteBuffer bytes, List<int[]> ranges) {
+            this.bytes = bytes;
+            this.ranges = ranges;
+        }
+
+        // Returns the literal at the offset and starts the ones following it, or null if none is there
+        CompletableFuture<MatrixKey> at(long offset) {
+            Integer index = indexAt.get(offset);
+            if (index == null) {
+                return null;
             }
-            return new ComputationNode(operatorStr, operands);
+            startUpTo(index + 1);
+            return started.get(index);
         }
-        else if (jsonNode.isArray()) {
-            if (jsonNode.size() == 0) {
-                throw new ParseException("Empty array cannot be parsed as DataNode.", 0);
+
+        // Starts the literals up to the given one, and the ones after it that begin within the lookahead
+        void startUpTo(int index) {
+            if (ranges.isEmpty()) {
+                return;
             }
-            // Check if it's a vector (1D array)
-            if (jsonNode.get(0).isNumber()) {
-                throw new ParseException("Vectors (1D arrays) are not supported as standalone nodes.", 0);
+            long horizon = ranges.get(Math.min(index, ranges.size() - 1))[0] + (long) LITERAL_LOOKAHEAD_BYTES;
+            while (started.size() < ranges.size()
+                    && (started.size() <= index || ranges.get(started.size())[0] <= horizon)) {
+                started.add(parseLiteral(bytes, ranges.get(started.size())));
             }
-            // Otherwise, it's a matrix (2D array)
-            else {
-                double[][] matrix = new double[jsonNode.size()][];
-                int width = jsonNode.get(0).size();
-                for (int i = 0; i < jsonNode.size(); i++) {
-                    JsonNode rowJsonNode = jsonNode.get(i);
-                    if (rowJsonNode.size() != width) {
-                        throw new ParseException("Inconsistent row sizes in matrix.", 0);
-                    }
-                    if (!rowJsonNode.isArray()) {
-                        throw new ParseException("Invalid matrix row: " + rowJsonNode.toString(), 0);
+        }
+    }
+
+    /**
+     * Parses the literal in pieces of whole rows, one task per piece, and returns its key once every piece is done.
+     */
+    private CompletableFuture<MatrixKey> parseLiteral(ByteBuffer bytes, int[] literal) {
+        int pieces = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(),
+                (literal[1] - literal[0]) / MIN_PIECE_BYTES));
+        int[] bounds = MatrixLiterals.split(bytes, literal, pieces);
+        final boolean floats = precision == Precision.FLOAT;
+        List<CompletableFuture<Object[]>> parts = new ArrayList<>();
+        for (int p = 0; p < pieces; p++) {
+            final ByteBuffer view = bytes.duplicate();
+            final int from = bounds[p];
+            final int to = bounds[p + 1];
+            // In float, each piece is rounded by the task that parsed it
+            parts.add(CompletableFuture.supplyAsync(() -> {
+                List<double[]> rows = MatrixLiterals.parseRows(view, from, to);
+                return floats ? toFloats(rows) : rows.toArray(new double[0][]);
+            }, workers));
+        }
+        return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            int count = 0;
+            for (CompletableFuture<Object[]> part : parts) {
+                count += part.join().length;
+            }
+            Object[] rows = floats ? new float[count][] : new double[count][];
+            count = 0;
+            for (CompletableFuture<Object[]> part : parts) {
+                System.arraycopy(part.join(), 0, rows, count, part.join().length);
+                count += part.join().length;
+            }
+            for (Object row : rows) {
+                if (widthOf(row) != widthOf(rows[0])) {
+                    throw new IllegalArgumentException("Inconsistent row sizes in matrix.");
+                }
+            }
+            // The key hashes the whole matrix, so it is computed here rather than on the parsing thread
+            return new MatrixKey(rows);
+        });
+    }
+
+    /**
+     * Parses an expression that was already read as JSON, such as the inline payload of a server job.
+     */
+    public ComputationNode parse(JsonNode rootJsonNode) throws ParseException {
+        if (rootJsonNode == null) {
+            throw new ParseException("Missing expression.", 0);
+        }
+        try (JsonParser parser = mapper.treeAsTokens(rootJsonNode)) {
+            return parse(parser);
+        } catch (IOException e) {
+            throw new ParseException("Failed to read the expression: " + e.getMessage(), 0);
+        }
+    }
+
+    private ComputationNode parse(JsonParser parser) throws IOException, ParseException {
+        try {
+            if (parser.nextToken() == null) {
+                throw new ParseException("Invalid node structure: empty input", 0);
+            }
+            return parseValue(parser);
+        } finally {
+            // Drop the table so it does not keep the parsed matrices alive after the parse
+            canonicalNodes.clear();
+            baseDirectory = null;
+        }
+    }
+
+    /**
+     * Returns the node already parsed for an identical subtree, or registers this one.
+     * Operation nodes are keyed by their type and their (already canonical) children,
+     * so identical subtrees collapse into one shared DAG node that the engine resolves once.
+     */
+    private ComputationNode canonical(ComputationNode node) {
+        Object key;
+        if (node.getPlaceholderName() == null && node.getNodeType() == ComputationNodeType.MATRIX) {
+            return canonical(node, new MatrixKey(node.getMatrix()));
+        }
+        if (node.getPlaceholderName() != null) {
+            // Placeholders are all zeros until bound, so they are told apart by name only
+            key = List.of("placeholder", node.getPlaceholderName());
+        } else {
+            // Children are canonical, so identity equality of the children is structural equality
+            List<Object> operatorKey = new ArrayList<>();
+            operatorKey.add(node.getNodeType());
+            operatorKey.addAll(node.getChildren());
+            key = operatorKey;
+        }
+        return canonical(node, key);
+    }
+
+    private ComputationNode canonical(ComputationNode node, Object key) {
+        ComputationNode existing = canonicalNodes.putIfAbsent(key, node);
+        return existing != null ? existing : node;
+    }
+
+    /**
+     * Parses a named placeholder of a prepared expression: {"placeholder": "A", "shape": [rows, columns]}.
+     * Every occurrence of a name must declare the same shape.
+     */
+    private ComputationNode parsePlaceholder(JsonNode jsonNode) throws ParseException {
+        JsonNode shape = jsonNode.get("shape");
+        if (!jsonNode.get("placeholder").isTextual() || shape == null || !shape.isArray() || shape.size() != 2
+                || !shape.get(0).canConvertToInt() || !shape.get(1).canConvertToInt()
+                || shape.get(0).asInt() < 1 || shape.get(1).asInt() < 1) {
+            throw new ParseException("Invalid placeholder: " + jsonNode.toString(), 0);
+        }
+        ComputationNode placeholder = canonical(new ComputationNode(jsonNode.get("placeholder").asText(),
+                shape.get(0).asInt(), shape.get(1).asInt()));
+        int[] declared = placeholder.getShape();
+        if (declared[0] != shape.get(0).asInt() || declared[1] != shape.get(1).asInt()) {
+            throw new ParseException("Placeholder " + placeholder.getPlaceholderName()
+                    + " is declared with different shapes.", 0);
+        }
+        return placeholder;
+    }
+
+    /**
+     * Parses the value starting at the current token, and leaves the parser on its last token.
+     */
+    private ComputationNode parseValue(JsonParser parser) throws IOException, ParseException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.START_OBJECT) {
+            return parseObject(parser);
+        }
+        if (token == JsonToken.START_ARRAY) {
+            MatrixKey key = parseMatrix(parser);
+            return canonical(key.leaf(), key);
+        }
+        if (literals != null && token == JsonToken.VALUE_NUMBER_INT) {
+            CompletableFuture<MatrixKey> literal = literals.at(parser.currentTokenLocation().getByteOffset());
+            if (literal != null) {
+                MatrixKey key = awaitLiteral(literal);
+                return canonical(key.leaf(), key);
+            }
+        }
+        throw new ParseException("Invalid node structure: " + parser.getText(), 0);
+    }
+
+    /**
+     * Parses an operation {"operator": ..., "operands": [...]} or a placeholder, in any field order.
+     * The operands are parsed as they are read; the other fields are small and read as trees.
+     */
+    private ComputationNode parseObject(JsonParser parser) throws IOException, ParseException {
+        ObjectNode fields = mapper.createObjectNode();
+        List<ComputationNode> operands = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (name.equals("operands") && value == JsonToken.START_ARRAY) {
+                operands = new ArrayList<>();
+                depth++;
+                try {
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        operands.add(depth == 1 && completedOperands != null
+                                ? parseRootOperand(parser) : parseValue(parser));
                     }
-                    matrix[i] = new double[rowJsonNode.size()];
-                    for (int j = 0; j < rowJsonNode.size(); j++) {
-                        matrix[i][j] = rowJsonNode.get(j).asDouble();
+                } finally {
+                    depth--;
+                }
+                fields.remove(name);
+            } else {
+                fields.set(name, parser.readValueAsTree());
+                if (name.equals("operands")) {
+                    operands = null;
+                }
+            }
+        }
+        if (fields.has("operator") && (operands != null || fields.has("operands"))) {
+            if (operands == null) {
+                throw new ParseException("Invalid operands: " + fields.get("operands").toString(), 0);
+            }
+            return canonical(new ComputationNode(fields.get("operator").asText(), operands));
+        }
+        if (fields.has("placeholder")) {
+            return parsePlaceholder(fields);
+        }
+        if (fields.has("file")) {
+            String name = fields.get("file").asText();
+            if (!name.endsWith(".npy") && !name.endsWith(".mtx")) {
+                // The rows read from the mapping key the leaf and become its storage, without another copy
+                MatrixKey key = new MatrixKey(readBinaryFile(fields.get("file")));
+                return canonical(key.storedLeaf(), key);
+            }
+            ComputationNode leaf = readMatrixFile(fields.get("file"));
+            // Column-major and sparse leaves are kept out of the table, which would key them by a row-major copy
+            if (leaf.getResult() != null || leaf.getSparse() != null) {
+                return leaf;
+            }
+            if (precision == Precision.FLOAT) {
+                MatrixKey key = new MatrixKey(toFloats(Arrays.asList(leaf.getMatrix())));
+                return canonical(key.leaf(), key);
+            }
+            return canonical(leaf);
+        }
+        throw new ParseException("Invalid node structure: " + fields.toString(), 0);
+    }
+
+    /**
+     * Parses an operand of the root, and hands it to the listener if it is an operation.
+     */
+    private ComputationNode parseRootOperand(JsonParser parser) throws IOException, ParseException {
+        ComputationNode operand = parseValue(parser);
+        if (operand.getNodeType() != ComputationNodeType.MATRIX) {
+            completedOperands.accept(operand);
+        }
+        return operand;
+    }
+
+    /**
+     * Reads the rows of a {"file": path} operand that refers to a binary matrix file, as float
+     * arrays in float precision and as double arrays otherwise.
+     */
+    private Object[] readBinaryFile(JsonNode file) throws ParseException {
+        try {
+            Path path = matrixFilePath(file);
+            return precision == Precision.FLOAT ? BinaryMatrixFile.readFloats(path) : BinaryMatrixFile.read(path);
+        } catch (IOException | RuntimeException e) {
+            throw new ParseException("Failed to read the matrix file " + file.asText() + ": " + e.getMessage(), 0);
+        }
+    }
+
+    /**
+     * Reads the matrix of a {"file": path} operand, as a NumPy array when the path ends in .npy
+     * and as a sparse matrix otherwise, when it ends in .mtx.
+     */
+    private ComputationNode readMatrixFile(JsonNode file) throws ParseException {
+        Path path = matrixFilePath(file);
+        try {
+            if (file.asText().endsWith(".npy")) {
+                return NpyFile.read(path);
+            }
+            return new ComputationNode(MatrixMarketFile.read(path));
+        } catch (IOException | RuntimeException e) {
+            throw new ParseException("Failed to read the matrix file " + file.asText() + ": " + e.getMessage(), 0);
+        }
+    }
+
+    private Path matrixFilePath(JsonNode file) throws ParseException {
+        if (!file.isTextual()) {
+            throw new ParseException("Invalid matrix file reference: " + file.toString(), 0);
+        }
+        return baseDirectory == null ? Paths.get(file.asText()) : baseDirectory.resolve(file.asText());
+    }
+
+    /**
+     * Reads a matrix literal row by row into primitive arrays, and returns its key. The first row sets
+     * the width, and every later row is read straight into an array of that width. In float, every row
+     * is read into one reused buffer and rounded into a float array of that width.
+     */
+    private MatrixKey parseMatrix(JsonParser parser) throws IOException, ParseException {
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.END_ARRAY) {
+            throw new ParseException("Empty array cannot be parsed as DataNode.", 0);
+        }
+        if (token.isNumeric()) {
+            throw new ParseException("Vectors (1D arrays) are not supported as standalone nodes.", 0);
+        }
+        List<double[]> rows = new ArrayList<>();
+        List<float[]> floatRows = precision == Precision.FLOAT ? new ArrayList<>() : null;
+        double[] buffer = new double[16];
+        int width = -1;
+        for (; token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+            if (token != JsonToken.START_ARRAY) {
+                throw new ParseException("Invalid matrix row: " + parser.getText(), 0);
+            }
+            double[] row = width < 0 || floatRows != null ? buffer : new double[width];
+            int length = 0;
+            for (token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+                if (length == row.length) {
+                    if (width >= 0) {
+                        throw new ParseException("Inconsistent row sizes in matrix.", 0);
                     }
+                    row = buffer = Arrays.copyOf(buffer, buffer.length * 2);
                 }
-                return new ComputationNode(matrix);
+                row[length++] = elementValue(parser, token);
+            }
+            if (width >= 0 && length != width) {
+                throw new ParseException("Inconsistent row sizes in matrix.", 0);
+            }
+            if (floatRows != null) {
+                width = length;
+                floatRows.add(toFloats(row, width));
+                continue;
             }
+            if (width < 0) {
+                // The first row is read into a growing buffer, then trimmed to its width
+                width = length;
+                row = Arrays.copyOf(buffer, width);
+                buffer = null;
+            }
+            rows.add(row);
+        }
+        if (floatRows != null) {
+            return new MatrixKey(floatRows.toArray(new float[0][]));
+        }
+        return new MatrixKey(rows.toArray(new double[0][]));
+    }
+
+    // The first length elements of the row, rounded to float
+    private static float[] toFloats(double[] row, int length) {
+        float[] rounded = new float[length];
+        for (int j = 0; j < length; j++) {
+            rounded[j] = (float) row[j];
+        }
+        return rounded;
+    }
+
+    private static float[][] toFloats(List<double[]> rows) {
+        float[][] rounded = new float[rows.size()][];
+        for (int i = 0; i < rounded.length; i++) {
+            rounded[i] = toFloats(rows.get(i), rows.get(i).length);
+        }
+        return rounded;
+    }
+
+    private static int widthOf(Object row) {
+        return row instanceof float[] floats ? floats.length : ((double[]) row).length;
+    }
+
+    private static MatrixKey awaitLiteral(CompletableFuture<MatrixKey> literal) throws ParseException {
+        try {
+            return literal.join();
+        } catch (CompletionException e) {
+            throw new ParseException(String.valueOf(e.getCause().getMessage()), 0);
+        }
+    }
+
+    private static double elementValue(JsonParser parser, JsonToken token) throws IOException, ParseException {
+        if (token == JsonToken.VALUE_NUMBER_FLOAT || token == JsonToken.VALUE_NUMBER_INT) {
+            return parser.getDoubleValue();
+        }
+        if (token.isScalarValue()) {
+            // Strings, booleans and nulls are read as numbers where possible, as before
+            return parser.getValueAsDouble();
+        }
+        throw new ParseException("Invalid matrix element in row.", 0);
+    }
+
+    /**
+     * Content key of a matrix literal: equal when dimensions and every element are equal.
+     * The hash is computed once, since the key is looked up while the rest of the file is parsed.
+     * The rows are double[] or, for a parser in single precision, float[] arrays.
+     */
+    private static final class MatrixKey {
+        private final Object[] matrix;
+        private final int hash;
+
+        MatrixKey(Object[] matrix) {
+            this.matrix = matrix;
+            this.hash = Arrays.deepHashCode(matrix);
+        }
+
+        // A new leaf holding the matrix, float rows being wrapped as a float matrix in engine form
+        ComputationNode leaf() {
+            if (matrix instanceof float[][] rows) {
+                return new ComputationNode(SharedMatrix.ofFloatRows(rows));
+            }
+            return new ComputationNode((double[][]) matrix);
+        }
+
+        // A new leaf whose engine storage is the matrix itself, for rows nothing else holds
+        ComputationNode storedLeaf() {
+            if (matrix instanceof float[][] rows) {
+                return new ComputationNode(SharedMatrix.ofFloatRows(rows));
+            }
+            return new ComputationNode(SharedMatrix.ofDoubleRows((double[][]) matrix));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof MatrixKey)) {
+                return false;
+            }
+            MatrixKey other = (MatrixKey) o;
+            return hash == other.hash && Arrays.deepEquals(matrix, other.matrix);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
         }
-        else { throw new ParseException("Invalid node structure: " + jsonNode.toString(), 0); }
     }
 
-}
\ No newline at end of file
+}
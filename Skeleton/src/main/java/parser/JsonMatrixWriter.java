@@ -0,0 +1,233 @@
+package parser;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a result matrix as JSON a block of rows at a time, so that neither a tree of the output nor a
+ * second copy of the matrix is ever built. Numbers are formatted straight into bytes by
+ * {@link DoubleFormatter}, as Jackson writes them; the elements of a float matrix are written as floats,
+ * with the shortest decimal of the float rather than of its double value.
+ * <p>
+ * The default layout is the one of Jackson's default pretty printer, which the output always had;
+ * the compact layout has no white space at all.
+ * <p>
+ * A large matrix can be formatted on an executor, such as the engine's workers: blocks are formatted
+ * in parallel into buffers taken from a small pool, a bounded number of blocks ahead of the file, and
+ * each run of consecutive finished blocks is written in order with one gathering write.
+ * <p>
+ * A file whose name ends in .gz is written gzip-compressed, the blocks going through the compressor
+ * as they are formatted.
+ */
+final class JsonMatrixWriter {
+
+    // A block holds about this many elements
+    private static final int BLOCK_ELEMENTS = 1 << 14;
+    // Matrices with fewer elements are formatted on the calling thread
+    static final long PARALLEL_WRITE_MIN_ELEMENTS = 1 << 18;
+    // Size of the compressor's output buffer and of the buffer in front of the file
+    private static final int GZIP_BUFFER_BYTES = 1 << 16;
+    private static final String EOL = System.lineSeparator();
+
+    /**
+     * Gives the rows of the matrix being written, a block at a time.
+     */
+    interface RowBlocks {
+        /**
+         * Returns the count rows from the given one on. The arrays are only read.
+         */
+        double[][] read(int from, int count);
+    }
+
+    private JsonMatrixWriter() {}
+
+    /**
+     * Writes {"result": matrix} to the file, replacing it if it exists.
+     */
+    static void write(int rows, int cols, RowBlocks source, boolean floats, Path path, boolean compact)
+            throws IOException {
+        write(rows, cols, source, floats, path, compact, Runnable::run, 1);
+    }
+
+    /**
+     * Writes {"result": matrix} to the file like {@link #write(int, int, RowBlocks, boolean, Path, boolean)}, formatting
+     * the blocks of a large matrix on the given executor. The source must then be safe to read from several threads.
+     */
+    static void write(int rows, int cols, RowBlocks source, boolean floats, Path path, boolean compact,
+                      Executor workers) throws IOException {
+        if ((long) rows * cols < PARALLEL_WRITE_MIN_ELEMENTS) {
+            write(rows, cols, source, floats, path, compact);
+            return;
+        }
+        write(rows, cols, source, floats, path, compact, workers, 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Formats the blocks on the executor, at most window of them ahead of the last one written.
+     */
+    private static void write(int rows, int cols, RowBlocks source, boolean floats, Path path, boolean compact,
+                              Executor workers, int window) throws IOException {
+        int blockRows = Math.max(1, BLOCK_ELEMENTS / Math.max(1, cols));
+        int blocks = (rows + blockRows - 1) / blockRows;
+        int capacity = blockCapacity(Math.min(blockRows, Math.max(1, rows)), cols);
+        // Buffers of the blocks written so far, for the blocks still to format
+        ArrayDeque<ByteBuffer> pool = new ArrayDeque<>();
+        List<CompletableFuture<ByteBuffer>> formatted = new ArrayList<>(Collections.nCopies(window, null));
+        try (WritableByteChannel channel = open(path)) {
+            ByteBuffer header = ascii(compact ? "{\"result\":[" : "{" + EOL + "  \"result\" : [ ");
+            if (blocks == 0) {
+                writeFully(channel, new ByteBuffer[]{header, ascii(compact ? "]}" : "]" + EOL + "}")});
+                return;
+            }
+            int submitted = 0;
+            int written = 0;
+            List<ByteBuffer> run = new ArrayList<>();
+            List<ByteBuffer> done = new ArrayList<>();
+            run.add(header);
+            while (true) {
+                for (; submitted < blocks && submitted - written < window; submitted++) {
+                    ByteBuffer buffer = pool.isEmpty() ? ByteBuffer.allocate(capacity) : pool.pop();
+                    int from = submitted * blockRows;
+                    int count = Math.min(blockRows, rows - from);
+                    formatted.set(submitted % window, CompletableFuture.supplyAsync(() -> {
+                        int length = formatRows(source.read(from, count), cols, from == 0, compact, floats,
+                                buffer.array());
+                        return buffer.clear().limit(length);
+                    }, workers));
+                }
+                // The next block in order, then every block after it that is already done
+                do {
+                    done.add(await(formatted.get(written % window)));
+                    written++;
+                } while (written < submitted && formatted.get(written % window).isDone());
+                run.addAll(done);
+                if (written == blocks) {
+                    run.add(ascii(compact ? "]}" : " ]" + EOL + "}"));
+                }
+                writeFully(channel, run.toArray(new ByteBuffer[0]));
+                pool.addAll(done);
+                run.clear();
+                done.clear();
+                if (written == blocks) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the most bytes that formatRows writes for the given number of rows.
+     */
+    static int blockCapacity(int rows, int cols) {
+        // Each element with its separator, each row with its brackets and the separator before it
+        long capacity = (long) rows * ((long) cols * (DoubleFormatter.MAX_LENGTH + 4) + 8);
+        if (capacity > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Matrix rows are too long to be written.");
+        }
+        return (int) capacity;
+    }
+
+    /**
+     * Formats the rows into out, each preceded by the separator from the previous row unless it is
+     * the first row of the matrix, and returns the number of bytes written. With floats set, every element
+     * is a float widened to double, and is formatted as that float.
+     */
+    static int formatRows(double[][] rows, int cols, boolean first, boolean compact, boolean floats, byte[] out) {
+        int pos = 0;
+        for (double[] row : rows) {
+            if (!first) {
+                out[pos++] = ',';
+                if (!compact) {
+                    out[pos++] = ' ';
+                }
+            }
+            first = false;
+            out[pos++] = '[';
+            if (!compact) {
+                out[pos++] = ' ';
+            }
+            for (int j = 0; j < cols; j++) {
+                if (j > 0) {
+                    out[pos++] = ',';
+                    if (!compact) {
+                        out[pos++] = ' ';
+                    }
+                }
+                double value = row[j];
+                if (Double.isFinite(value)) {
+                    pos = format(value, floats, out, pos);
+                } else {
+                    // Jackson writes the values JSON has no number for as strings
+                    out[pos++] = '"';
+                    pos = format(value, floats, out, pos);
+                    out[pos++] = '"';
+                }
+            }
+            if (!compact && cols > 0) {
+                out[pos++] = ' ';
+            }
+            out[pos++] = ']';
+        }
+        return pos;
+    }
+
+    private static int format(double value, boolean floats, byte[] out, int pos) {
+        return floats ? DoubleFormatter.format((float) value, out, pos) : DoubleFormatter.format(value, out, pos);
+    }
+
+    private static ByteBuffer ascii(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static WritableByteChannel open(Path path) throws IOException {
+        if (path.toString().endsWith(".gz")) {
+            OutputStream file = new BufferedOutputStream(Files.newOutputStream(path), GZIP_BUFFER_BYTES);
+            return Channels.newChannel(new GZIPOutputStream(file, GZIP_BUFFER_BYTES));
+        }
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer[] buffers) throws IOException {
+        if (channel instanceof GatheringByteChannel) {
+            while (buffers[buffers.length - 1].hasRemaining()) {
+                ((GatheringByteChannel) channel).write(buffers);
+            }
+            return;
+        }
+        for (ByteBuffer buffer : buffers) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    private static ByteBuffer await(CompletableFuture<ByteBuffer> block) throws IOException {
+        try {
+            return block.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package parser;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds and parses the matrix literals of a JSON document straight from its bytes, so that large
+ * literals can be parsed in pieces on several threads instead of token by token.
+ * <p>
+ * Only plain literals are found: a matrix of numbers, with nothing but numbers, commas, brackets and
+ * white space in it. Anything else, such as a string element, is left to the JSON parser.
+ */
+final class MatrixLiterals {
+
+    private MatrixLiterals() {}
+
+    /**
+     * Returns the {start, end} byte ranges of the plain literals, in document order: start is the
+     * position of the opening bracket and end the position just after the closing one.
+     */
+    static List<int[]> find(ByteBuffer bytes) {
+        List<int[]> literals = new ArrayList<>();
+        int limit = bytes.limit();
+        boolean inString = false;
+        for (int pos = 0; pos < limit; pos++) {
+            byte b = bytes.get(pos);
+            if (inString) {
+                if (b == '\\') {
+                    pos++;
+                } else if (b == '"') {
+                    inString = false;
+                }
+            } else if (b == '"') {
+                inString = true;
+            } else if (b == '[' && startsLiteral(bytes, pos, limit)) {
+                int end = endOfLiteral(bytes, pos, limit);
+                if (end > 0) {
+                    literals.add(new int[]{pos, end});
+                    pos = end - 1;
+                }
+            }
+        }
+        return literals;
+    }
+
+    // A literal opens with two brackets followed by a number
+    private static boolean startsLiteral(ByteBuffer bytes, int pos, int limit) {
+        pos = skipWhiteSpace(bytes, pos + 1, limit);
+        if (pos >= limit || bytes.get(pos) != '[') {
+            return false;
+        }
+        pos = skipWhiteSpace(bytes, pos + 1, limit);
+        return pos < limit && isNumberByte(bytes.get(pos));
+    }
+
+    // Returns the position after the closing bracket, or -1 if the literal is not plain
+    private static int endOfLiteral(ByteBuffer bytes, int start, int limit) {
+        int depth = 0;
+        for (int pos = start; pos < limit; pos++) {
+            byte b = bytes.get(pos);
+            if (b == '[') {
+                if (++depth > 2) {
+                    return -1;
+                }
+            } else if (b == ']') {
+                if (--depth == 0) {
+                    return pos + 1;
+                }
+            } else if (b != ',' && !isWhiteSpace(b) && !isNumberByte(b)) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Splits the rows of the literal into at most the given number of pieces of similar size, each made of
+     * whole rows. Returns the piece boundaries, from the first byte inside the literal to its closing bracket.
+     */
+    static int[] split(ByteBuffer bytes, int[] literal, int pieces) {
+        int from = literal[0] + 1;
+        int to = literal[1] - 1;
+        int[] bounds = new int[pieces + 1];
+        bounds[0] = from;
+        for (int p = 1; p < pieces; p++) {
+            int pos = Math.max(bounds[p - 1], from + (int) ((long) (to - from) * p / pieces));
+            // Move forward to just after the end of the row
+            while (pos < to && bytes.get(pos) != ']') {
+                pos++;
+            }
+            bounds[p] = Math.min(pos + 1, to);
+        }
+        bounds[pieces] = to;
+        return bounds;
+    }
+
+    /**
+     * Parses the whole rows between from and to. Each row gets the width of the first row of the piece.
+     *
+     * @throws IllegalArgumentException if a row or an element is invalid
+     */
+    static List<double[]> parseRows(ByteBuffer bytes, int from, int to) {
+        List<double[]> rows = new ArrayList<>();
+        double[] buffer = new double[16];
+        int width = -1;
+        int pos = from;
+        while (true) {
+            while (pos < to && (bytes.get(pos) == ',' || isWhiteSpace(bytes.get(pos)))) {
+                pos++;
+            }
+            if (pos >= to) {
+                return rows;
+            }
+            if (bytes.get(pos) != '[') {
+                throw new IllegalArgumentException("Invalid matrix row.");
+            }
+            pos = skipWhiteSpace(bytes, pos + 1, to);
+            double[] row = width < 0 ? buffer : new double[width];
+            int length = 0;
+            while (pos < to && bytes.get(pos) != ']') {
+                int end = pos;
+                while (end < to && isNumberByte(bytes.get(end))) {
+                    end++;
+                }
+                if (length == row.length) {
+                    if (width >= 0) {
+                        throw new IllegalArgumentException("Inconsistent row sizes in matrix.");
+                    }
+                    row = buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                try {
+                    row[length++] = NumberParser.parse(bytes, pos, end);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid matrix element in row.");
+                }
+                pos = skipWhiteSpace(bytes, end, to);
+                if (pos < to && bytes.get(pos) == ',') {
+                    pos = skipWhiteSpace(bytes, pos + 1, to);
+                    if (pos < to && bytes.get(pos) == ']') {
+                        throw new IllegalArgumentException("Invalid matrix element in row.");
+                    }
+                } else if (pos < to && bytes.get(pos) != ']') {
+                    throw new IllegalArgumentException("Invalid matrix element in row.");
+                }
+            }
+            if (pos >= to) {
+                throw new IllegalArgumentException("Invalid matrix row.");
+            }
+            pos++;
+            if (width < 0) {
+                // The first row is read into a growing buffer, then trimmed to its width
+                width = length;
+                row = Arrays.copyOf(buffer, width);
+                buffer = null;
+            } else if (length != width) {
+                throw new IllegalArgumentException("Inconsistent row sizes in matrix.");
+            }
+            rows.add(row);
+        }
+    }
+
+    private static int skipWhiteSpace(ByteBuffer bytes, int pos, int limit) {
+        while (pos < limit && isWhiteSpace(bytes.get(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static boolean isWhiteSpace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    private static boolean isNumberByte(byte b) {
+        return (b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E';
+    }
+}
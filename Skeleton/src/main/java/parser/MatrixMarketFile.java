@@ -0,0 +1,295 @@
+package parser;
+
+import memory.SparseMatrix;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Reads Matrix Market coordinate files (.mtx) into a {@link SparseMatrix}, never as a dense matrix.
+ * Real, integer and pattern files are read, in general, symmetric and skew-symmetric form.
+ * <p>
+ * After the header, the entries of a large file are split into chunks at line boundaries and the
+ * chunks are parsed in parallel, each from its own memory mapping. The entries are then counted
+ * per row and placed into the compressed rows.
+ */
+public class MatrixMarketFile {
+
+    // Entries of smaller files are parsed on one thread
+    private static final long MIN_CHUNK_BYTES = 1 << 20;
+    // A mapping covers at most this many bytes
+    private static final long MAX_CHUNK_BYTES = 1 << 30;
+
+    private MatrixMarketFile() {}
+
+    // The entries of one chunk, 0-based
+    private static final class Entries {
+        private int[] rows = new int[64];
+        private int[] cols = new int[64];
+        private double[] values = new double[64];
+        private int count = 0;
+
+        void add(int row, int col, double value) {
+            if (count == rows.length) {
+                rows = Arrays.copyOf(rows, count * 2);
+                cols = Arrays.copyOf(cols, count * 2);
+                values = Arrays.copyOf(values, count * 2);
+            }
+            rows[count] = row;
+            cols[count] = col;
+            values[count] = value;
+            count++;
+        }
+    }
+
+    /**
+     * Reads the sparse matrix of a coordinate file.
+     */
+    public static SparseMatrix read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long[] position = {0};
+            String banner = readLine(channel, position);
+            String[] format = banner == null ? new String[0] : banner.trim().toLowerCase(Locale.ROOT).split("\\s+");
+            if (format.length != 5 || !format[0].equals("%%matrixmarket") || !format[1].equals("matrix")) {
+                throw new IOException("Not a Matrix Market file: " + path);
+            }
+            if (!format[2].equals("coordinate")) {
+                throw new IOException("Only coordinate Matrix Market files are supported: " + path);
+            }
+            boolean pattern = format[3].equals("pattern");
+            if (!pattern && !format[3].equals("real") && !format[3].equals("integer")) {
+                throw new IOException("Unsupported Matrix Market field " + format[3] + " in " + path);
+            }
+            boolean symmetric = format[4].equals("symmetric");
+            boolean skew = format[4].equals("skew-symmetric");
+            if (!symmetric && !skew && !format[4].equals("general")) {
+                throw new IOException("Unsupported Matrix Market symmetry " + format[4] + " in " + path);
+            }
+
+            String sizeLine;
+            do {
+                sizeLine = readLine(channel, position);
+            } while (sizeLine != null && (sizeLine.isBlank() || sizeLine.startsWith("%")));
+            String[] dims = sizeLine == null ? new String[0] : sizeLine.trim().split("\\s+");
+            if (dims.length != 3) {
+                throw new IOException("Missing Matrix Market size line in " + path);
+            }
+            int rows = Integer.parseInt(dims[0]);
+            int cols = Integer.parseInt(dims[1]);
+            long declared = Long.parseLong(dims[2]);
+            if (rows < 1 || cols < 1 || declared < 0) {
+                throw new IOException("Invalid Matrix Market size line in " + path + ": " + sizeLine.trim());
+            }
+
+            long[] bounds = chunkBounds(channel, position[0], size);
+            List<Entries> chunks;
+            try {
+                chunks = IntStream.range(0, bounds.length - 1).parallel()
+                        .mapToObj(c -> parseChunk(channel, bounds[c], bounds[c + 1], rows, cols, pattern))
+                        .collect(Collectors.toList());
+            } catch (UncheckedIOException e) {
+                throw new IOException(e.getCause().getMessage() + " in " + path, e.getCause());
+            }
+            long total = 0;
+            for (Entries chunk : chunks) {
+                total += chunk.count;
+            }
+            if (total != declared) {
+                throw new IOException("Expected " + declared + " entries but found " + total + " in " + path);
+            }
+            if ((symmetric || skew) && rows != cols) {
+                throw new IOException("A symmetric Matrix Market matrix must be square: " + path);
+            }
+            return compress(chunks, rows, cols, symmetric || skew, skew ? -1 : 1);
+        }
+    }
+
+    /**
+     * Builds the compressed rows from the entries, in file order within each row. Off-diagonal entries
+     * of a symmetric file are also placed at their mirrored position, scaled by mirrorSign.
+     */
+    private static SparseMatrix compress(List<Entries> chunks, int rows, int cols, boolean mirrored, double mirrorSign) {
+        int[] rowStart = new int[rows + 1];
+        for (Entries chunk : chunks) {
+            for (int e = 0; e < chunk.count; e++) {
+                rowStart[chunk.rows[e] + 1]++;
+                if (mirrored && chunk.rows[e] != chunk.cols[e]) {
+                    rowStart[chunk.cols[e] + 1]++;
+                }
+            }
+        }
+        for (int i = 0; i < rows; i++) {
+            if (rowStart[i + 1] > Integer.MAX_VALUE - rowStart[i]) {
+                throw new IllegalArgumentException("Too many non-zero elements for a sparse matrix.");
+            }
+            rowStart[i + 1] += rowStart[i];
+        }
+        int[] next = Arrays.copyOf(rowStart, rows);
+        int[] columns = new int[rowStart[rows]];
+        double[] values = new double[rowStart[rows]];
+        for (Entries chunk : chunks) {
+            for (int e = 0; e < chunk.count; e++) {
+                int p = next[chunk.rows[e]]++;
+                columns[p] = chunk.cols[e];
+                values[p] = chunk.values[e];
+                if (mirrored && chunk.rows[e] != chunk.cols[e]) {
+                    p = next[chunk.cols[e]]++;
+                    columns[p] = chunk.rows[e];
+                    values[p] = mirrorSign * chunk.values[e];
+                }
+            }
+        }
+        return new SparseMatrix(rows, cols, rowStart, columns, values);
+    }
+
+    /**
+     * Splits the bytes from start to the end of the file into chunks that begin on a new line.
+     * Returns the chunk boundaries, the first being start and the last the file size.
+     */
+    private static long[] chunkBounds(FileChannel channel, long start, long size) throws IOException {
+        long length = size - start;
+        int chunks = (int) Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), length / MIN_CHUNK_BYTES));
+        chunks = (int) Math.max(chunks, (length + MAX_CHUNK_BYTES - 1) / MAX_CHUNK_BYTES);
+        long[] bounds = new long[chunks + 1];
+        bounds[0] = start;
+        bounds[chunks] = size;
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        for (int c = 1; c < chunks; c++) {
+            long position = Math.max(bounds[c - 1], start + length * c / chunks);
+            // Move forward to just after the next line break
+            boolean found = false;
+            while (!found && position < size) {
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                if (read <= 0) {
+                    break;
+                }
+                for (int i = 0; i < read; i++) {
+                    if (buffer.get(i) == '\n') {
+                        position += i + 1;
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) {
+                    position += read;
+                }
+            }
+            bounds[c] = Math.min(position, size);
+        }
+        return bounds;
+    }
+
+    /**
+     * Parses the entry lines between two boundaries, skipping blank and comment lines.
+     */
+    private static Entries parseChunk(FileChannel channel, long from, long to, int rows, int cols, boolean pattern) {
+        Entries entries = new Entries();
+        if (from >= to) {
+            return entries;
+        }
+        try {
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+            int[] cursor = {0};
+            int limit = bytes.limit();
+            while (skipBlank(bytes, cursor, limit)) {
+                if (bytes.get(cursor[0]) == '%') {
+                    skipLine(bytes, cursor, limit);
+                    continue;
+                }
+                long row = readIndex(bytes, cursor, limit);
+                long col = readIndex(bytes, cursor, limit);
+                double value = pattern ? 1 : readValue(bytes, cursor, limit);
+                if (row < 1 || row > rows || col < 1 || col > cols) {
+                    throw new IOException("Entry (" + row + ", " + col + ") is outside the matrix");
+                }
+                entries.add((int) row - 1, (int) col - 1, value);
+                skipLine(bytes, cursor, limit);
+            }
+            return entries;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Moves past white space and line breaks, and reports whether anything is left
+    private static boolean skipBlank(ByteBuffer bytes, int[] cursor, int limit) {
+        while (cursor[0] < limit && bytes.get(cursor[0]) <= ' ') {
+            cursor[0]++;
+        }
+        return cursor[0] < limit;
+    }
+
+    private static void skipLine(ByteBuffer bytes, int[] cursor, int limit) {
+        while (cursor[0] < limit && bytes.get(cursor[0]) != '\n') {
+            cursor[0]++;
+        }
+    }
+
+    // Moves past spaces and tabs only, so that an entry never continues on the next line
+    private static void skipSpaces(ByteBuffer bytes, int[] cursor, int limit) {
+        while (cursor[0] < limit && (bytes.get(cursor[0]) == ' ' || bytes.get(cursor[0]) == '\t')) {
+            cursor[0]++;
+        }
+    }
+
+    private static long readIndex(ByteBuffer bytes, int[] cursor, int limit) throws IOException {
+        skipSpaces(bytes, cursor, limit);
+        long value = 0;
+        int start = cursor[0];
+        while (cursor[0] < limit && bytes.get(cursor[0]) >= '0' && bytes.get(cursor[0]) <= '9' && value <= Integer.MAX_VALUE) {
+            value = value * 10 + (bytes.get(cursor[0]) - '0');
+            cursor[0]++;
+        }
+        if (cursor[0] == start) {
+            throw new IOException("Invalid Matrix Market entry");
+        }
+        return value;
+    }
+
+    private static double readValue(ByteBuffer bytes, int[] cursor, int limit) throws IOException {
+        skipSpaces(bytes, cursor, limit);
+        int start = cursor[0];
+        while (cursor[0] < limit && bytes.get(cursor[0]) > ' ') {
+            cursor[0]++;
+        }
+        try {
+            return NumberParser.parse(bytes, start, cursor[0]);
+        } catch (NumberFormatException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the line at the given position and moves the position past it, or returns null at the end of the file.
+     */
+    private static String readLine(FileChannel channel, long[] position) throws IOException {
+        StringBuilder line = new StringBuilder();
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, position[0]);
+            if (read <= 0) {
+                return line.length() == 0 ? null : line.toString();
+            }
+            for (int i = 0; i < read; i++) {
+                position[0]++;
+                if (buffer.get(i) == '\n') {
+                    return line.toString();
+                }
+                line.append((char) buffer.get(i));
+            }
+        }
+    }
+}
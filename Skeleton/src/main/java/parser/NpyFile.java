@@ -0,0 +1,140 @@
+package parser;
+
+import memory.SharedMatrix;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads and writes two-dimensional NumPy .npy arrays, so that Python tools can hand operands and
+ * results over without JSON. Float64 and float32 arrays of either byte order are read; a C-order
+ * array becomes rows, and a Fortran-order array becomes the columns of a column-major matrix, each
+ * vector read with bulk copies from the memory-mapped file, mapped in windows as a .bin file is.
+ * Results are written as C-order float64, a buffer at a time.
+ */
+public class NpyFile {
+
+    private static final byte[] MAGIC = {(byte) 0x93, 'N', 'U', 'M', 'P', 'Y'};
+    private static final Pattern DESCR = Pattern.compile("'descr'\\s*:\\s*'([<>|=])f([48])'");
+    private static final Pattern FORTRAN_ORDER = Pattern.compile("'fortran_order'\\s*:\\s*(True|False)");
+    private static final Pattern SHAPE = Pattern.compile("'shape'\\s*:\\s*\\(([^)]*)\\)");
+
+    private NpyFile() {}
+
+    /**
+     * Reads the array as a leaf: a row-major matrix for a C-order array, or an engine matrix
+     * stored column by column for a Fortran-order array.
+     */
+    public static ComputationNode read(Path path) throws IOException {
+        return read(path, BinaryMatrixFile.MAP_WINDOW_BYTES);
+    }
+
+    /**
+     * Reads the array like {@link #read(Path)}, mapping at most windowBytes of its elements at a time.
+     */
+    static ComputationNode read(Path path, long windowBytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            // Magic, version and header length, then the header itself
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, MAGIC.length + 6));
+            for (byte b : MAGIC) {
+                if (!mapped.hasRemaining() || mapped.get() != b) {
+                    throw new IOException("Not a .npy file: " + path);
+                }
+            }
+            if (mapped.remaining() < 4) {
+                throw new IOException("Not a .npy file: " + path);
+            }
+            int major = mapped.get();
+            mapped.get(); // minor version
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            if (mapped.remaining() < (major == 1 ? 2 : 4)) {
+                throw new IOException("Not a .npy file: " + path);
+            }
+            long headerLength = major == 1 ? Short.toUnsignedInt(mapped.getShort()) : Integer.toUnsignedLong(mapped.getInt());
+            long dataOffset = mapped.position() + headerLength;
+            if (dataOffset > size) {
+                throw new IOException("Not a .npy file: " + path);
+            }
+            byte[] headerBytes = new byte[(int) headerLength];
+            channel.map(FileChannel.MapMode.READ_ONLY, mapped.position(), headerLength).get(headerBytes);
+            String header = new String(headerBytes, StandardCharsets.UTF_8);
+
+            Matcher descr = DESCR.matcher(header);
+            Matcher fortranOrder = FORTRAN_ORDER.matcher(header);
+            Matcher shape = SHAPE.matcher(header);
+            if (!descr.find() || !fortranOrder.find() || !shape.find()) {
+                throw new IOException("Unsupported .npy header in " + path + ": " + header.trim());
+            }
+            String[] dims = shape.group(1).split(",");
+            if (dims.length != 2 || dims[1].isBlank()) {
+                throw new IOException("Only two-dimensional arrays are supported: " + path);
+            }
+            int rows = Integer.parseInt(dims[0].trim());
+            int cols = Integer.parseInt(dims[1].trim());
+            int elementBytes = descr.group(2).equals("8") ? Double.BYTES : Float.BYTES;
+            if (rows < 1 || cols < 0 || size - dataOffset != (long) rows * cols * elementBytes) {
+                throw new IOException("Invalid .npy shape in " + path);
+            }
+
+            ByteOrder order = descr.group(1).equals(">") ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+            boolean fortran = fortranOrder.group(1).equals("True");
+            // A Fortran-order array is stored column after column
+            double[][] vectors = fortran ? new double[cols][rows] : new double[rows][cols];
+            BinaryMatrixFile.readElements(channel, dataOffset, elementBytes, order, vectors, windowBytes);
+            return fortran ? new ComputationNode(SharedMatrix.ofColumns(vectors)) : new ComputationNode(vectors);
+        }
+    }
+
+    /**
+     * Writes the matrix as a C-order little-endian float64 array, replacing any existing file.
+     */
+    public static void write(double[][] matrix, Path path) throws IOException {
+        int rows = matrix.length;
+        int cols = rows == 0 ? 0 : matrix[0].length;
+        StringBuilder header = new StringBuilder("{'descr': '<f8', 'fortran_order': False, 'shape': (")
+                .append(rows).append(", ").append(cols).append("), }");
+        // The data starts on a 64-byte boundary: magic, version, header length, then the padded header
+        int prefix = MAGIC.length + 2 + 2;
+        while ((prefix + header.length() + 1) % 64 != 0) {
+            header.append(' ');
+        }
+        header.append('\n');
+        byte[] headerBytes = header.toString().getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(prefix + headerBytes.length,
+                Math.min(1 << 20, cols * Double.BYTES))).order(ByteOrder.LITTLE_ENDIAN);
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            buffer.put(MAGIC).put((byte) 1).put((byte) 0).putShort((short) headerBytes.length).put(headerBytes);
+            for (double[] row : matrix) {
+                if (row.length != cols) {
+                    throw new IllegalArgumentException("Inconsistent row sizes in matrix.");
+                }
+                for (double value : row) {
+                    if (!buffer.hasRemaining()) {
+                        drain(channel, buffer);
+                    }
+                    buffer.putDouble(value);
+                }
+            }
+            drain(channel, buffer);
+        }
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,203 @@
+package parser;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses decimal numbers straight from bytes, without creating a String per number.
+ * <p>
+ * A number whose significant digits fit in 64 bits is converted without any allocation: by one exact
+ * multiplication or division when its digits and exponent are small enough to be exact doubles,
+ * otherwise with the Eisel-Lemire algorithm, which multiplies the digits by a 128-bit approximation of
+ * the power of ten and only keeps the result when the approximation cannot change the rounding.
+ * Both give the correctly rounded double. Anything else (more than 19 digits, an ambiguous rounding,
+ * a subnormal or out of range result) is handed to {@link Double#parseDouble}.
+ */
+final class NumberParser {
+
+    // Powers of ten that are exactly representable as doubles
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final int MAX_DIGITS = 19;
+
+    // Decimal exponents covered by the table; below and above, the result is zero or infinite
+    private static final int SMALLEST_POWER = -342;
+    private static final int LARGEST_POWER = 308;
+    // For each power q, 5^q as a normalised 128-bit value (high and low halves) times 2^POWER_EXPONENT[q]
+    private static final long[] POWER_HIGH = new long[LARGEST_POWER - SMALLEST_POWER + 1];
+    private static final long[] POWER_LOW = new long[LARGEST_POWER - SMALLEST_POWER + 1];
+    private static final int[] POWER_EXPONENT = new int[LARGEST_POWER - SMALLEST_POWER + 1];
+
+    static {
+        // Truncated for positive powers; for negative powers the reciprocal is rounded up when it fits
+        // in 128 bits and truncated otherwise, as the error analysis of the algorithm requires
+        BigInteger two128 = BigInteger.ONE.shiftLeft(128);
+        for (int q = SMALLEST_POWER; q <= LARGEST_POWER; q++) {
+            BigInteger value;
+            int exponent;
+            if (q >= 0) {
+                BigInteger power = BigInteger.valueOf(5).pow(q);
+                int shift = 128 - power.bitLength();
+                value = shift >= 0 ? power.shiftLeft(shift) : power.shiftRight(-shift);
+                exponent = -shift;
+            } else {
+                BigInteger power = BigInteger.valueOf(5).pow(-q);
+                int bits = power.bitLength();
+                int b = q >= -27 ? bits + 127 : 2 * bits + 128;
+                value = BigInteger.ONE.shiftLeft(b).divide(power).add(BigInteger.ONE);
+                exponent = -b;
+                while (value.compareTo(two128) >= 0) {
+                    value = value.shiftRight(1);
+                    exponent++;
+                }
+            }
+            POWER_HIGH[q - SMALLEST_POWER] = value.shiftRight(64).longValue();
+            POWER_LOW[q - SMALLEST_POWER] = value.longValue();
+            POWER_EXPONENT[q - SMALLEST_POWER] = exponent;
+        }
+    }
+
+    private NumberParser() {}
+
+    /**
+     * Parses the number in bytes from (inclusive) to (exclusive).
+     *
+     * @throws NumberFormatException if the bytes are not a number
+     */
+    static double parse(ByteBuffer bytes, int from, int to) {
+        int pos = from;
+        boolean negative = false;
+        if (pos < to && (bytes.get(pos) == '-' || bytes.get(pos) == '+')) {
+            negative = bytes.get(pos) == '-';
+            pos++;
+        }
+        long mantissa = 0; // unsigned, exact while significant <= MAX_DIGITS
+        int exponent = 0;
+        int digits = 0;
+        int significant = 0;
+        for (; pos < to && isDigit(bytes.get(pos)); pos++) {
+            if (significant > 0 || bytes.get(pos) != '0') {
+                significant++;
+                mantissa = mantissa * 10 + (bytes.get(pos) - '0');
+            }
+            digits++;
+        }
+        boolean integer = true;
+        if (pos < to && bytes.get(pos) == '.') {
+            integer = false;
+            pos++;
+            for (; pos < to && isDigit(bytes.get(pos)); pos++) {
+                if (significant > 0 || bytes.get(pos) != '0') {
+                    significant++;
+                    mantissa = mantissa * 10 + (bytes.get(pos) - '0');
+                }
+                exponent--;
+                digits++;
+            }
+        }
+        if (digits == 0) {
+            throw new NumberFormatException("Invalid number: " + text(bytes, from, to));
+        }
+        if (pos < to && (bytes.get(pos) == 'e' || bytes.get(pos) == 'E')) {
+            integer = false;
+            pos++;
+            boolean negativeExponent = false;
+            if (pos < to && (bytes.get(pos) == '-' || bytes.get(pos) == '+')) {
+                negativeExponent = bytes.get(pos) == '-';
+                pos++;
+            }
+            int exponentStart = pos;
+            int written = 0;
+            for (; pos < to && isDigit(bytes.get(pos)); pos++) {
+                if (written < 100_000) {
+                    written = written * 10 + (bytes.get(pos) - '0');
+                }
+            }
+            if (pos == exponentStart) {
+                throw new NumberFormatException("Invalid number: " + text(bytes, from, to));
+            }
+            exponent += negativeExponent ? -written : written;
+        }
+        if (pos != to) {
+            throw new NumberFormatException("Invalid number: " + text(bytes, from, to));
+        }
+        if (mantissa == 0 && significant == 0) {
+            // An integer zero has no sign, as when it is read as an integer
+            return integer || !negative ? 0.0 : -0.0;
+        }
+        if (significant <= MAX_DIGITS) {
+            if (Long.compareUnsigned(mantissa, MAX_EXACT_MANTISSA) <= 0 && exponent >= -22 && exponent <= 22) {
+                double value = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+                return negative ? -value : value;
+            }
+            if (exponent >= SMALLEST_POWER && exponent <= LARGEST_POWER) {
+                long bits = eiselLemire(mantissa, exponent);
+                if (bits >= 0) {
+                    double value = Double.longBitsToDouble(bits);
+                    return negative ? -value : value;
+                }
+            }
+        }
+        return Double.parseDouble(text(bytes, from, to));
+    }
+
+    /**
+     * Returns the bits of the correctly rounded double of w * 10^q, or -1 when the 128-bit approximation
+     * of the power cannot decide the rounding or the result is subnormal or infinite.
+     */
+    private static long eiselLemire(long w, int q) {
+        int index = q - SMALLEST_POWER;
+        int leadingZeros = Long.numberOfLeadingZeros(w);
+        long i = w << leadingZeros;
+        long upper = Math.unsignedMultiplyHigh(i, POWER_HIGH[index]);
+        long lower = i * POWER_HIGH[index];
+        if ((upper & 0x1FF) == 0x1FF && Long.compareUnsigned(lower + i, lower) < 0) {
+            // The truncated low half of the power may carry into the kept bits: include it
+            long middle = Math.unsignedMultiplyHigh(i, POWER_LOW[index]);
+            long sum = lower + middle;
+            if (Long.compareUnsigned(sum, lower) < 0) {
+                upper++;
+            }
+            long low = i * POWER_LOW[index];
+            if (sum + 1 == 0 && (upper & 0x1FF) == 0x1FF && Long.compareUnsigned(low + i, low) < 0) {
+                return -1;
+            }
+            lower = sum;
+        }
+        // The product has 127 or 128 bits; keep 54 of them, one more than the double for the rounding
+        int upperBit = (int) (upper >>> 63);
+        int shift = upperBit + 9;
+        long mantissa = upper >>> shift;
+        if (lower == 0 && (upper & 0x1FF) == 0 && (mantissa & 3) == 1) {
+            return -1; // exactly halfway as far as these bits tell
+        }
+        // w * 10^q = upper * 2^(128 - leadingZeros + POWER_EXPONENT + q), and mantissa = upper >> shift
+        int binaryExponent = shift + 128 - leadingZeros + POWER_EXPONENT[index] + q;
+        mantissa += mantissa & 1;
+        mantissa >>>= 1;
+        binaryExponent++;
+        if (mantissa >= (1L << 53)) {
+            mantissa >>>= 1;
+            binaryExponent++;
+        }
+        int biased = binaryExponent + 52 + 1023;
+        if (biased < 1 || biased > 2046) {
+            return -1;
+        }
+        return (mantissa & ~(1L << 52)) | ((long) biased << 52);
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static String text(ByteBuffer bytes, int from, int to) {
+        byte[] token = new byte[to - from];
+        bytes.get(from, token);
+        return new String(token, StandardCharsets.US_ASCII);
+    }
+}
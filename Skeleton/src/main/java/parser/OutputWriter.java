@@ -1,9 +1,16 @@
 package parser;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.zip.GZIPOutputStream;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import memory.Precision;
+import memory.SharedMatrix;
 
 public class OutputWriter {
 
@@ -21,13 +28,84 @@ public class OutputWriter {
 
     public OutputWriter() {}
 
+    /**
+     * Writes the result as JSON, as a binary matrix file (see {@link BinaryMatrixFile}) when the path ends in .bin,
+     * or as a NumPy array (see {@link NpyFile}) when it ends in .npy. JSON is gzip-compressed when the path ends in .gz.
+     */
     public static void write(double[][] matrix, String filePath) throws IOException {
-        File file = new File(filePath);
-        mapper.writerWithDefaultPrettyPrinter().writeValue(file, new ResultMatrix(matrix));
+        write(matrix, filePath, false);
+    }
+
+    /**
+     * Writes the result like {@link #write(double[][], String)}, as compact JSON without any white space
+     * when compact is set.
+     */
+    public static void write(double[][] matrix, String filePath, boolean compact) throws IOException {
+        write(matrix, filePath, compact, Runnable::run);
+    }
+
+    private static void write(double[][] matrix, String filePath, boolean compact, Executor workers) throws IOException {
+        if (filePath.endsWith(".bin")) {
+            writeBinary(matrix, filePath);
+            return;
+        }
+        if (filePath.endsWith(".npy")) {
+            NpyFile.write(matrix, Paths.get(filePath));
+            return;
+        }
+        int cols = matrix.length == 0 ? 0 : matrix[0].length;
+        JsonMatrixWriter.write(matrix.length, cols, (from, count) -> Arrays.copyOfRange(matrix, from, from + count),
+                false, Paths.get(filePath), compact, workers);
+    }
+
+    /**
+     * Writes a resolved node. A result still in the engine's storage is written as JSON straight from it,
+     * a block of rows at a time, without a row-major copy of the whole matrix. A float result is written
+     * with the shortest decimal of each float, and as float32 to a .bin file.
+     */
+    public static void write(ComputationNode result, String filePath, boolean compact) throws IOException {
+        write(result, filePath, compact, Runnable::run);
+    }
+
+    /**
+     * Writes a resolved node like {@link #write(ComputationNode, String, boolean)}, formatting the rows
+     * of a large result as JSON on the given executor, such as the engine's workers, while the formatted
+     * blocks are written in order.
+     */
+    public static void write(ComputationNode result, String filePath, boolean compact, Executor workers)
+            throws IOException {
+        SharedMatrix matrix = result.getResult();
+        boolean floats = matrix != null && matrix.getPrecision() == Precision.FLOAT;
+        if (floats && filePath.endsWith(".bin")) {
+            BinaryMatrixFile.write(result.getMatrix(), Paths.get(filePath), BinaryMatrixFile.FLOAT32);
+            return;
+        }
+        if (matrix == null || filePath.endsWith(".bin") || filePath.endsWith(".npy")) {
+            write(result.getMatrix(), filePath, compact, workers);
+            return;
+        }
+        int[] shape = matrix.shape();
+        JsonMatrixWriter.write(shape[0], shape[1], (from, count) -> {
+            double[][] rows = new double[count][shape[1]];
+            matrix.readRows(from, rows);
+            return rows;
+        }, floats, Paths.get(filePath), compact, workers);
+    }
+
+    public static void writeBinary(double[][] matrix, String filePath) throws IOException {
+        BinaryMatrixFile.write(matrix, Paths.get(filePath));
     }
 
+    /**
+     * Writes an error as JSON, whatever the extension of the path, gzip-compressed when it ends in .gz.
+     */
     public static void write(String error, String filePath) throws IOException {
         File file = new File(filePath);
+        if (filePath.endsWith(".gz")) {
+            mapper.writerWithDefaultPrettyPrinter().writeValue(new GZIPOutputStream(new FileOutputStream(file)),
+                    new ErrorMessage(error));
+            return;
+        }
         mapper.writerWithDefaultPrettyPrinter().writeValue(file, new ErrorMessage(error));
     }
 
@@ -1,16 +1,26 @@
 package scheduling;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class TiredExecutor {
 
     private final TiredThread[] workers;
     private final PriorityBlockingQueue<TiredThread> idleMinHeap = new PriorityBlockingQueue<>();
-    private final AtomicInteger inFlight = new AtomicInteger(0);
+    // Every submitted task, handed to workers as they become idle, in submission order
+    private final ConcurrentLinkedQueue<Runnable> pending = new ConcurrentLinkedQueue<>();
+    // Set under this executor's lock once shutdown starts; tasks are then no longer accepted
+    private volatile boolean shuttingDown = false;
+    // Set once the workers were told to stop; no task is handed to them afterwards
+    private volatile boolean stopped = false;
 
     public TiredExecutor(int numThreads) {
         if (numThreads<1) {
@@ -26,64 +36,155 @@ public class TiredExecutor {
         }
     }
 
+    /**
+     * Submits the task without waiting: it runs on the least fatigued idle worker, or is queued behind
+     * the tasks already waiting for one. A task submitted after shutdown never runs.
+     */
     public void submit(Runnable task) {
-        // try to get the least fatigued idle worker
-        try {
-            TiredThread worker = idleMinHeap.take();
-            inFlight.incrementAndGet();
-            // assign task to the worker
-            worker.newTask(() -> {
-                //Start measuring time
-                long start = System.nanoTime();
+        if (enqueue(List.of(task))) {
+            dispatchPending();
+        }
+    }
+
+    /**
+     * Submits the tasks without waiting for a worker or for the tasks: they are queued and handed
+     * to workers as they become idle, least fatigued first. The returned future completes once all
+     * the tasks are done, on the worker that ran the last one, or completes exceptionally with the
+     * first exception a task threw. After shutdown, the tasks are not run and the future completes
+     * exceptionally with a RejectedExecutionException.
+     */
+    public CompletableFuture<Void> submitAllAsync(List<Runnable> tasks) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        if (tasks == null || tasks.isEmpty()) {
+            done.complete(null);
+            return done;
+        }
+        AtomicInteger remaining = new AtomicInteger(tasks.size());
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Runnable> wrapped = new ArrayList<>(tasks.size());
+        for (Runnable task : tasks) {
+            wrapped.add(() -> {
                 try {
                     task.run();
+                } catch (RuntimeException | Error e) {
+                    failure.compareAndSet(null, e);
                 } finally {
-                    // Stop measuring time
-                    long end = System.nanoTime();
-                    // Update the worker's fatigue before returning to the queue
-                    worker.addTime(end - start);
-                    // after task completion, put the worker back to idle heap
-                    idleMinHeap.add(worker);
-                    // decrease inFlight counter and notify if all tasks are done
-                    if(inFlight.decrementAndGet() == 0){
-                        synchronized(this){
-                            this.notifyAll();
+                    if (remaining.decrementAndGet() == 0) {
+                        if (failure.get() == null) {
+                            done.complete(null);
+                        } else {
+                            done.completeExceptionally(failure.get());
                         }
                     }
                 }
             });
-        } catch (InterruptedException e) {
-            // interrupt current thread if unable to get a worker
-            Thread.currentThread().interrupt();
         }
+        if (!enqueue(wrapped)) {
+            done.completeExceptionally(new RejectedExecutionException("The executor is shut down"));
+            return done;
+        }
+        dispatchPending();
+        return done;
+    }
+
+    // Queues the tasks unless shutdown has started, so shutdown sees every task it has to wait for
+    private synchronized boolean enqueue(List<Runnable> tasks) {
+        if (shuttingDown) {
+            return false;
+        }
+        pending.addAll(tasks);
+        return true;
+    }
+
+    // Runs the task on the worker, and puts the worker back in the idle heap once it is done
+    private void assign(TiredThread worker, Runnable task) {
+        worker.newTask(() -> {
+            //Start measuring time
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } finally {
+                // Stop measuring time
+                long end = System.nanoTime();
+                // Update the worker's fatigue before returning to the queue
+                worker.addTime(end - start);
+                // after task completion, put the worker back to idle heap
+                idleMinHeap.add(worker);
+                // a queued task may now have a worker
+                dispatchPending();
+                if (shuttingDown) {
+                    synchronized (TiredExecutor.this) {
+                        TiredExecutor.this.notifyAll();
+                    }
+                }
+            }
+        });
     }
 
+    /**
+     * Hands queued tasks to idle workers until either runs out. Called whenever a task is queued
+     * and whenever a worker becomes idle, so a queued task never waits while a worker is idle.
+     */
+    private void dispatchPending() {
+        while (!stopped && !pending.isEmpty()) {
+            TiredThread worker = idleMinHeap.poll();
+            if (worker == null) {
+                return;
+            }
+            Runnable task = pending.poll();
+            if (task == null) {
+                // Another thread took the task; check again, a task may have been queued meanwhile
+                idleMinHeap.add(worker);
+                continue;
+            }
+            assign(worker, task);
+        }
+    }
+
+    /**
+     * Submits the tasks and waits until all of them are done. Only these tasks are waited for, not
+     * others running on the executor meanwhile. The first exception a task threw is rethrown once
+     * all of them are done.
+     */
     public void submitAll(Iterable<Runnable> tasks) {
         
         if (tasks == null) {
             return;
         }
+        List<Runnable> batch = new ArrayList<>();
         for (Runnable task : tasks) {
-            submit(task);
+            batch.add(task);
         }
-
-        // wait until all tasks are done
-        synchronized(this){
-            while (inFlight.get() > 0) {
-                try {
-                    this.wait(); // wait to avoid busy waiting
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
+        try {
+            submitAllAsync(batch).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
             }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
         }
     }
 
+    /**
+     * Stops accepting tasks, waits until the tasks already submitted are done, then stops the workers.
+     */
     public void shutdown() throws InterruptedException {
 
         if (workers == null) {
         return;
         }
+
+        // let the queued and running tasks finish first: a worker told to stop could not take another one
+        synchronized (this) {
+            shuttingDown = true;
+            while (!pending.isEmpty() || idleMinHeap.size() < workers.length) {
+                this.wait();
+            }
+            stopped = true;
+        }
         
         // request all workers to shutdown
         for (TiredThread worker : workers) {
@@ -94,9 +195,6 @@ public class TiredExecutor {
         for (TiredThread worker : workers) {
             worker.join();
         }
-
-        // reset inFlight counter and idle heap
-        inFlight.set(0);
     }
 
     public synchronized String getWorkerReport() {
@@ -0,0 +1,284 @@
+package spl.lae;
+
+import parser.ComputationNode;
+import parser.InputParser;
+import parser.OutputWriter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * Evaluates many expression files in one JVM, on one engine whose workers stay warm across files.
+ * Parsing, computing and writing are pipelined: while one file is computed, the next ones are
+ * parsed and the previous ones are written. At most {@link #LOOKAHEAD} files are parsed ahead,
+ * and as many wait to be written, so the batch does not hold every matrix in memory at once.
+ * <p>
+ * A file that fails gets the error in its output file, as in a single run, and the batch goes on.
+ */
+public class BatchRunner {
+
+    // How many files may be parsed ahead of the one being computed, and be waiting to be written
+    static final int LOOKAHEAD = 2;
+    private static final int PARSE_THREADS = 2;
+
+    private final LinearAlgebraEngine engine;
+
+    /**
+     * One input file and the output file its result or error is written to, with its timings once it ran.
+     */
+    public static final class Job {
+        private final Path input;
+        private final Path output;
+        private long parseNanos;
+        private long computeNanos;
+        private long writeNanos;
+        private long flops;
+        private String error;
+
+        public Job(Path input, Path output) {
+            if (input == null || output == null) {
+                throw new IllegalArgumentException("input and output cant be null");
+            }
+            this.input = input;
+            this.output = output;
+        }
+
+        public Path getInput() {
+            return input;
+        }
+
+        public Path getOutput() {
+            return output;
+        }
+
+        public long getParseNanos() {
+            return parseNanos;
+        }
+
+        public long getComputeNanos() {
+            return computeNanos;
+        }
+
+        public long getWriteNanos() {
+            return writeNanos;
+        }
+
+        public long getFlops() {
+            return flops;
+        }
+
+        /**
+         * Returns the error the job failed with, or null when it succeeded.
+         */
+        public String getError() {
+            return error;
+        }
+    }
+
+    /**
+     * Totals of a batch: how many jobs ran and failed, how long the whole batch took and how much it computed.
+     */
+    public static final class Summary {
+        private final int jobCount;
+        private final int failedJobCount;
+        private final long elapsedNanos;
+        private final long totalFlops;
+
+        Summary(int jobCount, int failedJobCount, long elapsedNanos, long totalFlops) {
+            this.jobCount = jobCount;
+            this.failedJobCount = failedJobCount;
+            this.elapsedNanos = elapsedNanos;
+            this.totalFlops = totalFlops;
+        }
+
+        public int getJobCount() {
+            return jobCount;
+        }
+
+        public int getFailedJobCount() {
+            return failedJobCount;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getJobsPerSecond() {
+            return jobCount / Math.max(elapsedNanos / 1e9, 1e-9);
+        }
+
+        /**
+         * Returns the arithmetic of the whole batch over its wall-clock time.
+         */
+        public double getGflopsPerSecond() {
+            return totalFlops / Math.max(elapsedNanos, 1.0);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Processed %d jobs (%d failed) in %dms: %.1f jobs/s, %.3f GFLOP/s.",
+                    jobCount, failedJobCount, elapsedNanos / 1_000_000, getJobsPerSecond(), getGflopsPerSecond());
+        }
+    }
+
+    /**
+     * The engine is only evaluated on, never shut down, so it can run further batches.
+     */
+    public BatchRunner(LinearAlgebraEngine engine) {
+        if (engine == null) {
+            throw new IllegalArgumentException("engine cant be null");
+        }
+        this.engine = engine;
+    }
+
+    /**
+     * Lists the jobs of every .json file of a directory, gzip-compressed ones (.json.gz) included, in name order,
+     * each written to the file of the same name in the output directory.
+     */
+    public static List<Job> jobsOfDirectory(Path inputDirectory, Path outputDirectory) throws IOException {
+        if (inputDirectory.toAbsolutePath().normalize().equals(outputDirectory.toAbsolutePath().normalize())) {
+            throw new IllegalArgumentException("The output directory must differ from the input directory.");
+        }
+        List<Job> jobs = new ArrayList<>();
+        try (Stream<Path> files = Files.list(inputDirectory)) {
+            files.filter(file -> Files.isRegularFile(file) && isJsonFile(file))
+                    .sorted()
+                    .forEach(file -> jobs.add(new Job(file, outputDirectory.resolve(file.getFileName()))));
+        }
+        return jobs;
+    }
+
+    private static boolean isJsonFile(Path file) {
+        String name = file.getFileName().toString();
+        return name.endsWith(".json") || name.endsWith(".json.gz");
+    }
+
+    /**
+     * Reads the jobs of a manifest: one "input_path output_path" pair per line, relative paths being
+     * relative to the manifest's directory. Blank lines and lines starting with # are skipped.
+     */
+    public static List<Job> jobsOfManifest(Path manifest) throws IOException {
+        Path base = manifest.toAbsolutePath().getParent();
+        List<Job> jobs = new ArrayList<>();
+        List<String> lines = Files.readAllLines(manifest);
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] paths = line.split("\\s+");
+            if (paths.length != 2) {
+                throw new IllegalArgumentException("Invalid manifest line " + (i + 1) + ": " + line);
+            }
+            jobs.add(new Job(base.resolve(paths[0]), base.resolve(paths[1])));
+        }
+        return jobs;
+    }
+
+    /**
+     * Runs the jobs in order and returns the totals of the batch. Each job's timings are filled in,
+     * and a line is printed for it once its output is written.
+     */
+    public Summary run(List<Job> jobs) {
+        ExecutorService parsers = Executors.newFixedThreadPool(PARSE_THREADS);
+        // A single writer keeps the outputs, and the per-job lines, in job order
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        long start = System.nanoTime();
+        try {
+            List<CompletableFuture<ComputationNode>> parsed = new ArrayList<>();
+            List<CompletableFuture<Void>> written = new ArrayList<>();
+            for (int i = 0; i < jobs.size(); i++) {
+                while (parsed.size() < Math.min(jobs.size(), i + 1 + LOOKAHEAD)) {
+                    Job next = jobs.get(parsed.size());
+                    parsed.add(CompletableFuture.supplyAsync(() -> parse(next), parsers));
+                }
+                if (i > LOOKAHEAD) {
+                    // Do not let finished results pile up faster than they are written
+                    written.get(i - LOOKAHEAD - 1).join();
+                }
+                Job job = jobs.get(i);
+                double[][] result = compute(job, parsed.get(i).join());
+                parsed.set(i, null);
+                written.add(CompletableFuture.runAsync(() -> write(job, result), writer));
+            }
+            CompletableFuture.allOf(written.toArray(new CompletableFuture<?>[0])).join();
+        } finally {
+            parsers.shutdown();
+            writer.shutdown();
+        }
+
+        long elapsed = System.nanoTime() - start;
+        int failed = 0;
+        long flops = 0;
+        for (Job job : jobs) {
+            failed += job.error == null ? 0 : 1;
+            flops += job.flops;
+        }
+        return new Summary(jobs.size(), failed, elapsed, flops);
+    }
+
+    // Parse stage: returns null when the job failed
+    private static ComputationNode parse(Job job) {
+        long start = System.nanoTime();
+        try {
+            ComputationNode root = new InputParser().parse(job.input.toString());
+            Main.recursiveAssociativeNesting(root);
+            return root;
+        } catch (Exception e) {
+            job.error = e.getMessage();
+            return null;
+        } finally {
+            job.parseNanos = System.nanoTime() - start;
+        }
+    }
+
+    // Compute stage, on the engine's workers: returns null when the job failed
+    private double[][] compute(Job job, ComputationNode root) {
+        if (root == null) {
+            return null;
+        }
+        long start = System.nanoTime();
+        try {
+            ExecutionPlan plan = new ExecutionPlan(root, engine.getNumThreads(), engine.getPrecision());
+            double[][] result = engine.evaluate(root, plan).getMatrix();
+            job.flops = plan.getTotalFlops();
+            return result;
+        } catch (Exception e) {
+            job.error = e.getMessage();
+            return null;
+        } finally {
+            job.computeNanos = System.nanoTime() - start;
+        }
+    }
+
+    // Write stage: the result, or the error of a failed job
+    private static void write(Job job, double[][] result) {
+        long start = System.nanoTime();
+        try {
+            Path directory = job.output.toAbsolutePath().getParent();
+            if (directory != null) {
+                Files.createDirectories(directory);
+            }
+            if (result != null) {
+                OutputWriter.write(result, job.output.toString());
+            } else {
+                OutputWriter.write(String.valueOf(job.error), job.output.toString());
+            }
+        } catch (IOException e) {
+            if (job.error == null) {
+                job.error = "Failed to write the output: " + e.getMessage();
+            }
+        }
+        job.writeNanos = System.nanoTime() - start;
+        System.out.println(job.input.getFileName() + ": parsed in " + job.parseNanos / 1_000_000
+                + "ms, computed in " + job.computeNanos / 1_000_000 + "ms, written in " + job.writeNanos / 1_000_000
+                + "ms." + (job.error == null ? "" : " Failed: " + job.error));
+    }
+}
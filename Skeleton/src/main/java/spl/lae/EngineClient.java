@@ -0,0 +1,49 @@
+package spl.lae;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.SocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A connection to an {@link EngineServer}. Jobs sent on one connection are answered in order.
+ */
+public class EngineClient implements AutoCloseable {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final SocketChannel channel;
+    private final BufferedReader reader;
+    private final OutputStream writer;
+
+    public EngineClient(SocketAddress address) throws IOException {
+        this.channel = SocketChannel.open(address);
+        this.reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+        this.writer = Channels.newOutputStream(channel);
+    }
+
+    /**
+     * Sends one job and waits for its answer.
+     */
+    public JsonNode submit(JsonNode job) throws IOException {
+        writer.write((mapper.writeValueAsString(job) + "\n").getBytes(StandardCharsets.UTF_8));
+        writer.flush();
+        String answer = reader.readLine();
+        if (answer == null) {
+            throw new IOException("The server closed the connection.");
+        }
+        return mapper.readTree(answer);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
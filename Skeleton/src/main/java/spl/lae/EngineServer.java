@@ -0,0 +1,269 @@
+package spl.lae;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import memory.Precision;
+import parser.ComputationNode;
+import parser.InputParser;
+import parser.OutputWriter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A long-running server that evaluates expression jobs on one warm engine, so that each job pays
+ * neither the JVM startup nor the creation of the workers. It listens on the loopback interface
+ * (a TCP port) or on a Unix-domain socket, and never on an external address.
+ * <p>
+ * The protocol is one JSON object per line, answered by one JSON object per line, and a client may
+ * send any number of jobs on one connection. A job is {"input": path} or {"expression": {...}},
+ * optionally with "output": path, and with "float32": true to be parsed, computed and written in single
+ * precision, its products accumulating in "accumulation": "float" or "double" (the default). The answer holds either the result, or the output path it was written
+ * to, together with the job's statistics; a job that fails is answered with {"error": message}.
+ * <p>
+ * Clients are served concurrently: their jobs are read and parsed in parallel, and computed one
+ * at a time on the shared workers, each using all of them.
+ */
+public class EngineServer implements AutoCloseable {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final LinearAlgebraEngine engine;
+    private final ServerSocketChannel serverChannel;
+    private final SocketAddress localAddress;
+    private final ExecutorService connections = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "lae-connection");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicLong jobCount = new AtomicLong();
+    private final AtomicLong failedJobCount = new AtomicLong();
+    private volatile boolean closed = false;
+
+    /**
+     * Binds the server to a loopback TCP address or a Unix-domain socket address.
+     * Use {@link #addressOf(String)} to turn a port or a socket path into such an address.
+     */
+    public EngineServer(LinearAlgebraEngine engine, SocketAddress address) throws IOException {
+        if (engine == null || address == null) {
+            throw new IllegalArgumentException("engine and address cant be null");
+        }
+        if (address instanceof InetSocketAddress inetAddress) {
+            if (inetAddress.getAddress() == null || !inetAddress.getAddress().isLoopbackAddress()) {
+                throw new IllegalArgumentException("The server only listens on the loopback interface.");
+            }
+            serverChannel = ServerSocketChannel.open();
+        } else if (address instanceof UnixDomainSocketAddress unixAddress) {
+            // A socket file left by a previous server that did not shut down cleanly would block the bind,
+            // but a path naming anything else is most likely a mistake
+            Path socket = unixAddress.getPath();
+            if (isFileOrDirectory(socket)) {
+                throw new IllegalArgumentException("Socket path is an existing file or directory: " + socket);
+            }
+            if (isListening(unixAddress)) {
+                throw new IllegalStateException("A server is already running on " + socket);
+            }
+            Files.deleteIfExists(socket);
+            serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            throw new IllegalArgumentException("Unsupported address: " + address);
+        }
+        serverChannel.bind(address);
+        this.engine = engine;
+        this.localAddress = serverChannel.getLocalAddress();
+    }
+
+    /**
+     * Returns the loopback address of a port number, or the Unix-domain socket address of any other string.
+     */
+    public static SocketAddress addressOf(String portOrPath) {
+        try {
+            int port = Integer.parseInt(portOrPath);
+            if (port < 0 || port > 65535) {
+                throw new IllegalArgumentException("Invalid port: " + portOrPath);
+            }
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        } catch (NumberFormatException e) {
+            return UnixDomainSocketAddress.of(portOrPath);
+        }
+    }
+
+    /**
+     * Returns the address the server is bound to, with the actual port when it was bound to port 0.
+     */
+    public SocketAddress getLocalAddress() {
+        return localAddress;
+    }
+
+    public long getJobCount() {
+        return jobCount.get();
+    }
+
+    public long getFailedJobCount() {
+        return failedJobCount.get();
+    }
+
+    /**
+     * Accepts connections in the background until the server is closed.
+     */
+    public void start() {
+        Thread acceptor = new Thread(this::acceptLoop, "lae-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Stops accepting connections and drops the open ones. The engine is left to the caller.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverChannel.close();
+        connections.shutdownNow();
+        if (localAddress instanceof UnixDomainSocketAddress unixAddress && !isFileOrDirectory(unixAddress.getPath())) {
+            Files.deleteIfExists(unixAddress.getPath());
+        }
+    }
+
+    private static boolean isFileOrDirectory(Path path) {
+        return Files.isRegularFile(path) || Files.isDirectory(path);
+    }
+
+    // Whether a server accepts connections on the socket; a stale socket file refuses them
+    private static boolean isListening(UnixDomainSocketAddress address) {
+        if (!Files.exists(address.getPath(), LinkOption.NOFOLLOW_LINKS)) {
+            return false;
+        }
+        try (SocketChannel probe = SocketChannel.open(address)) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                SocketChannel client = serverChannel.accept();
+                connections.execute(() -> serve(client));
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Failed to accept a connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Answers the jobs of one connection, in order, until the client closes it
+    private void serve(SocketChannel client) {
+        try (client;
+             BufferedReader reader = new BufferedReader(
+                     new InputStreamReader(Channels.newInputStream(client), StandardCharsets.UTF_8));
+             OutputStream writer = Channels.newOutputStream(client)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                writer.write((mapper.writeValueAsString(handle(line)) + "\n").getBytes(StandardCharsets.UTF_8));
+                writer.flush();
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                System.err.println("Connection closed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Runs one job and returns its answer. Errors are answered rather than thrown,
+     * so one bad job does not affect the connection or the other clients.
+     */
+    ObjectNode handle(String request) {
+        long jobId = jobCount.incrementAndGet();
+        ObjectNode response = mapper.createObjectNode();
+        try {
+            JsonNode job = mapper.readTree(request);
+            if (job == null || !job.isObject() || job.has("input") == job.has("expression")) {
+                throw new IllegalArgumentException("A job needs exactly one of \"input\" and \"expression\".");
+            }
+
+            boolean float32 = job.path("float32").asBoolean(false);
+            Precision accumulation = Main.accumulationOf(job.path("accumulation").asText("double"));
+            long parseStart = System.nanoTime();
+            InputParser parser = new InputParser();
+            if (float32) {
+                parser.setPrecision(Precision.FLOAT);
+            }
+            ComputationNode root = job.has("input")
+                    ? parser.parse(job.get("input").asText())
+                    : parser.parse(job.get("expression"));
+            Main.recursiveAssociativeNesting(root);
+            ExecutionPlan plan = new ExecutionPlan(root, engine.getNumThreads(),
+                    float32 ? Precision.FLOAT : Precision.DOUBLE);
+            long computeStart = System.nanoTime();
+            ComputationNode result;
+            // The precision is a setting of the shared engine, so a job sets it and evaluates under its lock
+            synchronized (engine) {
+                engine.setPrecision(float32 ? Precision.FLOAT : Precision.DOUBLE, accumulation);
+                result = engine.evaluate(root, plan);
+            }
+            long computeEnd = System.nanoTime();
+
+            if (job.hasNonNull("output")) {
+                OutputWriter.write(result, job.get("output").asText(), false);
+                response.put("output", job.get("output").asText());
+            } else {
+                response.set("result", mapper.valueToTree(float32 ? toFloats(result.getMatrix()) : result.getMatrix()));
+            }
+            ObjectNode stats = response.putObject("stats");
+            stats.put("job", jobId);
+            stats.put("parseMillis", (computeStart - parseStart) / 1_000_000.0);
+            stats.put("computeMillis", (computeEnd - computeStart) / 1_000_000.0);
+            stats.put("steps", plan.getSteps().size());
+            stats.put("flops", plan.getTotalFlops());
+            System.out.println("Job " + jobId + ": parsed in " + (computeStart - parseStart) / 1_000_000 + "ms, computed "
+                    + plan.getSteps().size() + " steps in " + (computeEnd - computeStart) / 1_000_000 + "ms.");
+            return response;
+        } catch (Exception e) {
+            failedJobCount.incrementAndGet();
+            System.err.println("Job " + jobId + " failed: " + e.getMessage());
+            response.removeAll();
+            response.put("error", String.valueOf(e.getMessage()));
+            return response;
+        }
+    }
+
+    // A float result as floats, so that each element is written as the float it is
+    private static float[][] toFloats(double[][] matrix) {
+        float[][] floats = new float[matrix.length][];
+        for (int i = 0; i < matrix.length; i++) {
+            floats[i] = new float[matrix[i].length];
+            for (int j = 0; j < matrix[i].length; j++) {
+                floats[i][j] = (float) matrix[i][j];
+            }
+        }
+        return floats;
+    }
+}
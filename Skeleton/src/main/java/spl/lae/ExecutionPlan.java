@@ -0,0 +1,559 @@
+package spl.lae;
+
+import memory.Precision;
+import parser.ComputationNode;
+import parser.ComputationNodeType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A static plan of how the engine evaluates a computation tree, built without computing anything.
+ * Shape inference gives every node its output shape, element-wise chains are grouped into the steps
+ * the engine fuses, and a simple cost model estimates the flops, bytes moved and live memory of each step.
+ * The engine follows the plan's evaluation order and splits every step into the planned number of tasks.
+ * <p>
+ * The evaluation order keeps as few intermediate results alive at once as it can: like Sethi-Ullman labelling,
+ * the operands of a node are evaluated in decreasing order of the memory their evaluation needs beyond
+ * the result they leave behind, so the memory-hungry subtrees run while little else is held.
+ * <p>
+ * Dense matrices are counted in the precision the engine stores them in; sparse leaves are always double.
+ */
+public class ExecutionPlan {
+
+    // Estimated flops a task should carry so that handing it to a worker is not the dominant cost
+    static final long MIN_TASK_FLOPS = 1L << 14;
+
+    /**
+     * The kernel the engine runs for a step.
+     */
+    public enum Kernel {
+        ADD("row-wise add, in place"),
+        MULTIPLY("row times matrix"),
+        NEGATE("negate, in place"),
+        TRANSPOSE_VIEW("transpose view, no data moved"),
+        FUSED("fused element-wise chain");
+
+        private final String description;
+
+        Kernel(String description) {
+            this.description = description;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    /**
+     * One step of the plan: the node it resolves, and the cost model's estimates for it.
+     */
+    public static final class Step {
+        private final int index;
+        private final ComputationNode node;
+        private final Kernel kernel;
+        private final int[] shape;
+        private final List<ComputationNode> operands;
+        private long flops;
+        private long bytesMoved;
+        private int tasks;
+        private long liveBytes;
+
+        private Step(int index, ComputationNode node, Kernel kernel, int[] shape, List<ComputationNode> operands) {
+            this.index = index;
+            this.node = node;
+            this.kernel = kernel;
+            this.shape = shape;
+            this.operands = operands;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public ComputationNode getNode() {
+            return node;
+        }
+
+        public Kernel getKernel() {
+            return kernel;
+        }
+
+        public int[] getShape() {
+            return shape;
+        }
+
+        public List<ComputationNode> getOperands() {
+            return operands;
+        }
+
+        public long getFlops() {
+            return flops;
+        }
+
+        public long getBytesMoved() {
+            return bytesMoved;
+        }
+
+        public int getTasks() {
+            return tasks;
+        }
+
+        public long getLiveBytes() {
+            return liveBytes;
+        }
+    }
+
+    private final int numThreads;
+    private final long bytesPerElement; // of a dense matrix, in the precision the engine computes in
+    private final List<Step> steps = new ArrayList<>();
+    private final Map<ComputationNode, Step> stepOf = new IdentityHashMap<>();
+    private final Map<ComputationNode, int[]> shapes = new IdentityHashMap<>();
+    private final Map<ComputationNode, Integer> uses = new IdentityHashMap<>();
+    private final Map<ComputationNode, long[]> labels = new IdentityHashMap<>(); // {needed, held} bytes per node
+    private final Map<ComputationNode, ComputationNode> parentOf = new IdentityHashMap<>(); // first parent reaching a node
+    private long peakLiveBytes;
+
+    public ExecutionPlan(ComputationNode root, int numThreads) {
+        this(root, numThreads, Precision.DOUBLE);
+    }
+
+    /**
+     * Plans the tree for an engine that stores its matrices in the given precision.
+     */
+    public ExecutionPlan(ComputationNode root, int numThreads, Precision precision) {
+        if (root == null || precision == null) {
+            throw new IllegalArgumentException("root and precision cant be null");
+        }
+        this.numThreads = numThreads;
+        this.bytesPerElement = precision == Precision.FLOAT ? Float.BYTES : Double.BYTES;
+        countUses(root);
+        inferShape(root);
+        label(root);
+        schedule(root, false);
+        for (Step step : steps) {
+            estimateCost(step);
+        }
+        estimateLiveMemory();
+    }
+
+    public List<Step> getSteps() {
+        return Collections.unmodifiableList(steps);
+    }
+
+    /**
+     * Returns the step that resolves the given node, or null if the node is a matrix
+     * or is computed as part of a fused step.
+     */
+    public Step getStep(ComputationNode node) {
+        return stepOf.get(node);
+    }
+
+    /**
+     * Returns the inferred {rows, columns} shape of a node of the planned tree.
+     */
+    public int[] getShape(ComputationNode node) {
+        return shapes.get(node);
+    }
+
+    /**
+     * Returns, for every node of the tree, how many parent operations read it.
+     */
+    public Map<ComputationNode, Integer> getUseCounts() {
+        return Collections.unmodifiableMap(uses);
+    }
+
+    public long getPeakLiveBytes() {
+        return peakLiveBytes;
+    }
+
+    public long getTotalFlops() {
+        long total = 0;
+        for (Step step : steps) {
+            total += step.flops;
+        }
+        return total;
+    }
+
+    public long getTotalBytesMoved() {
+        long total = 0;
+        for (Step step : steps) {
+            total += step.bytesMoved;
+        }
+        return total;
+    }
+
+    /**
+     * Renders the plan as a human-readable report, one entry per step in evaluation order.
+     */
+    public String explain() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("--- Execution Plan (").append(steps.size()).append(" steps, ")
+          .append(numThreads).append(" threads) ---\n");
+        for (Step step : steps) {
+            sb.append('#').append(step.index).append(' ').append(step.node.getNodeType())
+              .append(" [").append(step.kernel.getDescription());
+            if (step.kernel == Kernel.FUSED) {
+                sb.append(", ").append(step.operands.size()).append(" operands");
+            }
+            sb.append("]\n");
+            sb.append("    operands: ");
+            for (int i = 0; i < step.operands.size(); i++) {
+                ComputationNode operand = step.operands.get(i);
+                Step producer = stepOf.get(operand);
+                sb.append(i == 0 ? "" : ", ")
+                  .append(producer == null ? "matrix" : "#" + producer.index)
+                  .append(' ').append(formatShape(shapes.get(operand)));
+            }
+            sb.append(" -> ").append(formatShape(step.shape)).append('\n');
+            sb.append("    flops=").append(step.flops)
+              .append(", bytes moved=").append(formatBytes(step.bytesMoved))
+              .append(", tasks=").append(step.tasks)
+              .append(", live after step=").append(formatBytes(step.liveBytes)).append('\n');
+        }
+        sb.append("Total: flops=").append(getTotalFlops())
+          .append(", bytes moved=").append(formatBytes(getTotalBytesMoved()))
+          .append(", peak live memory=").append(formatBytes(peakLiveBytes)).append('\n');
+        return sb.toString();
+    }
+
+    private void countUses(ComputationNode node) {
+        if (node.getChildren() == null) {
+            return;
+        }
+        for (ComputationNode child : node.getChildren()) {
+            // Visit a shared child only the first time it is reached
+            if (uses.merge(child, 1, Integer::sum) == 1) {
+                countUses(child);
+            }
+        }
+    }
+
+    /**
+     * Infers the output shape of every node bottom-up, validating the operands of every ADD and MULTIPLY.
+     */
+    private int[] inferShape(ComputationNode node) {
+        int[] known = shapes.get(node);
+        if (known != null) {
+            return known;
+        }
+        int[] shape;
+        if (node.getNodeType() == ComputationNodeType.MATRIX) {
+            shape = node.getShape();
+        } else {
+            List<ComputationNode> children = node.getChildren();
+            if (children == null || children.isEmpty()) {
+                throw new IllegalArgumentException("Operation " + node.getNodeType() + " has no operands.");
+            }
+            shape = inferShape(children.get(0));
+            switch (node.getNodeType()) {
+                case ADD:
+                    for (int i = 1; i < children.size(); i++) {
+                        int[] other = inferShape(children.get(i));
+                        if (shape[0] != other[0] || shape[1] != other[1]) {
+                            throw new IllegalArgumentException("Matrix dimensions do not match for addition.");
+                        }
+                    }
+                    break;
+                case MULTIPLY:
+                    for (int i = 1; i < children.size(); i++) {
+                        int[] other = inferShape(children.get(i));
+                        if (shape[1] != other[0]) {
+                            throw new IllegalArgumentException("Matrix dimensions do not match for multiplication.");
+                        }
+                        shape = new int[]{shape[0], other[1]};
+                    }
+                    break;
+                case NEGATE:
+                    break;
+                case TRANSPOSE:
+                    shape = new int[]{shape[1], shape[0]};
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported operation: " + node.getNodeType());
+            }
+        }
+        shapes.put(node, shape);
+        return shape;
+    }
+
+    private static boolean isElementWise(ComputationNode node) {
+        ComputationNodeType type = node.getNodeType();
+        return type == ComputationNodeType.ADD || type == ComputationNodeType.NEGATE
+                || type == ComputationNodeType.TRANSPOSE;
+    }
+
+    /**
+     * A child is computed inside its parent's fused step when the parent is element-wise and the child
+     * is an unshared element-wise node or an unshared product of two dense operands (GEMM with accumulate).
+     * This mirrors the engine's fusion rule.
+     */
+    private boolean isAbsorbed(ComputationNode parent, ComputationNode child) {
+        if (!isElementWise(parent) || uses.getOrDefault(child, 1) > 1) {
+            return false;
+        }
+        if (isElementWise(child)) {
+            return true;
+        }
+        return child.getNodeType() == ComputationNodeType.MULTIPLY && child.getChildren().size() == 2
+                && child.getChildren().get(0).getSparse() == null && child.getChildren().get(1).getSparse() == null;
+    }
+
+    // Bytes held by a matrix: its elements, or for a sparse leaf its stored elements and their column indices
+    private long bytesOf(ComputationNode node) {
+        if (node.getSparse() != null) {
+            return (long) node.getSparse().nonZeros() * (Double.BYTES + Integer.BYTES);
+        }
+        return elements(shapes.get(node)) * bytesPerElement;
+    }
+
+    /**
+     * Labels a node with {needed, held}: the intermediate bytes alive at the peak of evaluating its subtree,
+     * and the bytes its parent must keep from it afterwards (its result, or for a node absorbed into
+     * its parent's fused step, the results of its own operands). Parsed matrices add nothing.
+     * A shared node is labelled once, as if only its first parent evaluated it.
+     */
+    private long[] label(ComputationNode node) {
+        long[] known = labels.get(node);
+        if (known != null) {
+            return known;
+        }
+        long[] label = {0, 0};
+        if (node.getNodeType() != ComputationNodeType.MATRIX) {
+            long held = 0;
+            for (ComputationNode child : evaluationOrder(node)) {
+                long[] childLabel = label(child);
+                label[0] = Math.max(label[0], held + childLabel[0]);
+                held += childLabel[1];
+            }
+            label[1] = elements(shapes.get(node)) * bytesPerElement;
+            label[0] = Math.max(label[0], held + label[1]);
+            if (isAbsorbedIntoParent(node)) {
+                label[1] = held;
+            }
+        }
+        labels.put(node, label);
+        return label;
+    }
+
+    private boolean isAbsorbedIntoParent(ComputationNode node) {
+        ComputationNode parent = parentOf.get(node);
+        return parent != null && isAbsorbed(parent, node);
+    }
+
+    /**
+     * Returns the children of a node in the order they are evaluated: the child needing the most memory
+     * beyond what it leaves behind goes first, and ties keep their left-to-right order.
+     */
+    private List<ComputationNode> evaluationOrder(ComputationNode node) {
+        List<ComputationNode> order = new ArrayList<>(node.getChildren());
+        for (ComputationNode child : order) {
+            parentOf.putIfAbsent(child, node);
+        }
+        for (ComputationNode child : order) {
+            label(child);
+        }
+        order.sort((a, b) -> Long.compare(labels.get(b)[0] - labels.get(b)[1], labels.get(a)[0] - labels.get(a)[1]));
+        return order;
+    }
+
+    /**
+     * Orders the steps bottom-up, evaluating the operands of each node in the order chosen by its labels.
+     * A shared node gets one step, scheduled the first time it is reached.
+     */
+    private void schedule(ComputationNode node, boolean absorbed) {
+        if (node.getNodeType() == ComputationNodeType.MATRIX || stepOf.containsKey(node)) {
+            return;
+        }
+        for (ComputationNode child : evaluationOrder(node)) {
+            schedule(child, isAbsorbed(node, child));
+        }
+        if (absorbed) {
+            return;
+        }
+        List<ComputationNode> operands = new ArrayList<>();
+        boolean fused = collectOperands(node, operands);
+        Kernel kernel;
+        switch (node.getNodeType()) {
+            case ADD:
+                kernel = fused ? Kernel.FUSED : Kernel.ADD;
+                break;
+            case NEGATE:
+                kernel = fused ? Kernel.FUSED : Kernel.NEGATE;
+                break;
+            case TRANSPOSE:
+                kernel = fused ? Kernel.FUSED : Kernel.TRANSPOSE_VIEW;
+                break;
+            default:
+                kernel = Kernel.MULTIPLY;
+        }
+        Step step = new Step(steps.size() + 1, node, kernel, shapes.get(node), operands);
+        steps.add(step);
+        stepOf.put(node, step);
+    }
+
+    /**
+     * Collects the operands a step reads (for a fused step, the operands of every node it absorbs)
+     * and reports whether the step absorbs any node.
+     */
+    private boolean collectOperands(ComputationNode node, List<ComputationNode> operands) {
+        boolean fused = false;
+        for (ComputationNode child : node.getChildren()) {
+            if (!isAbsorbed(node, child)) {
+                operands.add(child);
+            } else if (child.getNodeType() == ComputationNodeType.MULTIPLY) {
+                operands.addAll(child.getChildren());
+                fused = true;
+            } else {
+                collectOperands(child, operands);
+                fused = true;
+            }
+        }
+        return fused;
+    }
+
+    private long elements(int[] shape) {
+        return (long) shape[0] * shape[1];
+    }
+
+    /**
+     * Estimates flops and bytes moved (every operand read once, the output written once),
+     * and picks the number of tasks so that each task carries at least MIN_TASK_FLOPS.
+     */
+    private void estimateCost(Step step) {
+        long out = elements(step.shape);
+        long readBytes = 0;
+        for (ComputationNode operand : step.operands) {
+            readBytes += bytesOf(operand);
+        }
+        switch (step.kernel) {
+            case ADD:
+                step.flops = out * (step.operands.size() - 1);
+                break;
+            case NEGATE:
+                step.flops = out;
+                break;
+            case MULTIPLY:
+                step.flops = 2 * out * shapes.get(step.operands.get(0))[1];
+                // A sparse operand only contributes its stored elements, each to a whole row or column of the output
+                ComputationNode left = step.operands.get(0);
+                ComputationNode right = step.operands.get(1);
+                if (left.getSparse() != null) {
+                    step.flops = Math.min(step.flops, 2L * left.getSparse().nonZeros() * step.shape[1]);
+                }
+                if (right.getSparse() != null) {
+                    step.flops = Math.min(step.flops, 2L * right.getSparse().nonZeros() * step.shape[0]);
+                }
+                break;
+            case FUSED:
+                step.flops = fusedFlops(step.node);
+                break;
+            default:
+                // A transpose view neither computes nor moves any data, and runs no tasks
+                return;
+        }
+        step.bytesMoved = readBytes + out * bytesPerElement;
+        long wanted = (step.flops + MIN_TASK_FLOPS - 1) / MIN_TASK_FLOPS;
+        step.tasks = (int) Math.max(1, Math.min(wanted, Math.max(1, step.shape[0])));
+    }
+
+    // Flops of a fused chain: one add per extra term over the output, plus the products it absorbs
+    private long fusedFlops(ComputationNode node) {
+        long flops = 0;
+        int terms = 0;
+        List<ComputationNode> pending = new ArrayList<>();
+        pending.add(node);
+        while (!pending.isEmpty()) {
+            ComputationNode current = pending.remove(pending.size() - 1);
+            for (ComputationNode child : current.getChildren()) {
+                if (!isAbsorbed(current, child)) {
+                    terms++;
+                } else if (child.getNodeType() == ComputationNodeType.MULTIPLY) {
+                    terms++;
+                    int[] left = shapes.get(child.getChildren().get(0));
+                    flops += 2 * elements(shapes.get(child)) * left[1];
+                } else {
+                    pending.add(child);
+                }
+            }
+        }
+        return flops + elements(shapes.get(node)) * Math.max(0, terms - 1);
+    }
+
+    /**
+     * Replays the steps to estimate the memory held after each one: parsed matrices until their last use,
+     * and intermediate results until their last reader. A step writes into its first operand when that
+     * operand is an intermediate on its last use (as the engine does), otherwise it allocates its output.
+     */
+    private void estimateLiveMemory() {
+        Map<ComputationNode, Integer> remaining = new IdentityHashMap<>(uses);
+        long live = 0;
+        for (ComputationNode node : uses.keySet()) {
+            if (node.getNodeType() == ComputationNodeType.MATRIX) {
+                live += bytesOf(node);
+            }
+        }
+        peakLiveBytes = live;
+        for (Step step : steps) {
+            ComputationNode first = step.operands.get(0);
+            boolean inPlace = step.kernel != Kernel.MULTIPLY
+                    && !hasProduct(step)
+                    && stepOf.containsKey(first)
+                    && remaining.get(first) == 1;
+            if (!inPlace) {
+                live += elements(step.shape) * bytesPerElement;
+            }
+            peakLiveBytes = Math.max(peakLiveBytes, live);
+            for (int i = 0; i < step.operands.size(); i++) {
+                ComputationNode operand = step.operands.get(i);
+                int left = remaining.merge(operand, -1, Integer::sum);
+                if (left == 0 && !(inPlace && i == 0)) {
+                    live -= bytesOf(operand);
+                }
+            }
+            step.liveBytes = live;
+        }
+    }
+
+    // True when a fused step absorbs a product, so its output is a new matrix
+    private boolean hasProduct(Step step) {
+        if (step.kernel != Kernel.FUSED) {
+            return false;
+        }
+        List<ComputationNode> pending = new ArrayList<>();
+        pending.add(step.node);
+        while (!pending.isEmpty()) {
+            ComputationNode current = pending.remove(pending.size() - 1);
+            for (ComputationNode child : current.getChildren()) {
+                if (isAbsorbed(current, child)) {
+                    if (child.getNodeType() == ComputationNodeType.MULTIPLY) {
+                        return true;
+                    }
+                    pending.add(child);
+                }
+            }
+        }
+        return false;
+    }
+
+    private static String formatShape(int[] shape) {
+        return shape[0] + "x" + shape[1];
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        double value = bytes;
+        String[] units = {"KB", "MB", "GB", "TB"};
+        int unit = -1;
+        while (value >= 1024 && unit < units.length - 1) {
+            value /= 1024;
+            unit++;
+        }
+        return String.format("%.1f %s", value, units[unit]);
+    }
+}
@@ -0,0 +1,285 @@
+package spl.lae;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import parser.ComputationNode;
+import parser.InputParser;
+import parser.OutputWriter;
+
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+
+/**
+ * Turns a stream of expression jobs into a stream of results, with demand-based backpressure.
+ * Subscribe to it for the results, which come in job order, before subscribing it to a publisher of jobs:
+ * results produced while nobody is subscribed are dropped.
+ * <p>
+ * Jobs go through four stages, each on its own thread: parse, plan, compute (on the engine's workers)
+ * and write. The stages are connected by queues bounded to the given capacity, and jobs are only
+ * requested from upstream as the parse stage frees room, so a burst of jobs waits upstream instead
+ * of in memory. Results are only produced as fast as the subscribers request them; a slow subscriber
+ * fills the queues and stops the requests upstream, while a fast one keeps every stage busy.
+ * <p>
+ * A job that fails gives a result with its error, and the stream goes on.
+ */
+public class ExpressionProcessor implements Flow.Processor<ExpressionProcessor.Job, ExpressionProcessor.Result> {
+
+    private static final Item END = new Item(null);
+
+    private final LinearAlgebraEngine engine;
+    private final int capacity;
+    private final BlockingQueue<Item> parseQueue;
+    private final BlockingQueue<Item> planQueue;
+    private final BlockingQueue<Item> computeQueue;
+    private final BlockingQueue<Item> writeQueue;
+    private final ExecutorService stages = Executors.newFixedThreadPool(4, runnable -> {
+        Thread thread = new Thread(runnable, "lae-stage");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final SubmissionPublisher<Result> results;
+    private Flow.Subscription subscription;
+    private volatile Throwable upstreamError;
+
+    /**
+     * One expression to evaluate: a file or an already read expression, and optionally the file
+     * its result is written to.
+     */
+    public static final class Job {
+        private final Path input;
+        private final JsonNode expression;
+        private final Path output;
+
+        public Job(Path input, Path output) {
+            if (input == null) {
+                throw new IllegalArgumentException("input cant be null");
+            }
+            this.input = input;
+            this.expression = null;
+            this.output = output;
+        }
+
+        public Job(JsonNode expression, Path output) {
+            if (expression == null) {
+                throw new IllegalArgumentException("expression cant be null");
+            }
+            this.input = null;
+            this.expression = expression;
+            this.output = output;
+        }
+
+        public Path getInput() {
+            return input;
+        }
+
+        public JsonNode getExpression() {
+            return expression;
+        }
+
+        public Path getOutput() {
+            return output;
+        }
+    }
+
+    /**
+     * The outcome of a job: its result matrix, unless it was written to the job's output file,
+     * or the error it failed with.
+     */
+    public static final class Result {
+        private final Job job;
+        private final double[][] matrix;
+        private final String error;
+
+        Result(Job job, double[][] matrix, String error) {
+            this.job = job;
+            this.matrix = matrix;
+            this.error = error;
+        }
+
+        public Job getJob() {
+            return job;
+        }
+
+        /**
+         * Returns the result, or null when the job failed or its result was written to its output file.
+         */
+        public double[][] getMatrix() {
+            return matrix;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+
+    // The work of one stage on one job
+    private interface Stage {
+        void process(Item item) throws Exception;
+    }
+
+    // A job on its way through the stages
+    private static final class Item {
+        private final Job job;
+        private ComputationNode root;
+        private ExecutionPlan plan;
+        private double[][] matrix;
+        private String error;
+
+        Item(Job job) {
+            this.job = job;
+        }
+    }
+
+    /**
+     * The engine is only evaluated on, never shut down. The capacity bounds every queue between stages,
+     * and the results buffered for each subscriber.
+     */
+    public ExpressionProcessor(LinearAlgebraEngine engine, int capacity) {
+        if (engine == null) {
+            throw new IllegalArgumentException("engine cant be null");
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        this.engine = engine;
+        this.capacity = capacity;
+        // One more slot than jobs requested, so the end of the stream never waits for room: upstream
+        // may complete from within a request of the parse stage, which is the only one to empty this queue
+        this.parseQueue = new ArrayBlockingQueue<>(capacity + 1);
+        this.planQueue = new ArrayBlockingQueue<>(capacity);
+        this.computeQueue = new ArrayBlockingQueue<>(capacity);
+        this.writeQueue = new ArrayBlockingQueue<>(capacity);
+        // Delivers the results on one thread; submit blocks while every subscriber's buffer is full
+        this.results = new SubmissionPublisher<>(Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lae-results");
+            thread.setDaemon(true);
+            return thread;
+        }), capacity);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Result> subscriber) {
+        results.subscribe(subscriber);
+    }
+
+    @Override
+    public synchronized void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null) {
+            subscription.cancel(); // one upstream only
+            return;
+        }
+        this.subscription = subscription;
+        stages.execute(() -> runStage(parseQueue, planQueue, this::parse, true));
+        stages.execute(() -> runStage(planQueue, computeQueue, this::plan, false));
+        stages.execute(() -> runStage(computeQueue, writeQueue, this::compute, false));
+        stages.execute(this::runWriteStage);
+        subscription.request(capacity);
+    }
+
+    @Override
+    public void onNext(Job job) {
+        // Never blocks: no more jobs were requested than the parse queue has room for
+        if (parseQueue.remainingCapacity() <= 1 || !parseQueue.offer(new Item(job))) {
+            throw new IllegalStateException("More jobs were published than requested.");
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        upstreamError = throwable;
+        parseQueue.offer(END);
+    }
+
+    @Override
+    public void onComplete() {
+        parseQueue.offer(END);
+    }
+
+    // Takes items from one queue, processes those that have not failed, and passes everything on in order
+    private void runStage(BlockingQueue<Item> in, BlockingQueue<Item> out, Stage stage, boolean first) {
+        try {
+            while (true) {
+                Item item = in.take();
+                if (item == END) {
+                    out.put(END);
+                    return;
+                }
+                if (first) {
+                    // The item left the parse queue, so there is room for one more job
+                    subscription.request(1);
+                }
+                if (item.error == null) {
+                    try {
+                        stage.process(item);
+                    } catch (Exception e) {
+                        item.error = String.valueOf(e.getMessage());
+                        item.root = null;
+                        item.plan = null;
+                    }
+                }
+                out.put(item);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void parse(Item item) throws Exception {
+        InputParser parser = new InputParser();
+        item.root = item.job.input != null
+                ? parser.parse(item.job.input.toString())
+                : parser.parse(item.job.expression);
+        Main.recursiveAssociativeNesting(item.root);
+    }
+
+    private void plan(Item item) {
+        item.plan = new ExecutionPlan(item.root, engine.getNumThreads(), engine.getPrecision());
+    }
+
+    private void compute(Item item) {
+        item.matrix = engine.evaluate(item.root, item.plan).getMatrix();
+        // The tree and the plan are not needed by the write stage
+        item.root = null;
+        item.plan = null;
+    }
+
+    // Writes each result or error to its output file if it has one, then publishes it
+    private void runWriteStage() {
+        try {
+            while (true) {
+                Item item = writeQueue.take();
+                if (item == END) {
+                    break;
+                }
+                Path output = item.job.output;
+                if (output != null) {
+                    try {
+                        if (item.error == null) {
+                            OutputWriter.write(item.matrix, output.toString());
+                            item.matrix = null;
+                        } else {
+                            OutputWriter.write(item.error, output.toString());
+                        }
+                    } catch (Exception e) {
+                        item.error = "Failed to write the output: " + e.getMessage();
+                        item.matrix = null;
+                    }
+                }
+                results.submit(new Result(item.job, item.matrix, item.error));
+            }
+            if (upstreamError != null) {
+                results.closeExceptionally(upstreamError);
+            } else {
+                results.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stages.shutdown();
+        }
+    }
+}
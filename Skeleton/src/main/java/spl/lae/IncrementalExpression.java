@@ -0,0 +1,107 @@
+package spl.lae;
+
+import parser.ComputationNode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A prepared expression that keeps the result of every step between evaluations, so that after
+ * one placeholder is updated only the steps that depend on it are computed again.
+ * Updating a placeholder marks the steps reading it dirty, and the steps reading those, up to the root;
+ * every other step result is reused as is.
+ */
+public class IncrementalExpression {
+
+    private final PreparedExpression prepared;
+    private final Map<String, double[][]> bindings = new HashMap<>();
+    // Results of the clean steps; a step without a result here is dirty
+    private final Map<ComputationNode, double[][]> results = new IdentityHashMap<>();
+    // For every node, the steps that read it
+    private final Map<ComputationNode, List<ComputationNode>> readers = new IdentityHashMap<>();
+    private int lastComputedSteps = 0;
+
+    /**
+     * Prepares the template, with the initial matrix of every placeholder.
+     * Nothing is computed until the first evaluation.
+     */
+    public IncrementalExpression(ComputationNode template, int numThreads, Map<String, double[][]> initialBindings) {
+        if (initialBindings == null) {
+            throw new IllegalArgumentException("initialBindings cant be null");
+        }
+        this.prepared = new PreparedExpression(template, numThreads);
+        for (ExecutionPlan.Step step : prepared.getPlan().getSteps()) {
+            for (ComputationNode operand : step.getOperands()) {
+                readers.computeIfAbsent(operand, k -> new ArrayList<>()).add(step.getNode());
+            }
+        }
+        for (Map.Entry<String, double[][]> binding : initialBindings.entrySet()) {
+            bind(binding.getKey(), binding.getValue());
+        }
+    }
+
+    /**
+     * Binds a new matrix to a placeholder and marks every step depending on it dirty.
+     * The matrix must have the placeholder's shape, and is only read.
+     */
+    public synchronized void update(String name, double[][] matrix) {
+        bind(name, matrix);
+    }
+
+    // The constructor binds the initial matrices through this method rather than the overridable update
+    private void bind(String name, double[][] matrix) {
+        ComputationNode placeholder = prepared.getPlaceholder(name);
+        PreparedExpression.checkShape(name, matrix, prepared.getPlaceholderShape(name));
+        bindings.put(name, matrix);
+        markDirty(placeholder);
+    }
+
+    /**
+     * Evaluates the expression, computing only the dirty steps, on the engine's workers.
+     * The engine is not shut down.
+     */
+    public synchronized double[][] evaluate(LinearAlgebraEngine engine) {
+        lastComputedSteps = 0;
+        return prepared.execute(engine, bindings, new ResultStore() {
+            @Override
+            public double[][] lookUp(ComputationNode node) {
+                return results.get(node);
+            }
+
+            @Override
+            public void store(ComputationNode node, double[][] result) {
+                results.put(node, result);
+                lastComputedSteps++;
+            }
+        });
+    }
+
+    /**
+     * Returns how many steps the last evaluation computed, the rest having been reused.
+     */
+    public synchronized int getLastComputedSteps() {
+        return lastComputedSteps;
+    }
+
+    public PreparedExpression getPreparedExpression() {
+        return prepared;
+    }
+
+    // Drops the results of every step that reads the node, directly or through other steps
+    private void markDirty(ComputationNode node) {
+        List<ComputationNode> pending = new ArrayList<>();
+        pending.add(node);
+        while (!pending.isEmpty()) {
+            ComputationNode current = pending.remove(pending.size() - 1);
+            for (ComputationNode reader : readers.getOrDefault(current, List.of())) {
+                // A reader without a result is already dirty, and so are the steps above it
+                if (results.remove(reader) != null) {
+                    pending.add(reader);
+                }
+            }
+        }
+    }
+}
@@ -4,90 +4,834 @@ import parser.*;
 import memory.*;
 import scheduling.*;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 public class LinearAlgebraEngine {
 
     private SharedMatrix leftMatrix = new SharedMatrix();
     private SharedMatrix rightMatrix = new SharedMatrix();
     private TiredExecutor executor;
+    private final int numThreads;
+    private ExecutionPlan plan; // plan of the tree being run, decides the order and size of the tasks
+    // Remaining number of parent operations that will read each node (a node can be shared after parsing)
+    private final Map<ComputationNode, Integer> pendingUses = new IdentityHashMap<>();
+    private final long maxMemoryBytes; // budget for the matrices held between steps, Long.MAX_VALUE for none
+    private final SpillStore spillStore = new SpillStore();
+    // Matrices held in memory between steps, and the ones spilled to disk until a step reads them again
+    private final Map<ComputationNode, Long> residentBytes = new IdentityHashMap<>();
+    private final Map<ComputationNode, Path> spilled = new IdentityHashMap<>();
+    private long totalResidentBytes = 0;
+    private ResultCache resultCache = null; // optional, shared across runs
+    private ExecutorService coordinator = null; // drives the asynchronous evaluations, created on first use
+    private Precision precision = Precision.DOUBLE; // of the matrices the steps compute
+    private Precision accumulation = Precision.DOUBLE; // of the sums of a float product
 
     public LinearAlgebraEngine(int numThreads) {
+        this(numThreads, Long.MAX_VALUE);
+    }
+
+    /**
+     * Creates an engine that keeps the matrices held between steps within the given number of bytes.
+     * When a step would go over the budget, matrices it does not read are spilled to temporary files
+     * (the one needed furthest in the future first) and reloaded when a later step reads them.
+     * If the budget cannot be met by spilling, the step runs anyway.
+     */
+    public LinearAlgebraEngine(int numThreads, long maxMemoryBytes) {
+        if (maxMemoryBytes <= 0) {
+            throw new IllegalArgumentException("maxMemoryBytes must be positive");
+        }
         this.executor = new TiredExecutor(numThreads);
+        this.numThreads = numThreads;
+        this.maxMemoryBytes = maxMemoryBytes;
+    }
+
+    /**
+     * Makes the engine look up every step in the given cache before computing it, and store what it computes.
+     * A step found in the cache is not computed, and neither is any step only it reads.
+     */
+    public void setResultCache(ResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * Makes the engine store the operands and results of the next evaluations in the given precision.
+     * In float, every operand is read as a float matrix (converted once, when it is not one already),
+     * and the sums of each product are accumulated in the given accumulation precision:
+     * in double, they are rounded to float once per element; in float, the kernel only reads and writes floats.
+     */
+    public synchronized void setPrecision(Precision precision, Precision accumulation) {
+        if (precision == null || accumulation == null) {
+            throw new IllegalArgumentException("precision and accumulation cant be null");
+        }
+        this.precision = precision;
+        this.accumulation = accumulation;
+    }
+
+    public synchronized Precision getPrecision() {
+        return precision;
     }
 
     public ComputationNode run(ComputationNode computationRoot) {
         try {
-            //check if the root is matrix node
-            if(computationRoot.getNodeType() == ComputationNodeType.MATRIX){
-                throw new IllegalArgumentException("The root node cannot be a matrix.");
+            return evaluate(computationRoot);
+        } finally {
+            shutdown();
+        }
+    }
+
+    /**
+     * Evaluates the tree like run, but leaves the workers running so the engine can evaluate more trees.
+     * The engine evaluates one tree at a time; call shutdown when done with it.
+     */
+    public ComputationNode evaluate(ComputationNode computationRoot) {
+        //check if the root is matrix node
+        if(computationRoot.getNodeType() == ComputationNodeType.MATRIX){
+            throw new IllegalArgumentException("The root node cannot be a matrix.");
+        }
+        // Infers and validates the shape of every node, so a bad expression fails before any task runs
+        return evaluate(computationRoot, new ExecutionPlan(computationRoot, numThreads, getPrecision()));
+    }
+
+    /**
+     * Evaluates the tree following a plan that was built for it earlier, so nothing is planned again.
+     */
+    public ComputationNode evaluate(ComputationNode computationRoot, ExecutionPlan executionPlan) {
+        return evaluate(computationRoot, executionPlan, resultCache == null ? null : resultCache.newStore(cacheVariant()));
+    }
+
+    /**
+     * Evaluates the tree following its plan, reusing the results the store already has:
+     * a step found in the store is not computed, and neither is any step only it reads.
+     * Every computed step is handed to the store.
+     */
+    synchronized ComputationNode evaluate(ComputationNode computationRoot, ExecutionPlan executionPlan,
+                                          ResultStore store) {
+        if (executionPlan.getShape(computationRoot) == null) {
+            throw new IllegalArgumentException("The execution plan was not built for this tree.");
+        }
+        if(computationRoot.getNodeType() == ComputationNodeType.MATRIX){
+            throw new IllegalArgumentException("The root node cannot be a matrix.");
+        }
+        try {
+            plan = executionPlan;
+            pendingUses.clear();
+            Map<ComputationNode, double[][]> storedResults = new IdentityHashMap<>();
+            List<ExecutionPlan.Step> steps = plan.getSteps();
+            if (store == null) {
+                pendingUses.putAll(plan.getUseCounts());
+            } else {
+                steps = lookUpStoredResults(computationRoot, store, storedResults);
             }
-            ComputationNode resolvableNode = computationRoot.findResolvable();
-            while (resolvableNode != null) {
-                loadAndCompute(resolvableNode);
-                resolvableNode.resolve(leftMatrix.readRowMajor());
-                resolvableNode = computationRoot.findResolvable();
+            trackParsedMatrices();
+            for (ExecutionPlan.Step step : steps) {
+                ComputationNode resolvableNode = step.getNode();
+                double[][] cached = storedResults.get(resolvableNode);
+                if (cached != null) {
+                    // A stored result replaces the whole computation of the step
+                    leftMatrix = SharedMatrix.ofRows(cached, precision);
+                } else {
+                    makeRoom(step);
+                    loadAndCompute(resolvableNode);
+                }
+                // The result stays in engine form; only the root is read back by the caller
+                resolvableNode.resolve(leftMatrix);
+                // Do not keep the step's operands reachable from the engine while later steps run
+                leftMatrix = new SharedMatrix();
+                rightMatrix = new SharedMatrix();
+                trackStep(step, cached == null);
+                if (store != null && cached == null) {
+                    store.store(resolvableNode, resolvableNode.getResult().readRowMajor());
+                }
             }
             return computationRoot;
         } finally {
-             try {
-                executor.shutdown();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt(); // Restore interrupted status
+            closeSpillStore();
+        }
+    }
+
+    /**
+     * Evaluates the tree without blocking the caller, and returns its result once computed.
+     * Every step is submitted as soon as the steps it reads are done: the completion of a step's tasks
+     * submits the steps depending on it, from a single coordinator thread that never waits on a worker.
+     * Independent steps, and the steps of every expression evaluated this way, share the workers.
+     * <p>
+     * Steps never write into an operand's result here, since another step may still be reading it,
+     * and results are neither spilled nor cached. Wait for the returned futures before shutting down.
+     */
+    public CompletableFuture<double[][]> evaluateAsync(ComputationNode computationRoot) {
+        return resolveAsync(computationRoot).thenApply(ComputationNode::getMatrix);
+    }
+
+    /**
+     * Like {@link #evaluateAsync}, but leaves the result in the root, in engine form, instead of copying
+     * it out: the returned future completes with the root once it is a resolved matrix node, ready to be
+     * read as an operand of a later evaluation.
+     */
+    public CompletableFuture<ComputationNode> resolveAsync(ComputationNode computationRoot) {
+        try {
+            if (computationRoot.getNodeType() == ComputationNodeType.MATRIX) {
+                throw new IllegalArgumentException("The root node cannot be a matrix.");
+            }
+            AsyncEvaluation evaluation = new AsyncEvaluation(computationRoot,
+                    new ExecutionPlan(computationRoot, numThreads, getPrecision()));
+            coordinator().execute(evaluation::start);
+            return evaluation.resolved;
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Starts computing, without blocking the caller, every product of two parsed matrices in the tree,
+     * so the costliest work can run while the rest of the input is still being parsed. A product only
+     * reads its operands, so nothing is copied that the evaluation of the whole tree could have handed
+     * over, and nothing in the tree is changed: the parser may still share its nodes. A product is
+     * started even where the evaluation would fuse it into its parent's kernel.
+     * Each started product is added to the map, and a product already in it is not started again.
+     * Once the parse is done, resolve every node of the map with its result, then evaluate the tree.
+     */
+    public void startProducts(ComputationNode computationRoot,
+                              Map<ComputationNode, CompletableFuture<SharedMatrix>> started) {
+        startProducts(computationRoot, started, new IdentityHashMap<>());
+    }
+
+    private void startProducts(ComputationNode node, Map<ComputationNode, CompletableFuture<SharedMatrix>> started,
+                               Map<ComputationNode, Boolean> visited) {
+        if (node.getNodeType() == ComputationNodeType.MATRIX || started.containsKey(node)
+                || visited.put(node, Boolean.TRUE) != null) {
+            return;
+        }
+        for (ComputationNode child : node.getChildren()) {
+            startProducts(child, started, visited);
+        }
+        if (node.getNodeType() == ComputationNodeType.MULTIPLY && allChildrenResolved(node)) {
+            ExecutionPlan productPlan = new ExecutionPlan(node, numThreads, getPrecision());
+            started.put(node, submitStep(productPlan, productPlan.getSteps().get(0)));
+        }
+    }
+
+    /**
+     * Prepares the step's tasks under the engine's lock and submits them without waiting. No operand
+     * is handed over to be written or let go of; the future completes with the step's output.
+     */
+    private CompletableFuture<SharedMatrix> submitStep(ExecutionPlan stepPlan, ExecutionPlan.Step step) {
+        List<Runnable> tasks;
+        SharedMatrix output;
+        try {
+            synchronized (this) {
+                plan = stepPlan;
+                // Without use counts every operand is copied or read, never handed over to be written
+                pendingUses.clear();
+                try {
+                    tasks = prepareTasks(step.getNode());
+                    output = leftMatrix;
+                } finally {
+                    leftMatrix = new SharedMatrix();
+                    rightMatrix = new SharedMatrix();
+                }
+            }
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return executor.submitAllAsync(tasks).thenApply(ignored -> output);
+    }
+
+    private synchronized ExecutorService coordinator() {
+        if (coordinator == null) {
+            coordinator = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "lae-coordinator");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return coordinator;
+    }
+
+    /**
+     * Stops the workers once the tasks already submitted are done. The engine cannot evaluate afterwards.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            if (coordinator != null) {
+                coordinator.shutdown();
+            }
+        }
+        try {
+            executor.shutdown();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // Restore interrupted status
+        }
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Returns an executor that runs each task on one of the engine's workers, without waiting for it,
+     * so that work outside the engine (such as parsing the next input) can use idle workers.
+     */
+    public Executor getWorkers() {
+        return task -> {
+            CompletableFuture<Void> done = executor.submitAllAsync(List.of(task));
+            // A refused task is reported to the caller, which would otherwise wait for it forever
+            if (done.isCompletedExceptionally() && done.exceptionNow() instanceof RejectedExecutionException rejected) {
+                throw rejected;
+            }
+        };
+    }
+
+    /**
+     * Returns how many matrices were spilled to disk to stay within the memory budget.
+     */
+    public int getSpillCount() {
+        return spillStore.getSpillCount();
+    }
+
+    /**
+     * Returns the number of bytes written to disk to stay within the memory budget.
+     */
+    public long getSpilledBytes() {
+        return spillStore.getSpilledBytes();
+    }
+
+    /**
+     * Looks up the steps needed for the root in the store, from the root down: a step found
+     * in the store needs none of its operands. Returns the needed steps in plan order, fills in the
+     * stored results, and counts the uses of every node by the steps that will be computed.
+     */
+    private List<ExecutionPlan.Step> lookUpStoredResults(ComputationNode root, ResultStore store,
+                                                         Map<ComputationNode, double[][]> storedResults) {
+        Map<ComputationNode, Boolean> needed = new IdentityHashMap<>();
+        List<ComputationNode> pending = new ArrayList<>();
+        pending.add(root);
+        while (!pending.isEmpty()) {
+            ComputationNode node = pending.remove(pending.size() - 1);
+            ExecutionPlan.Step step = plan.getStep(node);
+            if (step == null || needed.put(node, Boolean.TRUE) != null) {
+                continue; // a parsed matrix, or a step already looked up
+            }
+            double[][] cached = store.lookUp(node);
+            if (cached != null) {
+                storedResults.put(node, cached);
+                continue;
+            }
+            for (ComputationNode operand : step.getOperands()) {
+                pendingUses.merge(operand, 1, Integer::sum);
+                pending.add(operand);
+            }
+        }
+        List<ExecutionPlan.Step> steps = new ArrayList<>();
+        for (ExecutionPlan.Step step : plan.getSteps()) {
+            if (needed.containsKey(step.getNode())) {
+                steps.add(step);
+            }
+        }
+        return steps;
+    }
+
+    private long bytesOf(int[] shape) {
+        return (long) shape[0] * shape[1] * (precision == Precision.FLOAT ? Float.BYTES : Double.BYTES);
+    }
+
+    // Suffix of the cache keys of results computed in single precision
+    private synchronized String cacheVariant() {
+        return precision == Precision.DOUBLE ? "" : "-float-" + accumulation.name().toLowerCase();
+    }
+
+    // Every parsed matrix of the tree is in memory before the first step
+    private void trackParsedMatrices() {
+        residentBytes.clear();
+        spilled.clear();
+        totalResidentBytes = 0;
+        for (ComputationNode node : pendingUses.keySet()) {
+            // Sparse leaves are small and read in place, so they are neither counted nor spilled
+            if (node.getNodeType() == ComputationNodeType.MATRIX && node.getSparse() == null) {
+                totalResidentBytes += bytesOf(plan.getShape(node));
+                residentBytes.put(node, bytesOf(plan.getShape(node)));
+            }
+        }
+    }
+
+    // After a step, its result is held and the operands it read for the last time are gone
+    private void trackStep(ExecutionPlan.Step step, boolean computed) {
+        for (ComputationNode operand : step.getOperands()) {
+            if (computed && pendingUses.getOrDefault(operand, 0) == 0) {
+                Long bytes = residentBytes.remove(operand);
+                if (bytes != null) {
+                    totalResidentBytes -= bytes;
+                }
             }
         }
+        totalResidentBytes += bytesOf(step.getShape());
+        residentBytes.put(step.getNode(), bytesOf(step.getShape()));
+    }
+
+    /**
+     * Before a step runs, spills held matrices the step does not read until its output and
+     * its reloaded operands fit in the budget, then reloads the operands it reads.
+     * The matrix whose next reader comes last is spilled first.
+     */
+    private void makeRoom(ExecutionPlan.Step step) {
+        if (maxMemoryBytes == Long.MAX_VALUE) {
+            return;
+        }
+        long needed = bytesOf(step.getShape());
+        for (ComputationNode operand : step.getOperands()) {
+            if (spilled.containsKey(operand)) {
+                needed += bytesOf(plan.getShape(operand));
+            }
+        }
+        try {
+            while (totalResidentBytes + needed > maxMemoryBytes) {
+                ComputationNode victim = null;
+                int victimNextUse = -1;
+                for (ComputationNode node : residentBytes.keySet()) {
+                    int nextUse = nextUse(node, step.getIndex());
+                    if (!step.getOperands().contains(node) && nextUse > victimNextUse) {
+                        victim = node;
+                        victimNextUse = nextUse;
+                    }
+                }
+                if (victim == null) {
+                    break; // everything held is read by this step
+                }
+                Path file = victim.getResult() != null
+                        ? spillStore.spill(victim.getResult())
+                        : spillStore.spill(victim.getMatrix());
+                victim.release();
+                spilled.put(victim, file);
+                totalResidentBytes -= residentBytes.remove(victim);
+            }
+            for (ComputationNode operand : step.getOperands()) {
+                Path file = spilled.remove(operand);
+                if (file != null) {
+                    operand.resolve(spillStore.reload(file));
+                    totalResidentBytes += bytesOf(plan.getShape(operand));
+                    residentBytes.put(operand, bytesOf(plan.getShape(operand)));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to spill a matrix to disk: " + e.getMessage(), e);
+        }
+    }
+
+    // Index of the first step from the given one on that reads the node
+    private int nextUse(ComputationNode node, int fromStep) {
+        List<ExecutionPlan.Step> steps = plan.getSteps();
+        for (int i = fromStep - 1; i < steps.size(); i++) {
+            if (steps.get(i).getOperands().contains(node)) {
+                return i + 1;
+            }
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    private void closeSpillStore() {
+        try {
+            spillStore.close();
+        } catch (IOException e) {
+            // Leftover temporary files are not worth failing a finished run for
+        }
     }
 
     public void loadAndCompute(ComputationNode node) {
+        executor.submitAll(prepareTasks(node));
+    }
+
+    /**
+     * Loads the operands of the node and returns the tasks that compute it into leftMatrix,
+     * without running them.
+     */
+    private List<Runnable> prepareTasks(ComputationNode node) {
+
+        // A chain of element-wise operations is computed by one kernel instead of node by node
+        if (isFusible(node) && !allChildrenResolved(node)) {
+            List<FusedTerm> terms = new ArrayList<>();
+            flattenFused(node, false, false, terms);
+            leftMatrix = loadFusedTerms(terms);
+            return partition(createFusedTasks(terms), node);
+        }
 
         switch (node.getNodeType()) {
             case ADD:
-                leftMatrix.loadRowMajor(node.getChildren().get(0).getMatrix());
-                rightMatrix.loadRowMajor(node.getChildren().get(1).getMatrix());
-                for(int i=0;i<leftMatrix.length();i++){
-                    if(leftMatrix.get(i).length() != rightMatrix.get(i).length()){ 
-                        throw new IllegalArgumentException("Matrix dimensions do not match for addition.");
-                    }
+                leftMatrix = loadOperand(node.getChildren().get(0));
+                rightMatrix = readOperand(node.getChildren().get(1));
+                if (!Arrays.equals(shapeOf(leftMatrix), shapeOf(rightMatrix))) {
+                    throw new IllegalArgumentException("Matrix dimensions do not match for addition.");
                 }
-                executor.submitAll(createAddTasks());
-                break;
+                return partition(createAddTasks(), node);
             case MULTIPLY:
-                leftMatrix.loadRowMajor(node.getChildren().get(0).getMatrix());
-                rightMatrix.loadColumnMajor(node.getChildren().get(1).getMatrix());
-                 if (leftMatrix.length() > 0 && rightMatrix.length() > 0) {
-                    int colsA = leftMatrix.get(0).length();
-                    int rowsB = rightMatrix.get(0).length(); 
-                    if (colsA != rowsB) {
-                         throw new IllegalArgumentException("Matrix dimensions do not match for multiplication.");
-                    }
+                if (hasSparseOperand(node)) {
+                    return partition(createSparseMultiplyTasks(node.getChildren().get(0), node.getChildren().get(1)), node);
+                }
+                // Both operands are only read, the product is written into a preallocated output
+                leftMatrix = readOperand(node.getChildren().get(0));
+                rightMatrix = readOperand(node.getChildren().get(1));
+                if (shapeOf(leftMatrix)[1] != shapeOf(rightMatrix)[0]) {
+                    throw new IllegalArgumentException("Matrix dimensions do not match for multiplication.");
                 }
-                executor.submitAll(createMultiplyTasks());
+                return partition(createMultiplyTasks(), node);
+            case NEGATE:
+                leftMatrix = loadOperand(node.getChildren().get(0));
+                return partition(createNegateTasks(), node);
+            case TRANSPOSE:
+                // A transpose only swaps how the vectors are read, the data is never touched
+                leftMatrix = loadOperand(node.getChildren().get(0)).transposeView();
+                return List.of();
+            default:
+                throw new IllegalArgumentException("Unsupported operation: " + node.getNodeType());
+        }
+    }
+
+    /**
+     * Records that one parent has read the node, and reports whether that was its last use.
+     * Nodes not counted by run are never reported as consumed, so they are always copied.
+     */
+    private boolean consumeUse(ComputationNode node) {
+        Integer remaining = pendingUses.get(node);
+        if (remaining == null) {
+            return false;
+        }
+        pendingUses.put(node, remaining - 1);
+        return remaining - 1 == 0;
+    }
+
+    /**
+     * Returns a matrix the caller may write into, in whatever orientation the operand is stored.
+     * An engine-owned intermediate is handed over without a copy on its last use;
+     * parsed matrices and shared intermediates are loaded as row-major copies.
+     * On its last use the node lets go of its matrix, so a consumed operand is not kept until the run ends.
+     * The matrix is in the engine's precision.
+     */
+    private SharedMatrix loadOperand(ComputationNode node) {
+        boolean lastUse = consumeUse(node);
+        if (lastUse && node.getResult() != null) {
+            return node.takeResult().toPrecision(precision);
+        }
+        SharedMatrix operand = copyOf(node);
+        if (lastUse) {
+            node.release();
+        }
+        return operand;
+    }
+
+    /**
+     * Returns a read-only matrix of the operand. An engine-owned intermediate is shared as is,
+     * in whatever orientation it is stored; a parsed matrix is loaded row-major.
+     * On its last use the node lets go of its matrix; the returned matrix stays valid for the caller.
+     */
+    private SharedMatrix readOperand(ComputationNode node) {
+        boolean lastUse = consumeUse(node);
+        SharedMatrix operand = node.getResult();
+        if (operand == null) {
+            operand = copyOf(node);
+        } else {
+            operand = operand.toPrecision(precision);
+        }
+        if (lastUse) {
+            node.release();
+        }
+        return operand;
+    }
+
+    // A copy of the node's matrix in the engine's precision: a result is copied as it is stored, in one pass,
+    // and a parsed matrix row-major
+    private SharedMatrix copyOf(ComputationNode node) {
+        return node.getResult() != null
+                ? node.getResult().copy(precision)
+                : SharedMatrix.ofRows(node.getMatrix(), precision);
+    }
+
+    /**
+     * Returns the sparse matrix of a sparse leaf, which is never copied since nothing writes into it.
+     * On its last use the node lets go of it.
+     */
+    private SparseMatrix readSparseOperand(ComputationNode node) {
+        boolean lastUse = consumeUse(node);
+        SparseMatrix operand = node.getSparse();
+        if (lastUse) {
+            node.release();
+        }
+        return operand;
+    }
+
+    private boolean hasSparseOperand(ComputationNode node) {
+        for (ComputationNode child : node.getChildren()) {
+            if (child.getSparse() != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the {rows, columns} shape of a resolved node without materialising it.
+     */
+    private int[] shapeOf(ComputationNode node) {
+        return node.getShape();
+    }
+
+    private int[] shapeOf(SharedMatrix matrix) {
+        return matrix.shape();
+    }
+
+    /**
+     * Groups consecutive per-vector tasks into the number of tasks the execution plan chose for the node,
+     * so that vectors with little work do not each pay for a hand-off to a worker.
+     */
+    private List<Runnable> partition(List<Runnable> tasks, ComputationNode node) {
+        ExecutionPlan.Step step = plan == null ? null : plan.getStep(node);
+        if (step == null || step.getTasks() >= tasks.size()) {
+            return tasks;
+        }
+        int groups = Math.max(1, step.getTasks());
+        List<Runnable> grouped = new ArrayList<>(groups);
+        for (int g = 0; g < groups; g++) {
+            final List<Runnable> group = tasks.subList(g * tasks.size() / groups, (g + 1) * tasks.size() / groups);
+            grouped.add(() -> {
+                for (Runnable task : group) {
+                    task.run();
+                }
+            });
+        }
+        return grouped;
+    }
+
+    /**
+     * Returns the index-th vector of the matrix in the given orientation: the stored vector itself
+     * when the matrix is stored that way, otherwise a private vector gathered from the stored ones.
+     */
+    private SharedVector vectorOf(SharedMatrix matrix, int index, VectorOrientation orientation) {
+        if (matrix.getOrientation() == orientation) {
+            return matrix.get(index);
+        }
+        // The gathered vector is private to the calling task, so no other thread can access it
+        SharedVector gathered = new SharedVector(new double[0], orientation);
+        gathered.copyFrom(matrix, index);
+        return gathered;
+    }
+
+    /**
+     * A node is fusible when it is ADD, NEGATE or TRANSPOSE and every operand below it is
+     * a matrix, another fusible node, or a product of two matrices (GEMM with accumulate).
+     */
+    private boolean isFusible(ComputationNode node) {
+        ComputationNodeType type = node.getNodeType();
+        if (type != ComputationNodeType.ADD && type != ComputationNodeType.NEGATE
+                && type != ComputationNodeType.TRANSPOSE) {
+            return false;
+        }
+        for (ComputationNode child : node.getChildren()) {
+            if (child.getNodeType() == ComputationNodeType.MATRIX) {
+                continue;
+            }
+            // A shared subtree is computed once on its own, and never inlined into one of its parents
+            if (pendingUses.getOrDefault(child, 1) > 1) {
+                return false;
+            }
+            if (!isProductOfMatrices(child) && !isFusible(child)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // A product with a sparse operand has its own kernel, so it is never fused
+    private boolean isProductOfMatrices(ComputationNode node) {
+        return node.getNodeType() == ComputationNodeType.MULTIPLY
+                && node.getChildren().size() == 2
+                && allChildrenResolved(node)
+                && !hasSparseOperand(node);
+    }
+
+    private boolean allChildrenResolved(ComputationNode node) {
+        for (ComputationNode child : node.getChildren()) {
+            if (child.getNodeType() != ComputationNodeType.MATRIX) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Flattens a fusible chain into a sum of signed, possibly transposed terms.
+     * NEGATE flips the sign and TRANSPOSE flips the index order of everything below it,
+     * so e.g. T(-(A + B)) becomes -A^T + -B^T.
+     */
+    private void flattenFused(ComputationNode node, boolean negated, boolean transposed, List<FusedTerm> terms) {
+        switch (node.getNodeType()) {
+            case MATRIX:
+                terms.add(new FusedTerm(node, null, negated, transposed));
+                break;
+            case MULTIPLY:
+                terms.add(new FusedTerm(node.getChildren().get(0), node.getChildren().get(1), negated, transposed));
                 break;
             case NEGATE:
-                leftMatrix.loadRowMajor(node.getChildren().get(0).getMatrix());
-                executor.submitAll(createNegateTasks());
+                flattenFused(node.getChildren().get(0), !negated, transposed, terms);
                 break;
             case TRANSPOSE:
-                leftMatrix.loadRowMajor(node.getChildren().get(0).getMatrix());
-                executor.submitAll(createTransposeTasks());
+                flattenFused(node.getChildren().get(0), negated, !transposed, terms);
+                break;
+            case ADD:
+                for (ComputationNode child : node.getChildren()) {
+                    flattenFused(child, negated, transposed, terms);
+                }
                 break;
             default:
                 throw new IllegalArgumentException("Unsupported operation: " + node.getNodeType());
         }
     }
 
+    /**
+     * Validates the shapes of all terms, loads their operands and returns the output matrix.
+     * Transposed operands are read through transpose views, so no term is ever copied to be transposed.
+     * Without a product term the first term is written in place; with one, the output is preallocated
+     * as a row-major matrix of zeros and every term is only read.
+     */
+    private SharedMatrix loadFusedTerms(List<FusedTerm> terms) {
+        int rows = -1;
+        int cols = -1;
+        boolean hasProduct = false;
+        for (int t = 0; t < terms.size(); t++) {
+            FusedTerm term = terms.get(t);
+            int[] a = shapeOf(term.leftNode);
+            int termRows = a[0];
+            int termCols = a[1];
+            if (term.rightNode != null) {
+                int[] b = shapeOf(term.rightNode);
+                if (termCols != b[0]) {
+                    throw new IllegalArgumentException("Matrix dimensions do not match for multiplication.");
+                }
+                termCols = b[1];
+                hasProduct = true;
+            }
+            if (term.transposed) {
+                int tmp = termRows;
+                termRows = termCols;
+                termCols = tmp;
+            }
+            if (rows == -1) {
+                rows = termRows;
+                cols = termCols;
+            } else if (rows != termRows || cols != termCols) {
+                throw new IllegalArgumentException("Matrix dimensions do not match for addition.");
+            }
+        }
+
+        SharedMatrix output;
+        int firstReadOnly;
+        if (hasProduct) {
+            // Products are accumulated row by row, into an output of the inferred shape
+            output = new SharedMatrix(rows, cols, precision);
+            firstReadOnly = 0;
+        } else {
+            // Loaded before any read-only term, so a shared operand is copied rather than handed over
+            FusedTerm first = terms.get(0);
+            first.left = loadOperand(first.leftNode);
+            if (first.transposed) {
+                first.left = first.left.transposeView();
+            }
+            output = first.left;
+            firstReadOnly = 1;
+        }
+
+        for (int t = firstReadOnly; t < terms.size(); t++) {
+            FusedTerm term = terms.get(t);
+            if (term.rightNode == null) {
+                term.left = readOperand(term.leftNode);
+                if (term.transposed) {
+                    term.left = term.left.transposeView();
+                }
+            } else if (!term.transposed) {
+                // Row i of A*B is row i of A times B
+                term.left = readOperand(term.leftNode);
+                term.right = readOperand(term.rightNode);
+            } else {
+                // (A*B)^T = B^T * A^T
+                term.left = readOperand(term.rightNode).transposeView();
+                term.right = readOperand(term.leftNode).transposeView();
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Creates one task per output vector. Each task evaluates every term for its vector
+     * and accumulates it into the output, which is written once.
+     */
+    private List<Runnable> createFusedTasks(List<FusedTerm> terms) {
+        List<Runnable> tasks = new ArrayList<>();
+        final SharedMatrix output = leftMatrix;
+        final VectorOrientation orientation = output.getOrientation();
+        final Precision productAccumulation = accumulation;
+        // The first term is the output itself when it is written in place, otherwise the output starts at zero
+        final boolean inPlace = terms.get(0).left == output;
+        int len = output.length();
+
+        for (int i = 0; i < len; i++) {
+            final int index = i;
+
+            Runnable task = () -> {
+                // The output vector is written throughout the task, so hold its Write Lock for all terms
+                SharedVector targetVector = output.get(index);
+                targetVector.writeLock();
+                try {
+                    if (inPlace && terms.get(0).negated) {
+                        targetVector.negate();
+                    }
+                    for (int t = inPlace ? 1 : 0; t < terms.size(); t++) {
+                        FusedTerm term = terms.get(t);
+                        if (term.right != null) {
+                            // The product row is accumulated straight into the output, the operands are only read
+                            SharedVector row = vectorOf(term.left, index, VectorOrientation.ROW_MAJOR);
+                            targetVector.addVecMatMul(row, term.right, term.negated, productAccumulation);
+                            continue;
+                        }
+                        SharedVector sourceVector = vectorOf(term.left, index, orientation);
+                        // .add() and .subtract() internally acquire Read Lock on sourceVector
+                        if (term.negated) {
+                            targetVector.subtract(sourceVector);
+                        } else {
+                            targetVector.add(sourceVector);
+                        }
+                    }
+                } finally {
+                    targetVector.writeUnlock();
+                }
+            };
+            tasks.add(task);
+        }
+        return tasks;
+    }
+
     public List<Runnable> createAddTasks() {
-        // Each task adds one row from rightMatrix to the corresponding row in leftMatrix
+        // Each task adds one vector from rightMatrix to the corresponding vector in leftMatrix
+        // If rightMatrix is stored in the other orientation, the task gathers that vector from it
         List<Runnable> tasks = new ArrayList<>();
         int len = leftMatrix.length(); 
+        final SharedMatrix sourceMatrix = rightMatrix;
+        final VectorOrientation orientation = leftMatrix.getOrientation();
 
-        
         for (int i = 0; i < len; i++) {
             final SharedVector targetVector = leftMatrix.get(i);
-            final SharedVector sourceVector = rightMatrix.get(i);
+            final int index = i;
             
             Runnable task = () -> {
+                SharedVector sourceVector = vectorOf(sourceMatrix, index, orientation);
                 // We must acquire the Write Lock on the target before calling the method 
                 // Since on each iterarion we write into the left (target) vector 
                 // and there is no internal write lock for the target vector only readlock for other
@@ -107,13 +851,18 @@ public class LinearAlgebraEngine {
     }
 
     public List<Runnable> createMultiplyTasks() {
-        // Each task multiplies one row from leftMatrix with rightMatrix
+        // Each task multiplies one row from leftMatrix (stored in either orientation) with rightMatrix
+        // (stored in either orientation) into the matching row of a preallocated output, which replaces leftMatrix
         List<Runnable> tasks = new ArrayList<>();
+        final SharedMatrix rowSource = leftMatrix;
+        final SharedMatrix sourceMatrix = rightMatrix;
+        leftMatrix = new SharedMatrix(shapeOf(rowSource)[0], shapeOf(sourceMatrix)[1], precision);
+        final Precision productAccumulation = accumulation;
         int len = leftMatrix.length();
 
         for (int i = 0; i < len; i++) {
             final SharedVector targetVector = leftMatrix.get(i);
-            final SharedMatrix sourceMatrix = rightMatrix;
+            final int index = i;
 
             Runnable task = () -> {
                 // We must acquire the Write Lock on the target before calling the method
@@ -121,8 +870,9 @@ public class LinearAlgebraEngine {
                 // and there is no internal write lock for the target vector in this method
                 targetVector.writeLock();
                 try {
-                    // .vecMatMul() internally acquires Read Lock on sourceMatrix within the recalled function of .dot()
-                    targetVector.vecMatMul(sourceMatrix);
+                    // .addVecMatMul() internally acquires Read Locks on the row and the vectors of sourceMatrix
+                    targetVector.addVecMatMul(vectorOf(rowSource, index, VectorOrientation.ROW_MAJOR), sourceMatrix, false,
+                            productAccumulation);
                 } finally {
                     // Release locks on the targer vector to allow others to access it 
                     // since job is over on this vector upon multipication and there is no internal lock release in this method
@@ -134,22 +884,40 @@ public class LinearAlgebraEngine {
             return tasks;
     }
 
-    public List<Runnable> createNegateTasks() {
+    /**
+     * Creates one task per output row of a product with a sparse operand. Sparse operands are read
+     * in place, so only the stored elements are ever visited, and no dense copy of them is made;
+     * the dense operand (if any) is read in whatever orientation it is stored.
+     */
+    private List<Runnable> createSparseMultiplyTasks(ComputationNode leftNode, ComputationNode rightNode) {
+        final SparseMatrix leftSparse = leftNode.getSparse() != null ? readSparseOperand(leftNode) : null;
+        final SharedMatrix leftDense = leftSparse == null ? readOperand(leftNode) : null;
+        final SparseMatrix rightSparse = rightNode.getSparse() != null ? readSparseOperand(rightNode) : null;
+        final SharedMatrix rightDense = rightSparse == null ? readOperand(rightNode) : null;
+        int[] a = leftSparse != null ? leftSparse.shape() : shapeOf(leftDense);
+        int[] b = rightSparse != null ? rightSparse.shape() : shapeOf(rightDense);
+        if (a[1] != b[0]) {
+            throw new IllegalArgumentException("Matrix dimensions do not match for multiplication.");
+        }
+        leftMatrix = new SharedMatrix(a[0], b[1], precision);
+        rightMatrix = rightDense;
         List<Runnable> tasks = new ArrayList<>();
-        int len = leftMatrix.length();
 
-        for(int i = 0; i < len; i++){
+        for (int i = 0; i < a[0]; i++) {
             final SharedVector targetVector = leftMatrix.get(i);
+            final int index = i;
 
             Runnable task = () -> {
-                // We must acquire the Write Lock on the target before calling negate method
-                // Since there is no internal write lock for target vector in this method
                 targetVector.writeLock();
-                try{
-                    targetVector.negate();
-                }finally{
-                    // Release lock on the target vector to allow others to access it
-                    // since job is over on this vector upon negation and there is no internal lock release in this method
+                try {
+                    if (leftSparse == null) {
+                        targetVector.addVecMatMul(vectorOf(leftDense, index, VectorOrientation.ROW_MAJOR), rightSparse);
+                    } else if (rightSparse == null) {
+                        targetVector.addVecMatMul(leftSparse, index, rightDense);
+                    } else {
+                        targetVector.addVecMatMul(leftSparse, index, rightSparse);
+                    }
+                } finally {
                     targetVector.writeUnlock();
                 }
             };
@@ -158,7 +926,7 @@ public class LinearAlgebraEngine {
         return tasks;
     }
 
-    public List<Runnable> createTransposeTasks() {
+    public List<Runnable> createNegateTasks() {
         List<Runnable> tasks = new ArrayList<>();
         int len = leftMatrix.length();
 
@@ -166,14 +934,14 @@ public class LinearAlgebraEngine {
             final SharedVector targetVector = leftMatrix.get(i);
 
             Runnable task = () -> {
-                // Lock the target vector for writing before transposing
+                // We must acquire the Write Lock on the target before calling negate method
                 // Since there is no internal write lock for target vector in this method
                 targetVector.writeLock();
                 try{
-                    targetVector.transpose();
+                    targetVector.negate();
                 }finally{
                     // Release lock on the target vector to allow others to access it
-                    // since job is over on this vector upon transpose and there is no internal lock release in this method
+                    // since job is over on this vector upon negation and there is no internal lock release in this method
                     targetVector.writeUnlock();
                 }
             };
@@ -182,6 +950,103 @@ public class LinearAlgebraEngine {
         return tasks;
     }
 
+    /**
+     * One operand of a fused element-wise chain: a matrix, or a product of two matrices,
+     * with the sign and transposition accumulated from the operations above it.
+     */
+    private static final class FusedTerm {
+        private final ComputationNode leftNode;
+        private final ComputationNode rightNode; // only set for a product term
+        private final boolean negated;
+        private final boolean transposed;
+        private SharedMatrix left;
+        private SharedMatrix right;
+
+        FusedTerm(ComputationNode leftNode, ComputationNode rightNode, boolean negated, boolean transposed) {
+            this.leftNode = leftNode;
+            this.rightNode = rightNode;
+            this.negated = negated;
+            this.transposed = transposed;
+        }
+    }
+
+    /**
+     * The state of one asynchronous evaluation. It is only touched on the coordinator thread,
+     * and its steps are prepared under the engine's lock, one at a time.
+     */
+    private final class AsyncEvaluation {
+        private final ComputationNode root;
+        private final ExecutionPlan evaluationPlan;
+        private final CompletableFuture<ComputationNode> resolved = new CompletableFuture<>();
+        // Number of operands of each step that are not computed yet, and the steps reading each node
+        private final Map<ComputationNode, Integer> waitingOperands = new IdentityHashMap<>();
+        private final Map<ComputationNode, List<ExecutionPlan.Step>> readers = new IdentityHashMap<>();
+        // Number of reading steps of each node that are not done yet
+        private final Map<ComputationNode, Integer> remainingReads = new IdentityHashMap<>();
+
+        AsyncEvaluation(ComputationNode root, ExecutionPlan evaluationPlan) {
+            this.root = root;
+            this.evaluationPlan = evaluationPlan;
+        }
+
+        void start() {
+            List<ExecutionPlan.Step> ready = new ArrayList<>();
+            for (ExecutionPlan.Step step : evaluationPlan.getSteps()) {
+                int waiting = 0;
+                for (ComputationNode operand : step.getOperands()) {
+                    remainingReads.merge(operand, 1, Integer::sum);
+                    if (evaluationPlan.getStep(operand) != null) {
+                        readers.computeIfAbsent(operand, k -> new ArrayList<>()).add(step);
+                        waiting++;
+                    }
+                }
+                waitingOperands.put(step.getNode(), waiting);
+                if (waiting == 0) {
+                    ready.add(step);
+                }
+            }
+            for (ExecutionPlan.Step step : ready) {
+                submit(step);
+            }
+        }
+
+        private void submit(ExecutionPlan.Step step) {
+            if (resolved.isDone()) {
+                return; // an earlier step failed
+            }
+            submitStep(evaluationPlan, step).whenCompleteAsync((output, failure) -> {
+                if (failure != null) {
+                    resolved.completeExceptionally(failure instanceof CompletionException ? failure.getCause() : failure);
+                } else {
+                    complete(step, output);
+                }
+            }, coordinator);
+        }
+
+        private void complete(ExecutionPlan.Step step, SharedMatrix output) {
+            if (resolved.isDone()) {
+                return;
+            }
+            ComputationNode node = step.getNode();
+            node.resolve(output);
+            for (ComputationNode operand : step.getOperands()) {
+                // Let go of an operand once every step reading it is done
+                if (remainingReads.merge(operand, -1, Integer::sum) == 0) {
+                    operand.release();
+                }
+            }
+            if (node == root) {
+                resolved.complete(root);
+                return;
+            }
+            for (ExecutionPlan.Step reader : readers.getOrDefault(node, List.of())) {
+                if (waitingOperands.merge(reader.getNode(), -1, Integer::sum) == 0) {
+                    submit(reader);
+                }
+            }
+        }
+    }
+
     public String getWorkerReport() {
         StringBuilder sb = new StringBuilder();
         sb.append("--- Worker Activity Report ---\n");
@@ -1,14 +1,89 @@
 package spl.lae;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import memory.Precision;
+import memory.SharedMatrix;
 import parser.*;
 
 public class Main {
+
+    // Options that take a value and come before the positional arguments
+    private static final Set<String> OPTIONS = Set.of("--max-memory", "--cache-dir", "--cache-size", "--accumulation");
+    // Options without a value, also before the positional arguments
+    private static final Set<String> FLAGS = Set.of("--compact", "--float32");
+    private static final String DEFAULT_CACHE_SIZE = "256m";
+
     public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        while (args.length >= 1 && (FLAGS.contains(args[0]) || args.length >= 2 && OPTIONS.contains(args[0]))) {
+            if (FLAGS.contains(args[0])) {
+                options.put(args[0], "true");
+                args = Arrays.copyOfRange(args, 1, args.length);
+            } else {
+                options.put(args[0], args[1]);
+                args = Arrays.copyOfRange(args, 2, args.length);
+            }
+        }
       // Validate Command Line Arguments
      if (args.length < 3) {
             System.err.println("Error: Missing arguments.");
-            System.err.println("Usage: java -jar <jar_name> <num_threads> <input_path> <output_path>");
+            System.err.println("Usage: java -jar <jar_name> [options] <num_threads> <input_path> <output_path>");
+            System.err.println("       java -jar <jar_name> --explain <num_threads> <input_path>");
+            System.err.println("       java -jar <jar_name> [options] --serve <num_threads> <port|socket_path>");
+            System.err.println("       java -jar <jar_name> [options] --batch <num_threads> <input_dir> <output_dir>");
+            System.err.println("       java -jar <jar_name> [options] --batch <num_threads> <manifest_path>");
+            System.err.println("       java -jar <jar_name> --convert <input_path> <output_path>");
+            System.err.println("       java -jar <jar_name> --submit <port|socket_path> <input_path> <output_path>");
+            System.err.println("Options:");
+            System.err.println("       --max-memory <size>  spill intermediate results to disk beyond this size");
+            System.err.println("       --cache-dir <dir>    reuse results of identical subexpressions across runs");
+            System.err.println("       --cache-size <size>  bound of the result cache (default " + DEFAULT_CACHE_SIZE + ")");
+            System.err.println("       --compact            write the result JSON without white space");
+            System.err.println("       --float32            parse, compute and write the matrices in single precision");
+            System.err.println("       --accumulation <float|double>  precision of the sums of a --float32 product (default double)");
+            System.err.println("       An output path ending in .bin is written as a binary matrix file;");
+            System.err.println("       an input or output path ending in .gz is read or written as gzip-compressed JSON;");
+            System.err.println("       --convert turns a JSON matrix into a .bin file, or a .bin file into JSON");
+            System.err.println("       <size> is a number of bytes, optionally followed by k, m or g (e.g. 2g)");
+            return;
+        }
+        if (args[0].equals("--explain")) {
+            explain(args, options);
+            return;
+        }
+        if (args[0].equals("--serve")) {
+            serve(args, options);
+            return;
+        }
+        if (args[0].equals("--convert")) {
+            try {
+                BinaryMatrixFile.convert(Paths.get(args[1]), Paths.get(args[2]));
+            } catch (Exception e) {
+                System.err.println("An error occurred: " + e.getMessage());
+            }
+            return;
+        }
+        if (args[0].equals("--batch")) {
+            batch(args, options);
+            return;
+        }
+        if (args[0].equals("--submit") && args.length >= 4) {
+            submit(args);
             return;
         }
         // init an empty LAE engine
@@ -19,31 +94,56 @@ public class Main {
             int numThreads = Integer.parseInt(args[0]);
             String inputPath = args[1];
             String outputPath = args[2];
+            long maxMemoryBytes = maxMemoryBytes(options);
+            ResultCache resultCache = createResultCache(options);
 
-            // Initialize Components
-            InputParser parser = new InputParser();
+            // Initialize the Linear Algebra Engine with the specified number of threads
+            engine = new LinearAlgebraEngine(numThreads, maxMemoryBytes);
+            engine.setResultCache(resultCache);
+
+            // Initialize Components; large matrix literals are parsed on the engine's idle workers
+            InputParser parser = new InputParser(engine.getWorkers());
+            if (options.containsKey("--float32")) {
+                engine.setPrecision(Precision.FLOAT, accumulationOf(options.getOrDefault("--accumulation", "double")));
+                parser.setPrecision(Precision.FLOAT);
+            }
 
             System.out.println("Starting execution with " + numThreads + " threads...");
             long startTime = System.currentTimeMillis();
             
             // Parse input JSON into a computation graph
-            ComputationNode rootNode = parser.parse(inputPath);
+            ComputationNode rootNode;
+            if (maxMemoryBytes == Long.MAX_VALUE && resultCache == null) {
+                // The products of each operand of the root are computed as soon as it is parsed, while the rest
+                // is read; asynchronous steps neither spill nor use the cache, so only without those options
+                rootNode = parseAndStartOperands(parser, inputPath, engine);
+            } else {
+                rootNode = parser.parse(inputPath);
+            }
             
             //Adding associative nesting optimization
             recursiveAssociativeNesting(rootNode);
 
-            // Initialize the Linear Algebra Engine with the specified number of threads
-            engine = new LinearAlgebraEngine(numThreads);
-
             // Run the engine to process the rootNode
-            ComputationNode resultNode = engine.run(rootNode);
+            ComputationNode resultNode = engine.evaluate(rootNode);
 
             // Write the resulting matrix to the output JSON
-            OutputWriter.write(resultNode.getMatrix(), outputPath);
+            // Written straight from the engine's storage, without a row-major copy of the result;
+            // the rows of a large result are formatted on the workers, so they are stopped only afterwards
+            OutputWriter.write(resultNode, outputPath, options.containsKey("--compact"), engine.getWorkers());
+            engine.shutdown();
 
             // Performance Reporting
             long endTime = System.currentTimeMillis();
             System.out.println("Computation finished successfully in " + (endTime - startTime) + "ms.");
+            if (engine.getSpillCount() > 0) {
+                System.out.println("Spilled " + engine.getSpillCount() + " matrices (" + engine.getSpilledBytes()
+                        + " bytes) to disk to stay within the memory budget.");
+            }
+            if (resultCache != null) {
+                System.out.println("Result cache: " + resultCache.getHits() + " hits, "
+                        + resultCache.getMisses() + " misses.");
+            }
             
             // Print the internal worker report
             System.out.println(engine.getWorkerReport());
@@ -52,6 +152,10 @@ public class Main {
             
 
         } catch (Exception e) {
+            if (engine != null) {
+                // The workers start before the parse, so a failed parse must stop them too
+                engine.shutdown();
+            }
             System.err.println("An error occurred: " + e.getMessage());
             e.printStackTrace();
             try {
@@ -64,12 +168,200 @@ public class Main {
         }
     }
 
+    /**
+     * Prints the execution plan of the input (shapes, kernels, estimated cost) without computing anything,
+     * with the memory estimates of float matrices under --float32.
+     * Errors are reported on the standard error, since no output file is written in this mode.
+     */
+    private static void explain(String[] args, Map<String, String> options) {
+        try {
+            int numThreads = Integer.parseInt(args[1]);
+            String inputPath = args[2];
+
+            Precision precision = options.containsKey("--float32") ? Precision.FLOAT : Precision.DOUBLE;
+            InputParser parser = new InputParser();
+            parser.setPrecision(precision);
+            ComputationNode rootNode = parser.parse(inputPath);
+            recursiveAssociativeNesting(rootNode);
+
+            ExecutionPlan plan = new ExecutionPlan(rootNode, numThreads, precision);
+            System.out.print(plan.explain());
+        } catch (Exception e) {
+            System.err.println("An error occurred: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Serves jobs on a loopback port or a Unix-domain socket until the process is stopped,
+     * keeping one engine and its workers warm across jobs.
+     */
+    private static void serve(String[] args, Map<String, String> options) {
+        try {
+            int numThreads = Integer.parseInt(args[1]);
+            LinearAlgebraEngine engine = new LinearAlgebraEngine(numThreads, maxMemoryBytes(options));
+            engine.setResultCache(createResultCache(options));
+            EngineServer server = new EngineServer(engine, EngineServer.addressOf(args[2]));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    server.close();
+                } catch (IOException e) {
+                    System.err.println("Failed to close the server: " + e.getMessage());
+                }
+                engine.shutdown();
+                System.out.println("Served " + server.getJobCount() + " jobs (" + server.getFailedJobCount() + " failed).");
+            }));
+            server.start();
+            System.out.println("Serving with " + numThreads + " threads on " + server.getLocalAddress() + "...");
+            // Serve until the process is stopped
+            Thread.currentThread().join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.err.println("An error occurred: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Evaluates every file of a directory, or every input/output pair of a manifest, on one engine,
+     * and reports the timings of each file and the throughput of the batch.
+     */
+    private static void batch(String[] args, Map<String, String> options) {
+        LinearAlgebraEngine engine = null;
+        try {
+            int numThreads = Integer.parseInt(args[1]);
+            Path source = Paths.get(args[2]);
+            List<BatchRunner.Job> jobs = Files.isDirectory(source)
+                    ? BatchRunner.jobsOfDirectory(source, Paths.get(args.length >= 4 ? args[3] : args[2] + "-out"))
+                    : BatchRunner.jobsOfManifest(source);
+            engine = new LinearAlgebraEngine(numThreads, maxMemoryBytes(options));
+            engine.setResultCache(createResultCache(options));
+
+            System.out.println("Starting a batch of " + jobs.size() + " jobs with " + numThreads + " threads...");
+            BatchRunner.Summary summary = new BatchRunner(engine).run(jobs);
+            System.out.println(summary);
+            System.out.println(engine.getWorkerReport());
+        } catch (Exception e) {
+            System.err.println("An error occurred: " + e.getMessage());
+        } finally {
+            if (engine != null) {
+                engine.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Sends one job to a running server and reports its statistics. The server reads the input
+     * and writes the output itself, so both paths are sent as absolute paths.
+     */
+    private static void submit(String[] args) throws IOException {
+        String outputPath = Paths.get(args[3]).toAbsolutePath().toString();
+        try (EngineClient client = new EngineClient(EngineServer.addressOf(args[1]))) {
+            ObjectNode job = new ObjectMapper().createObjectNode()
+                    .put("input", Paths.get(args[2]).toAbsolutePath().toString())
+                    .put("output", outputPath);
+            JsonNode answer = client.submit(job);
+            if (answer.has("error")) {
+                System.err.println("An error occurred: " + answer.get("error").asText());
+                OutputWriter.write(answer.get("error").asText(), outputPath);
+                return;
+            }
+            JsonNode stats = answer.get("stats");
+            System.out.printf("Job %d finished: parsed in %.1fms, computed %d steps in %.1fms.%n",
+                    stats.get("job").asLong(), stats.get("parseMillis").asDouble(),
+                    stats.get("steps").asInt(), stats.get("computeMillis").asDouble());
+        } catch (IOException e) {
+            System.err.println("An error occurred: " + e.getMessage());
+            OutputWriter.write(e.getMessage(), outputPath);
+        }
+    }
+
+    private static long maxMemoryBytes(Map<String, String> options) {
+        String maxMemory = options.get("--max-memory");
+        return maxMemory == null ? Long.MAX_VALUE : parseMemorySize(maxMemory);
+    }
+
+    // The result cache the options ask for, or null when they do not ask for one
+    private static ResultCache createResultCache(Map<String, String> options) throws IOException {
+        if (!options.containsKey("--cache-dir") && !options.containsKey("--cache-size")) {
+            return null;
+        }
+        long cacheBytes = parseMemorySize(options.getOrDefault("--cache-size", DEFAULT_CACHE_SIZE));
+        String cacheDir = options.get("--cache-dir");
+        return cacheDir == null
+                ? new ResultCache(cacheBytes)
+                : new ResultCache(cacheBytes, Paths.get(cacheDir));
+    }
+
+    /**
+     * Parses the precision the sums of a float product are accumulated in: "float" or "double".
+     */
+    static Precision accumulationOf(String accumulation) {
+        switch (accumulation) {
+            case "float":
+                return Precision.FLOAT;
+            case "double":
+                return Precision.DOUBLE;
+            default:
+                throw new IllegalArgumentException("Invalid accumulation: " + accumulation + " (expected float or double)");
+        }
+    }
+
+    /**
+     * Parses a memory size such as "2g", "512m", "64k" or a plain number of bytes.
+     */
+    static long parseMemorySize(String size) {
+        String value = size.trim().toLowerCase();
+        long multiplier = 1;
+        if (value.endsWith("k") || value.endsWith("m") || value.endsWith("g")) {
+            char unit = value.charAt(value.length() - 1);
+            multiplier = unit == 'k' ? 1L << 10 : unit == 'm' ? 1L << 20 : 1L << 30;
+            value = value.substring(0, value.length() - 1);
+        }
+        try {
+            long amount = Long.parseLong(value);
+            if (amount <= 0 || amount > Long.MAX_VALUE / multiplier) {
+                throw new IllegalArgumentException("Invalid memory size: " + size);
+            }
+            return amount * multiplier;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid memory size: " + size);
+        }
+    }
+
+    /**
+     * Parses the input and starts the products of two parsed matrices in every operation operand of the root
+     * as soon as the parser completes it. Operands share identical subtrees like the rest of the tree, so a
+     * product they have in common is computed once. Returns the root once every started product is resolved;
+     * the rest is left to the evaluation of the whole tree, which knows every node's last reader.
+     */
+    static ComputationNode parseAndStartOperands(InputParser parser, String inputPath, LinearAlgebraEngine engine)
+            throws ParseException {
+        Map<ComputationNode, CompletableFuture<SharedMatrix>> started = new IdentityHashMap<>();
+        ComputationNode rootNode = parser.parse(inputPath, operand -> {
+            recursiveAssociativeNesting(operand);
+            engine.startProducts(operand, started);
+        });
+        // Only now, with nothing left to parse, are the started nodes changed
+        for (Map.Entry<ComputationNode, CompletableFuture<SharedMatrix>> product : started.entrySet()) {
+            try {
+                product.getKey().resolve(product.getValue().join());
+            } catch (CompletionException e) {
+                // Report the failure of a product as the synchronous evaluation would
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        return rootNode;
+    }
+
     /**
      * Recursive helper function to associativeNesting.
      * Traverses the tree bottom-up (Post-Order) and applies associativeNesting to every node.
      * This ensures that nested operations (like A+B+C) are correctly structured before execution.
      */
-    private static void recursiveAssociativeNesting(ComputationNode node) {
+    static void recursiveAssociativeNesting(ComputationNode node) {
         //check for null node
         if (node == null) {
             return;
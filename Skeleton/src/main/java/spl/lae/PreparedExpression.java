@@ -0,0 +1,171 @@
+package spl.lae;
+
+import memory.Precision;
+import parser.ComputationNode;
+import parser.ComputationNodeType;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An expression compiled once and executed many times with different matrices.
+ * The template is a computation tree whose leaves may be named placeholders (see
+ * {@link ComputationNode#ComputationNode(String, int, int)}). Preparing it nests n-ary operations,
+ * infers and validates every shape, and builds the execution plan (evaluation order, fused kernels
+ * and task sizes) a single time, in each precision an engine may compute in. Each execution only binds the placeholders, restores the tree the
+ * previous execution resolved, and runs the plan.
+ * <p>
+ * Executions of one prepared expression run one at a time, since they share the template tree.
+ */
+public class PreparedExpression {
+
+    private final ComputationNode root;
+    private final ExecutionPlan plan;
+    // The plan of every precision, so an execution's memory estimates match its engine
+    private final Map<Precision, ExecutionPlan> plans = new EnumMap<>(Precision.class);
+    private final Map<String, ComputationNode> placeholders = new LinkedHashMap<>();
+    // What the engine overwrites when it resolves the tree, recorded to put it back before the next execution
+    private final Map<ComputationNode, ComputationNodeType> operationTypes = new IdentityHashMap<>();
+    private final Map<ComputationNode, List<ComputationNode>> operationChildren = new IdentityHashMap<>();
+    private final Map<ComputationNode, double[][]> constants = new IdentityHashMap<>();
+
+    public PreparedExpression(ComputationNode template, int numThreads) {
+        if (template == null) {
+            throw new IllegalArgumentException("template cant be null");
+        }
+        if (template.getNodeType() == ComputationNodeType.MATRIX) {
+            throw new IllegalArgumentException("The root node cannot be a matrix.");
+        }
+        nest(template);
+        this.root = template;
+        for (Precision precision : Precision.values()) {
+            plans.put(precision, new ExecutionPlan(template, numThreads, precision));
+        }
+        this.plan = plans.get(Precision.DOUBLE);
+        record(template);
+    }
+
+    /**
+     * Returns the names of the placeholders every execution must bind.
+     */
+    public Set<String> getPlaceholderNames() {
+        return Collections.unmodifiableSet(placeholders.keySet());
+    }
+
+    /**
+     * Returns the {rows, columns} shape a placeholder must be bound to.
+     */
+    public int[] getPlaceholderShape(String name) {
+        return plan.getShape(getPlaceholder(name)).clone();
+    }
+
+    /**
+     * Returns the node of a placeholder in the prepared tree.
+     */
+    ComputationNode getPlaceholder(String name) {
+        ComputationNode placeholder = placeholders.get(name);
+        if (placeholder == null) {
+            throw new IllegalArgumentException("Unknown placeholder: " + name);
+        }
+        return placeholder;
+    }
+
+    /**
+     * Returns the plan of an engine that computes in double; its steps and shapes are those of every precision.
+     */
+    public ExecutionPlan getPlan() {
+        return plan;
+    }
+
+    /**
+     * Evaluates the expression with the given matrices bound to its placeholders, using the engine's workers.
+     * The bound matrices are only read. The engine is not shut down, so it can run further executions.
+     */
+    public double[][] execute(LinearAlgebraEngine engine, Map<String, double[][]> bindings) {
+        return execute(engine, bindings, null);
+    }
+
+    /**
+     * Executes the expression, reusing the results the store has for some of its steps.
+     */
+    synchronized double[][] execute(LinearAlgebraEngine engine, Map<String, double[][]> bindings, ResultStore store) {
+        if (engine == null || bindings == null) {
+            throw new IllegalArgumentException("engine and bindings cant be null");
+        }
+        for (String name : bindings.keySet()) {
+            if (!placeholders.containsKey(name)) {
+                throw new IllegalArgumentException("Unknown placeholder: " + name);
+            }
+        }
+        for (Map.Entry<String, ComputationNode> placeholder : placeholders.entrySet()) {
+            double[][] matrix = bindings.get(placeholder.getKey());
+            if (matrix == null) {
+                throw new IllegalArgumentException("Placeholder " + placeholder.getKey() + " is not bound.");
+            }
+            checkShape(placeholder.getKey(), matrix, plan.getShape(placeholder.getValue()));
+        }
+
+        for (Map.Entry<ComputationNode, ComputationNodeType> operation : operationTypes.entrySet()) {
+            operation.getKey().reset(operation.getValue(), operationChildren.get(operation.getKey()));
+        }
+        for (Map.Entry<ComputationNode, double[][]> constant : constants.entrySet()) {
+            constant.getKey().resolve(constant.getValue());
+        }
+        for (Map.Entry<String, ComputationNode> placeholder : placeholders.entrySet()) {
+            placeholder.getValue().resolve(bindings.get(placeholder.getKey()));
+        }
+        ExecutionPlan enginePlan = plans.get(engine.getPrecision());
+        if (store == null) {
+            return engine.evaluate(root, enginePlan).getMatrix();
+        }
+        return engine.evaluate(root, enginePlan, store).getMatrix();
+    }
+
+    // Rejects a matrix that does not have the placeholder's shape
+    static void checkShape(String name, double[][] matrix, int[] shape) {
+        if (matrix == null || matrix.length != shape[0]) {
+            throw new IllegalArgumentException("Matrix dimensions do not match for placeholder " + name + ".");
+        }
+        for (double[] row : matrix) {
+            if (row == null || row.length != shape[1]) {
+                throw new IllegalArgumentException("Matrix dimensions do not match for placeholder " + name + ".");
+            }
+        }
+    }
+
+    // Nests n-ary operations bottom-up, as Main does for a parsed tree
+    private static void nest(ComputationNode node) {
+        if (node.getChildren() != null) {
+            for (ComputationNode child : node.getChildren()) {
+                nest(child);
+            }
+        }
+        node.associativeNesting();
+    }
+
+    private void record(ComputationNode node) {
+        if (node.getNodeType() == ComputationNodeType.MATRIX) {
+            if (node.getPlaceholderName() == null) {
+                constants.put(node, node.getMatrix());
+                return;
+            }
+            ComputationNode existing = placeholders.putIfAbsent(node.getPlaceholderName(), node);
+            if (existing != null && existing != node) {
+                throw new IllegalArgumentException("Placeholder " + node.getPlaceholderName() + " appears as different nodes.");
+            }
+            return;
+        }
+        if (operationTypes.put(node, node.getNodeType()) != null) {
+            return; // a shared subtree is recorded once
+        }
+        operationChildren.put(node, node.getChildren());
+        for (ComputationNode child : node.getChildren()) {
+            record(child);
+        }
+    }
+}
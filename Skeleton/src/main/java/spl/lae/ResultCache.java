@@ -0,0 +1,301 @@
+package spl.lae;
+
+import memory.SparseMatrix;
+import parser.ComputationNode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * A cache of computed results that can outlive a single run, keyed by the content of the subtree
+ * that produced them: a SHA-256 hash of the operators of the subtree and the elements of its matrices.
+ * Identical subexpressions in different inputs therefore share one entry.
+ * <p>
+ * Entries are kept in memory up to a number of bytes, evicting the least recently used first.
+ * With a directory, every entry is also written to a file there, so later processes can reuse it;
+ * the directory is bounded by the same number of bytes, evicting the least recently used files.
+ * The cache is safe to share between engines running in different threads.
+ */
+public class ResultCache {
+
+    private static final String FILE_SUFFIX = ".mat";
+
+    private final long maxBytes;
+    private final Path directory; // null when the cache is kept in memory only
+    private final LinkedHashMap<String, double[][]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Long> files = new LinkedHashMap<>(16, 0.75f, true); // file sizes by key
+    private long memoryBytes = 0;
+    private long diskBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    public ResultCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        this.maxBytes = maxBytes;
+        this.directory = null;
+    }
+
+    /**
+     * Creates a cache that also persists its entries in the given directory, and picks up
+     * the entries already stored there, oldest first in eviction order.
+     */
+    public ResultCache(long maxBytes, Path directory) throws IOException {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        if (directory == null) {
+            throw new IllegalArgumentException("directory cant be null");
+        }
+        this.maxBytes = maxBytes;
+        this.directory = directory;
+        Files.createDirectories(directory);
+        List<Path> existing = new ArrayList<>();
+        try (Stream<Path> listing = Files.list(directory)) {
+            listing.filter(file -> file.getFileName().toString().endsWith(FILE_SUFFIX)).forEach(existing::add);
+        }
+        existing.sort(Comparator.comparing(ResultCache::lastModified));
+        for (Path file : existing) {
+            String name = file.getFileName().toString();
+            long size = Files.size(file);
+            files.put(name.substring(0, name.length() - FILE_SUFFIX.length()), size);
+            diskBytes += size;
+        }
+        evictFiles();
+    }
+
+    /**
+     * Returns the content key of a subtree. Keys of the subtree's nodes are memoised in the given map,
+     * so a DAG is hashed in one pass; the matrices of the subtree must not have been released yet.
+     */
+    public static String keyOf(ComputationNode node, Map<ComputationNode, String> keys) {
+        String known = keys.get(node);
+        if (known != null) {
+            return known;
+        }
+        MessageDigest digest = newDigest();
+        digest.update(node.getNodeType().name().getBytes());
+        if (node.getSparse() != null) {
+            // A sparse leaf is hashed from its stored elements, never densified
+            SparseMatrix sparse = node.getSparse();
+            ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + Double.BYTES);
+            buffer.putInt(sparse.rows()).putInt(sparse.cols());
+            digest.update(buffer.array(), 0, buffer.position());
+            for (int i = 0; i < sparse.rows(); i++) {
+                for (int p = sparse.rowStart(i); p < sparse.rowStart(i + 1); p++) {
+                    buffer.clear();
+                    buffer.putInt(i).putInt(sparse.columnAt(p));
+                    digest.update(buffer.array(), 0, buffer.position());
+                    buffer.clear();
+                    buffer.putDouble(sparse.valueAt(p));
+                    digest.update(buffer.array(), 0, buffer.position());
+                }
+            }
+        } else if (node.getChildren() == null) {
+            double[][] matrix = node.getMatrix();
+            ByteBuffer buffer = ByteBuffer.allocate(Double.BYTES * Math.max(2, matrix.length == 0 ? 0 : matrix[0].length));
+            buffer.putInt(matrix.length).putInt(matrix.length == 0 ? 0 : matrix[0].length);
+            digest.update(buffer.array(), 0, buffer.position());
+            for (double[] row : matrix) {
+                buffer.clear();
+                for (double value : row) {
+                    buffer.putDouble(value);
+                }
+                digest.update(buffer.array(), 0, buffer.position());
+            }
+        } else {
+            for (ComputationNode child : node.getChildren()) {
+                digest.update(keyOf(child, keys).getBytes());
+            }
+        }
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(String.format("%02x", b));
+        }
+        keys.put(node, key.toString());
+        return key.toString();
+    }
+
+    /**
+     * Returns a store for one evaluation that looks steps up by content key, and caches every computed step.
+     * The variant is appended to every key, so results computed another way (such as in single precision)
+     * are never mixed with the default ones; it is empty for those.
+     */
+    ResultStore newStore(String variant) {
+        Map<ComputationNode, String> keys = new IdentityHashMap<>();
+        return new ResultStore() {
+            @Override
+            public double[][] lookUp(ComputationNode node) {
+                return get(keyOf(node, keys) + variant);
+            }
+
+            @Override
+            public void store(ComputationNode node, double[][] result) {
+                put(keys.get(node) + variant, result);
+            }
+        };
+    }
+
+    /**
+     * Returns the cached result for the key, or null. The returned array must not be modified.
+     */
+    public synchronized double[][] get(String key) {
+        double[][] matrix = entries.get(key);
+        if (matrix == null && directory != null && files.containsKey(key)) {
+            matrix = readFile(key);
+            if (matrix != null) {
+                files.get(key); // most recently used on disk as well
+                remember(key, matrix);
+            }
+        }
+        if (matrix == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return matrix;
+    }
+
+    /**
+     * Stores a result under the key. The cache keeps the array as is, so the caller must not modify it afterwards.
+     * A result larger than the whole cache is not stored.
+     */
+    public synchronized void put(String key, double[][] matrix) {
+        long bytes = bytesOf(matrix);
+        if (bytes > maxBytes || entries.containsKey(key)) {
+            return;
+        }
+        remember(key, matrix);
+        if (directory != null && !files.containsKey(key)) {
+            writeFile(key, matrix);
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of bytes of results held in memory.
+     */
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    private void remember(String key, double[][] matrix) {
+        entries.put(key, matrix);
+        memoryBytes += bytesOf(matrix);
+        Iterator<Map.Entry<String, double[][]>> eldest = entries.entrySet().iterator();
+        while (memoryBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, double[][]> entry = eldest.next();
+            memoryBytes -= bytesOf(entry.getValue());
+            eldest.remove();
+        }
+    }
+
+    private static long bytesOf(double[][] matrix) {
+        return (long) matrix.length * (matrix.length == 0 ? 0 : matrix[0].length) * Double.BYTES;
+    }
+
+    // A file that cannot be read is dropped, and counts as a miss
+    private double[][] readFile(String key) {
+        Path file = directory.resolve(key + FILE_SUFFIX);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            int rows = in.readInt();
+            int cols = in.readInt();
+            double[][] matrix = new double[rows][cols];
+            for (double[] row : matrix) {
+                for (int j = 0; j < cols; j++) {
+                    row[j] = in.readDouble();
+                }
+            }
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return matrix;
+        } catch (IOException e) {
+            deleteFile(key);
+            return null;
+        }
+    }
+
+    // Written to a temporary file first, so other processes never see a partial entry
+    private void writeFile(String key, double[][] matrix) {
+        Path file = directory.resolve(key + FILE_SUFFIX);
+        try {
+            Path temp = Files.createTempFile(directory, key, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(matrix.length);
+                out.writeInt(matrix.length == 0 ? 0 : matrix[0].length);
+                for (double[] row : matrix) {
+                    for (double value : row) {
+                        out.writeDouble(value);
+                    }
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            long size = Files.size(file);
+            files.put(key, size);
+            diskBytes += size;
+            evictFiles();
+        } catch (IOException e) {
+            // Persisting is best effort: the entry is still cached in memory
+        }
+    }
+
+    private void evictFiles() {
+        Iterator<String> eldest = new ArrayList<>(files.keySet()).iterator();
+        while (diskBytes > maxBytes && eldest.hasNext()) {
+            deleteFile(eldest.next());
+        }
+    }
+
+    private void deleteFile(String key) {
+        Long size = files.remove(key);
+        if (size != null) {
+            diskBytes -= size;
+        }
+        try {
+            Files.deleteIfExists(directory.resolve(key + FILE_SUFFIX));
+        } catch (IOException e) {
+            // Already gone, or removed by another process
+        }
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package spl.lae;
+
+import parser.ComputationNode;
+
+/**
+ * Results the engine may reuse instead of computing a step, and that it is given as steps are computed.
+ * A store is used for one evaluation of one tree.
+ */
+interface ResultStore {
+
+    /**
+     * Returns the result of the node's subtree, or null if the step has to be computed.
+     * Called before any step runs, while every matrix of the tree is still held.
+     */
+    double[][] lookUp(ComputationNode node);
+
+    /**
+     * Receives the result of a step computed by the engine. The store may keep the array.
+     */
+    void store(ComputationNode node, double[][] result);
+}
@@ -53,6 +53,18 @@ class SharedMatrixTest {
             "The matrix should be isolated from changes to the original input array.");
     }
 
+    /**
+     * Test that the shape constructor creates a row-major matrix of zeros.
+     */
+    @Test
+    void testConstructor_Zeros() {
+        SharedMatrix m = new SharedMatrix(2, 3);
+
+        assertEquals(VectorOrientation.ROW_MAJOR, m.getOrientation());
+        assertArrayEquals(new double[][]{{0, 0, 0}, {0, 0, 0}}, m.readRowMajor());
+        assertThrows(IllegalArgumentException.class, () -> new SharedMatrix(-1, 3));
+    }
+
     /**
      * Test constructor with a very large number of rows.
      */
@@ -301,6 +313,50 @@ class SharedMatrixTest {
         assertEquals(10.0, matrix.get(0).get(0));
     }
 
+    //----------------------------------------------------------------------
+    // transposeView Tests
+    //----------------------------------------------------------------------
+
+    /**
+     * Test that a transpose view reads as the transposed matrix and flips the orientation.
+     */
+    @Test
+    void testTransposeViewReadsTransposed() {
+        SharedMatrix matrix = new SharedMatrix(new double[][]{{1, 2, 3}, {4, 5, 6}});
+        SharedMatrix view = matrix.transposeView();
+
+        assertEquals(VectorOrientation.COLUMN_MAJOR, view.getOrientation());
+        double[][] result = view.readRowMajor();
+        assertEquals(3, result.length, "Transposed matrix must have 3 rows");
+        assertArrayEquals(new double[]{1, 4}, result[0]);
+        assertArrayEquals(new double[]{3, 6}, result[2]);
+    }
+
+    /**
+     * Test that a transpose view shares the vectors of the original matrix instead of copying them.
+     */
+    @Test
+    void testTransposeViewSharesStorage() {
+        SharedMatrix matrix = new SharedMatrix(new double[][]{{1, 2}, {3, 4}});
+        SharedMatrix view = matrix.transposeView();
+
+        assertSame(matrix.get(0), view.get(0), "The view must be backed by the same vectors.");
+        assertEquals(VectorOrientation.ROW_MAJOR, view.transposeView().getOrientation(),
+            "Transposing a view twice must give the original orientation.");
+    }
+
+    /**
+     * Test that loading into a transpose view stores the new matrix in the requested orientation.
+     */
+    @Test
+    void testTransposeViewLoad() {
+        SharedMatrix view = new SharedMatrix(new double[][]{{1, 2}}).transposeView();
+        view.loadRowMajor(new double[][]{{7, 8}, {9, 10}});
+
+        assertEquals(VectorOrientation.ROW_MAJOR, view.getOrientation());
+        assertArrayEquals(new double[]{9, 10}, view.readRowMajor()[1]);
+    }
+
     //----------------------------------------------------------------------
     // readRowMajor Tests
     //----------------------------------------------------------------------
@@ -259,6 +259,112 @@ class SharedVectorTest {
         assertEquals(15.0, v.get(1));
     }
 
+    /**
+     * Test that vecMatMul method computes the product with a row-major matrix without transposing it.
+     */
+    @Test
+    void testVecMatMul_RowMajorMatrix() {
+        // Vector [1, 2] * Matrix [[1, 2, 3], [4, 5, 6]] = [9, 12, 15]
+        SharedVector v = new SharedVector(new double[]{1, 2}, VectorOrientation.ROW_MAJOR);
+        SharedMatrix m = new SharedMatrix(new double[][]{{1, 2, 3}, {4, 5, 6}});
+
+        v.vecMatMul(m);
+
+        assertEquals(3, v.length());
+        assertEquals(9.0, v.get(0));
+        assertEquals(15.0, v.get(2));
+    }
+
+    /**
+     * Test that addVecMatMul method accumulates the product into the existing elements, for both orientations.
+     */
+    @Test
+    void testAddVecMatMul_Accumulates() {
+        // Row [1, 2] * Matrix [[1, 2, 3], [4, 5, 6]] = [9, 12, 15]
+        double[][] data = {{1, 2, 3}, {4, 5, 6}};
+        SharedVector row = new SharedVector(new double[]{1, 2}, VectorOrientation.ROW_MAJOR);
+        SharedMatrix columns = new SharedMatrix();
+        columns.loadColumnMajor(data);
+
+        SharedVector target = new SharedVector(new double[]{100, 100, 100}, VectorOrientation.ROW_MAJOR);
+        target.addVecMatMul(row, new SharedMatrix(data), false);
+        assertEquals(109.0, target.get(0));
+        assertEquals(115.0, target.get(2));
+
+        target.addVecMatMul(row, columns, true);
+        assertEquals(100.0, target.get(0));
+        assertEquals(100.0, target.get(2));
+    }
+
+    /**
+     * Test that the sparse addVecMatMul methods accumulate the same product as the dense one.
+     */
+    @Test
+    void testAddVecMatMul_Sparse() {
+        // Sparse [[0, 2], [0, 0]] and [[1, 0, 3], [0, 4, 0]]: row 0 of the product is [0, 8, 0]
+        SparseMatrix left = new SparseMatrix(2, 2, new int[]{0, 1, 1}, new int[]{1}, new double[]{2});
+        SparseMatrix right = new SparseMatrix(2, 3, new int[]{0, 2, 3}, new int[]{0, 2, 1}, new double[]{1, 3, 4});
+        double[][] denseRight = {{1, 0, 3}, {0, 4, 0}};
+        SharedMatrix columns = new SharedMatrix();
+        columns.loadColumnMajor(denseRight);
+
+        SharedVector target = new SharedVector(new double[3], VectorOrientation.ROW_MAJOR);
+        target.addVecMatMul(left, 0, new SharedMatrix(denseRight));
+        target.addVecMatMul(left, 0, columns);
+        target.addVecMatMul(left, 0, right);
+        target.addVecMatMul(new SharedVector(new double[]{0, 2}, VectorOrientation.ROW_MAJOR), right);
+        assertArrayEquals(new double[]{0, 32, 0}, new double[]{target.get(0), target.get(1), target.get(2)});
+
+        // An empty sparse row adds nothing
+        target.addVecMatMul(left, 1, right);
+        assertEquals(32.0, target.get(1));
+    }
+
+    /**
+     * Test that addVecMatMul method rejects a target whose length is not the product's length.
+     */
+    @Test
+    void testAddVecMatMul_WrongTargetLength() {
+        SharedVector row = new SharedVector(new double[]{1, 2}, VectorOrientation.ROW_MAJOR);
+        SharedMatrix m = new SharedMatrix(new double[][]{{1, 2, 3}, {4, 5, 6}});
+        SharedVector target = new SharedVector(new double[2], VectorOrientation.ROW_MAJOR);
+
+        assertThrows(IllegalArgumentException.class, () -> target.addVecMatMul(row, m, false));
+    }
+
+    /**
+     * Test that copyFrom method reads a row from both row-major and column-major storage.
+     */
+    @Test
+    void testCopyFrom_BothOrientations() {
+        double[][] data = {{1, 2, 3}, {4, 5, 6}};
+        SharedMatrix rows = new SharedMatrix(data);
+        SharedMatrix columns = new SharedMatrix();
+        columns.loadColumnMajor(data);
+
+        SharedVector v = new SharedVector(new double[0], VectorOrientation.ROW_MAJOR);
+        v.copyFrom(rows, 1);
+        assertEquals(5.0, v.get(1));
+
+        v.copyFrom(columns, 1);
+        assertEquals(3, v.length(), "Row gathered from column storage must span all columns.");
+        assertEquals(6.0, v.get(2));
+    }
+
+    /**
+     * Test that subtract method subtracts element-wise.
+     */
+    @Test
+    void testSubtract() {
+        SharedVector v1 = new SharedVector(new double[]{5, 5}, VectorOrientation.ROW_MAJOR);
+        SharedVector v2 = new SharedVector(new double[]{1, 7}, VectorOrientation.ROW_MAJOR);
+
+        v1.subtract(v2);
+
+        assertEquals(4.0, v1.get(0));
+        assertEquals(-2.0, v1.get(1));
+    }
+
     // =================================================================
     // 6. Councurrency TESTS
     // =================================================================
@@ -447,4 +553,44 @@ class SharedVectorTest {
         assertEquals(4.0, resultA[0], "Dot result should use post-addition values");
     }
 
-}
\ No newline at end of file
+    // =================================================================
+    // 7. FLOAT TESTS
+    // =================================================================
+
+    /**
+     * Test that the element-wise kernels of float vectors compute in float and keep the precision.
+     */
+    @Test
+    void testFloat_AddAndNegate() {
+        SharedVector v1 = SharedVector.ofFloats(new float[]{0.1f, 2f}, VectorOrientation.ROW_MAJOR);
+        SharedVector v2 = SharedVector.ofFloats(new float[]{0.2f, -5f}, VectorOrientation.ROW_MAJOR);
+
+        v1.add(v2);
+        v1.negate();
+
+        assertEquals(Precision.FLOAT, v1.getPrecision());
+        assertEquals(-(0.1f + 0.2f), v1.get(0));
+        assertEquals(3.0, v1.get(1));
+    }
+
+    /**
+     * Test that a float product accumulated in double keeps what float accumulation loses,
+     * and is rounded to float once.
+     */
+    @Test
+    void testFloat_AddVecMatMulAccumulation() {
+        // 1e8 + 1 is 1e8 in float, so the float sum loses the 1
+        SharedMatrix m = SharedMatrix.ofFloatRows(new float[][]{{1e8f}, {1f}, {-1e8f}});
+
+        SharedVector inFloat = SharedVector.ofFloats(new float[1], VectorOrientation.ROW_MAJOR);
+        inFloat.addVecMatMul(SharedVector.ofFloats(new float[]{1, 1, 1}, VectorOrientation.ROW_MAJOR), m, false,
+                Precision.FLOAT);
+        SharedVector inDouble = SharedVector.ofFloats(new float[1], VectorOrientation.ROW_MAJOR);
+        inDouble.addVecMatMul(SharedVector.ofFloats(new float[]{1, 1, 1}, VectorOrientation.ROW_MAJOR), m, false,
+                Precision.DOUBLE);
+
+        assertEquals(0.0, inFloat.get(0));
+        assertEquals(1.0, inDouble.get(0));
+        assertEquals(Precision.FLOAT, inDouble.getPrecision());
+    }
+}
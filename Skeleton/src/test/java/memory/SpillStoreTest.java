@@ -0,0 +1,99 @@
+package memory;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpillStoreTest {
+
+    //----------------------------------------------------------------------
+    // Round Trip Tests
+    //----------------------------------------------------------------------
+
+    /**
+     * Test that a row-major matrix is reloaded with the same values and orientation,
+     * and that its file is deleted once reloaded.
+     */
+    @Test
+    void testRoundTrip_RowMajor() throws Exception {
+        double[][] data = {{1.5, -2.0, 3.0}, {4.0, 5.25, -6.0}};
+        try (SpillStore store = new SpillStore()) {
+            Path file = store.spill(new SharedMatrix(data));
+            assertTrue(Files.exists(file), "The matrix should be on disk after a spill.");
+
+            SharedMatrix reloaded = store.reload(file);
+
+            assertEquals(VectorOrientation.ROW_MAJOR, reloaded.getOrientation());
+            assertArrayEquals(data, reloaded.readRowMajor());
+            assertFalse(Files.exists(file), "The file should be deleted after a reload.");
+            assertEquals(1, store.getSpillCount());
+        }
+    }
+
+    /**
+     * Test that a transposed view is reloaded as the same logical matrix.
+     */
+    @Test
+    void testRoundTrip_TransposeView() throws Exception {
+        SharedMatrix view = new SharedMatrix(new double[][]{{1, 2, 3}, {4, 5, 6}}).transposeView();
+        try (SpillStore store = new SpillStore()) {
+            SharedMatrix reloaded = store.reload(store.spill(view));
+
+            assertEquals(VectorOrientation.COLUMN_MAJOR, reloaded.getOrientation());
+            assertArrayEquals(view.readRowMajor(), reloaded.readRowMajor());
+        }
+    }
+
+    /**
+     * Test that a parsed array larger than the I/O buffer survives the round trip.
+     */
+    @Test
+    void testRoundTrip_LargeArray() throws Exception {
+        double[][] data = new double[300][100];
+        for (int i = 0; i < data.length; i++) {
+            for (int j = 0; j < data[i].length; j++) {
+                data[i][j] = i * 1000.0 + j / 7.0;
+            }
+        }
+        try (SpillStore store = new SpillStore()) {
+            SharedMatrix reloaded = store.reload(store.spill(data));
+
+            assertArrayEquals(data, reloaded.readRowMajor());
+        }
+    }
+
+    /**
+     * Test that a float matrix is written as floats and reloaded as a float matrix.
+     */
+    @Test
+    void testRoundTrip_Floats() throws Exception {
+        SharedMatrix floats = SharedMatrix.ofFloatRows(new float[][]{{0.1f, -2.5f}, {3e-20f, 7f}});
+        try (SpillStore store = new SpillStore()) {
+            SharedMatrix reloaded = store.reload(store.spill(floats));
+
+            assertEquals(Precision.FLOAT, reloaded.getPrecision());
+            assertArrayEquals(floats.readRowMajor(), reloaded.readRowMajor());
+        }
+    }
+
+    //----------------------------------------------------------------------
+    // Cleanup Tests
+    //----------------------------------------------------------------------
+
+    /**
+     * Test that closing the store deletes files that were never reloaded.
+     */
+    @Test
+    void testClose_DeletesFiles() throws Exception {
+        SpillStore store = new SpillStore();
+        Path file = store.spill(new double[][]{{1, 2}});
+
+        store.close();
+
+        assertFalse(Files.exists(file), "Files left in the store should be deleted on close.");
+        assertFalse(Files.exists(file.getParent()), "The store's directory should be deleted on close.");
+    }
+}
@@ -0,0 +1,126 @@
+package parser;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryMatrixFileTest {
+
+    @TempDir
+    Path tempDir;
+
+    // ----------------------------------------------------------------------
+    // Read and Write Tests
+    // ----------------------------------------------------------------------
+
+    /**
+     * Test that a matrix written by the output writer to a .bin path reads back exactly.
+     */
+    @Test
+    void testRoundTrip() throws IOException {
+        double[][] matrix = {{1.5, -2, Double.MIN_VALUE}, {0.1, 1e300, -0.0}};
+        Path path = tempDir.resolve("m.bin");
+
+        OutputWriter.write(matrix, path.toString());
+
+        assertEquals(BinaryMatrixFile.HEADER_BYTES + 6 * Double.BYTES, Files.size(path));
+        assertArrayEquals(matrix, BinaryMatrixFile.read(path));
+    }
+
+    /**
+     * Test that float32 elements are read into doubles.
+     */
+    @Test
+    void testFloat32Elements() throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(BinaryMatrixFile.HEADER_BYTES + 2 * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.put(new byte[]{'L', 'A', 'E', 'M'}).putInt(2).putInt(1).putInt(BinaryMatrixFile.FLOAT32);
+        bytes.putFloat(0.5f).putFloat(-3f);
+        Path path = tempDir.resolve("f.bin");
+        Files.write(path, bytes.array());
+
+        assertArrayEquals(new double[][]{{0.5}, {-3}}, BinaryMatrixFile.read(path));
+    }
+
+    /**
+     * Test that a file with a wrong magic or a size that does not match its header is rejected.
+     */
+    @Test
+    void testInvalidFiles() throws IOException {
+        Path path = tempDir.resolve("bad.bin");
+        Files.writeString(path, "[[1, 2]] is not binary");
+        assertThrows(IOException.class, () -> BinaryMatrixFile.read(path));
+
+        BinaryMatrixFile.write(new double[][]{{1, 2}}, path);
+        byte[] truncated = Files.readAllBytes(path);
+        Files.write(path, java.util.Arrays.copyOf(truncated, truncated.length - 1));
+        assertThrows(IOException.class, () -> BinaryMatrixFile.read(path));
+    }
+
+    /**
+     * Test that a file mapped in windows smaller than a row, with rows spanning window boundaries,
+     * reads back exactly in either element type.
+     */
+    @Test
+    void testWindowedRead() throws IOException {
+        double[][] matrix = new double[7][5];
+        for (int i = 0; i < 7; i++) {
+            for (int j = 0; j < 5; j++) {
+                matrix[i][j] = i * 5 + j + 0.5;
+            }
+        }
+        Path path = tempDir.resolve("w.bin");
+        for (int type : new int[]{BinaryMatrixFile.FLOAT64, BinaryMatrixFile.FLOAT32}) {
+            BinaryMatrixFile.write(matrix, path, type);
+            for (long window : new long[]{1, 12, 20, 24, 5 * Double.BYTES, 35 * Double.BYTES}) {
+                assertArrayEquals(matrix, BinaryMatrixFile.read(path, window));
+            }
+        }
+    }
+
+    /**
+     * Test that a file read in float gives the stored float32 values exactly and rounds float64 values,
+     * with rows spanning window boundaries.
+     */
+    @Test
+    void testReadFloats() throws IOException {
+        double[][] matrix = {{0.1, 1e-3, 3}, {-7.25, 1e10, 0}};
+        float[][] expected = {{0.1f, 1e-3f, 3f}, {-7.25f, 1e10f, 0f}};
+        Path path = tempDir.resolve("f.bin");
+        for (int type : new int[]{BinaryMatrixFile.FLOAT32, BinaryMatrixFile.FLOAT64}) {
+            BinaryMatrixFile.write(matrix, path, type);
+            assertArrayEquals(expected, BinaryMatrixFile.readFloats(path));
+            for (long window : new long[]{1, 8, 20}) {
+                assertArrayEquals(expected, BinaryMatrixFile.readFloats(path, window));
+            }
+        }
+    }
+
+    // ----------------------------------------------------------------------
+    // Conversion Tests
+    // ----------------------------------------------------------------------
+
+    /**
+     * Test that a JSON result file converts to binary and back to the same matrix.
+     */
+    @Test
+    void testConvert() throws IOException {
+        Path json = tempDir.resolve("result.json");
+        Path bin = tempDir.resolve("result.bin");
+        Path back = tempDir.resolve("back.json");
+        OutputWriter.write(new double[][]{{1, 2}, {3, 4}}, json.toString());
+
+        BinaryMatrixFile.convert(json, bin);
+        BinaryMatrixFile.convert(bin, back);
+
+        assertArrayEquals(new double[][]{{1, 2}, {3, 4}}, BinaryMatrixFile.read(bin));
+        assertEquals(new ObjectMapper().readTree(json.toFile()), new ObjectMapper().readTree(back.toFile()));
+    }
+}
@@ -0,0 +1,70 @@
+package parser;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DoubleFormatterTest {
+
+    private static String format(double value) {
+        byte[] out = new byte[DoubleFormatter.MAX_LENGTH];
+        int length = DoubleFormatter.format(value, out, 0);
+        return new String(out, 0, length, StandardCharsets.US_ASCII);
+    }
+
+    // ----------------------------------------------------------------------
+    // Format Tests
+    // ----------------------------------------------------------------------
+
+    /**
+     * Test that special values, powers of two, integers and the ends of the plain notation
+     * are written exactly as Double.toString writes them.
+     */
+    @Test
+    void testSpecialValues() {
+        double[] samples = {0.0, -0.0, 1.0, -1.0, 0.1, 0.3, 100, 1e7, 9999999.0, 1e-3, 9.999999999999999E-4,
+                1e22, 1e23, 123.456, 9007199254740993.0, Double.MIN_VALUE, 2 * Double.MIN_VALUE, 3 * Double.MIN_VALUE,
+                Double.MIN_NORMAL, Double.MAX_VALUE, -2.2250738585072014E-308, Math.pow(2, -1022), Math.pow(2, 70),
+                Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (double sample : samples) {
+            assertEquals(Double.toString(sample), format(sample));
+        }
+    }
+
+    /**
+     * Test that random doubles of every magnitude give the shortest decimal, as Double.toString does.
+     */
+    @Test
+    void testMatchesToString() {
+        Random random = new Random(47);
+        for (int i = 0; i < 200_000; i++) {
+            double value;
+            switch (i % 4) {
+                case 0: value = Double.longBitsToDouble(random.nextLong()); break;
+                case 1: value = random.nextInt(2_000_001) - 1_000_000; break;
+                case 2: value = random.nextDouble() * Math.pow(10, random.nextInt(40) - 20); break;
+                default: value = Double.longBitsToDouble(random.nextLong() >>> 12); // subnormal
+            }
+            assertEquals(Double.toString(value), format(value));
+        }
+    }
+
+    /**
+     * Test that floats, special and random, are written as Float.toString writes them.
+     */
+    @Test
+    void testFloatsMatchToString() {
+        float[] samples = {0f, -0f, 1f, 0.1f, 0.3f, 1e7f, 9999999f, 1e-3f, 16777217f, Float.MIN_VALUE, Float.MIN_NORMAL,
+                Float.MAX_VALUE, Float.NaN, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY};
+        Random random = new Random(50);
+        byte[] out = new byte[DoubleFormatter.MAX_LENGTH];
+        for (int i = 0; i < samples.length + 200_000; i++) {
+            float value = i < samples.length ? samples[i] : Float.intBitsToFloat(random.nextInt());
+            int length = DoubleFormatter.format(value, out, 0);
+            assertEquals(Float.toString(value), new String(out, 0, length, StandardCharsets.US_ASCII));
+        }
+    }
+}
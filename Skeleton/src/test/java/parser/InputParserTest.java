@@ -0,0 +1,318 @@
+package parser;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import memory.Precision;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InputParserTest {
+
+    @TempDir
+    Path tempDir;
+
+    private ComputationNode parse(String json) throws IOException, ParseException {
+        Path inputPath = tempDir.resolve("input.json");
+        Files.writeString(inputPath, json);
+        return new InputParser().parse(inputPath.toString());
+    }
+
+    // ----------------------------------------------------------------------
+    // Common-Subexpression Elimination Tests
+    // ----------------------------------------------------------------------
+
+    /**
+     * Test that identical matrix literals are parsed into one shared leaf node.
+     */
+    @Test
+    void testIdenticalLeavesShared() throws Exception {
+        ComputationNode root = parse("{\"operator\": \"+\", \"operands\": [ [[1, 2]], [[1, 2]], [[1, 3]] ]}");
+
+        assertSame(root.getChildren().get(0), root.getChildren().get(1),
+            "Identical literals should become the same node.");
+        assertNotSame(root.getChildren().get(0), root.getChildren().get(2),
+            "Different literals must stay separate nodes.");
+    }
+
+    /**
+     * Test that identical operation subtrees are parsed into one shared DAG node.
+     */
+    @Test
+    void testIdenticalSubtreesShared() throws Exception {
+        String product = "{\"operator\": \"*\", \"operands\": [ [[1, 2]], [[3], [4]] ]}";
+        ComputationNode root = parse("{\"operator\": \"+\", \"operands\": [" + product + ", " + product + "]}");
+
+        assertSame(root.getChildren().get(0), root.getChildren().get(1),
+            "Identical subtrees should become the same node.");
+    }
+
+    /**
+     * Test that subtrees with the same operands but a different operator are not merged.
+     */
+    @Test
+    void testDifferentOperatorsNotShared() throws Exception {
+        ComputationNode root = parse("{\"operator\": \"+\", \"operands\": [" +
+            "{\"operator\": \"-\", \"operands\": [ [[1]] ]}," +
+            "{\"operator\": \"T\", \"operands\": [ [[1]] ]}" +
+            "]}");
+
+        assertNotSame(root.getChildren().get(0), root.getChildren().get(1));
+        assertSame(root.getChildren().get(0).getChildren().get(0), root.getChildren().get(1).getChildren().get(0),
+            "The shared literal below both operators should still be deduplicated.");
+    }
+
+    // ----------------------------------------------------------------------
+    // Placeholder Tests
+    // ----------------------------------------------------------------------
+
+    /**
+     * Test that placeholders are parsed with their shape, and that repeated names share one node.
+     */
+    @Test
+    void testPlaceholders() throws Exception {
+        ComputationNode root = parse("{\"operator\": \"+\", \"operands\": [" +
+            "{\"placeholder\": \"A\", \"shape\": [2, 3]}," +
+            "{\"placeholder\": \"A\", \"shape\": [2, 3]}," +
+            "{\"placeholder\": \"B\", \"shape\": [2, 3]}" +
+            "]}");
+
+        ComputationNode a = root.getChildren().get(0);
+        assertEquals("A", a.getPlaceholderName());
+        assertArrayEquals(new int[]{2, 3}, a.getShape());
+        assertSame(a, root.getChildren().get(1));
+        assertNotSame(a, root.getChildren().get(2), "Placeholders with different names must stay separate.");
+    }
+
+    /**
+     * Test that a placeholder without a valid shape, or with conflicting shapes, is rejected.
+     */
+    @Test
+    void testInvalidPlaceholders() {
+        assertThrows(ParseException.class, () -> parse("{\"placeholder\": \"A\"}"));
+        assertThrows(ParseException.class, () -> parse("{\"placeholder\": \"A\", \"shape\": [0, 2]}"));
+        assertThrows(ParseException.class, () -> parse("{\"operator\": \"+\", \"operands\": [" +
+            "{\"placeholder\": \"A\", \"shape\": [1, 2]}, {\"placeholder\": \"A\", \"shape\": [2, 1]} ]}"));
+    }
+
+    // ----------------------------------------------------------------------
+    // Streaming Parse Tests
+    // ----------------------------------------------------------------------
+
+    /**
+     * Test that rows wider than the initial row buffer are read in full, and that the fields
+     * of an operation may come in any order.
+     */
+    @Test
+    void testWideRowsAndFieldOrder() throws Exception {
+        StringBuilder row = new StringBuilder("[");
+        for (int j = 0; j < 100; j++) {
+            row.append(j == 0 ? "" : ", ").append(j).append(".5");
+        }
+        row.append("]");
+        ComputationNode root = parse("{\"operands\": [ [" + row + ", " + row + "] ], \"operator\": \"-\"}");
+
+        assertEquals(ComputationNodeType.NEGATE, root.getNodeType());
+        double[][] matrix = root.getChildren().get(0).getMatrix();
+        assertEquals(2, matrix.length);
+        assertEquals(100, matrix[1].length);
+        assertEquals(99.5, matrix[1][99]);
+    }
+
+    /**
+     * Test that rows shorter or longer than the first one, vectors and empty arrays are rejected as they are read.
+     */
+    @Test
+    void testInvalidMatrices() {
+        assertThrows(ParseException.class, () -> parse("[[1, 2], [3]]"));
+        assertThrows(ParseException.class, () -> parse("[[1, 2], [3, 4, 5]]"));
+        assertThrows(ParseException.class, () -> parse("[[1, 2], 3]"));
+        assertThrows(ParseException.class, () -> parse("[1, 2]"));
+        assertThrows(ParseException.class, () -> parse("[]"));
+        assertThrows(ParseException.class, () -> parse("{\"operator\": \"+\"}"));
+        assertThrows(ParseException.class, () -> parse("{\"operator\": \"+\", \"operands\": [[[1]], [[1, 2]"));
+    }
+
+    /**
+     * Test that an expression already read as JSON is parsed like the same expression read from a file.
+     */
+    @Test
+    void testParseJsonTree() throws Exception {
+        String json = "{\"operator\": \"*\", \"operands\": [ [[1, 2]], [[3], [4]] ]}";
+        ComputationNode fromTree = new InputParser().parse(new ObjectMapper().readTree(json));
+        ComputationNode fromFile = parse(json);
+
+        assertEquals(fromFile.getNodeType(), fromTree.getNodeType());
+        assertArrayEquals(fromFile.getChildren().get(1).getMatrix(), fromTree.getChildren().get(1).getMatrix());
+    }
+
+    /**
+     * Test that a {"file": ...} operand is read from a binary matrix file next to the input,
+     * and that a missing file is reported as a parse error.
+     */
+    @Test
+    void testMatrixFileOperand() throws Exception {
+        BinaryMatrixFile.write(new double[][]{{1, 2}, {3, 4}}, tempDir.resolve("a.bin"));
+
+        ComputationNode root = parse("{\"operator\": \"+\", \"operands\": [{\"file\": \"a.bin\"}, [[1, 2], [3, 4]]]}");
+
+        assertSame(root.getChildren().get(0), root.getChildren().get(1),
+            "A file operand equal to a literal should be deduplicated with it.");
+        assertArrayEquals(new double[]{3, 4}, root.getChildren().get(0).getMatrix()[1]);
+        assertThrows(ParseException.class, () -> parse("{\"operator\": \"-\", \"operands\": [{\"file\": \"missing.bin\"}]}"));
+    }
+
+    /**
+     * Test that the rows read from a binary matrix file become the leaf's engine storage, so the
+     * engine takes them over instead of copying them again, in either precision.
+     */
+    @Test
+    void testMatrixFileOperandIsStored() throws Exception {
+        BinaryMatrixFile.write(new double[][]{{1, 2}, {3, 4}}, tempDir.resolve("a.bin"));
+        InputParser floatParser = new InputParser();
+        floatParser.setPrecision(Precision.FLOAT);
+
+        for (InputParser parser : List.of(new InputParser(), floatParser)) {
+            Path inputPath = tempDir.resolve("input.json");
+            Files.writeString(inputPath, "{\"operator\": \"-\", \"operands\": [{\"file\": \"a.bin\"}]}");
+            ComputationNode leaf = parser.parse(inputPath.toString()).getChildren().get(0);
+
+            assertNotNull(leaf.getResult(), "A binary file operand should be stored as the engine's matrix.");
+            assertArrayEquals(new double[]{3, 4}, leaf.getMatrix()[1]);
+        }
+    }
+
+    /**
+     * Test that a gzip-compressed input is parsed as the plain one, with its matrix file references
+     * relative to its directory.
+     */
+    @Test
+    void testGzipInput() throws Exception {
+        BinaryMatrixFile.write(new double[][]{{5, 6}}, tempDir.resolve("B.bin"));
+        String json = "{\"operator\": \"+\", \"operands\": [ [[1, 2]], {\"file\": \"B.bin\"} ]}";
+        Path inputPath = tempDir.resolve("input.json.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(inputPath))) {
+            out.write(json.getBytes(StandardCharsets.UTF_8));
+        }
+
+        ComputationNode root = new InputParser().parse(inputPath.toString());
+
+        assertArrayEquals(new double[][]{{1, 2}}, root.getChildren().get(0).getMatrix());
+        assertArrayEquals(new double[][]{{5, 6}}, root.getChildren().get(1).getMatrix());
+        assertThrows(ParseException.class, () -> new InputParser().parse(tempDir.resolve("B.bin").toString() + ".gz"));
+    }
+
+    // ----------------------------------------------------------------------
+    // Completed Operand Tests
+    // ----------------------------------------------------------------------
+
+    /**
+     * Test that the operation operands of the root are handed over in input order, each one complete,
+     * and that identical subtrees of different operands are one node, as anywhere else in the tree.
+     */
+    @Test
+    void testCompletedOperands() throws Exception {
+        String product = "{\"operator\": \"*\", \"operands\": [ [[1, 2]], [[3], [4]] ]}";
+        Path inputPath = tempDir.resolve("input.json");
+        Files.writeString(inputPath, "{\"operator\": \"+\", \"operands\": [" + product + ", [[1, 2]], "
+                + "{\"operator\": \"-\", \"operands\": [" + product + "]}]}");
+
+        List<ComputationNode> completed = new ArrayList<>();
+        ComputationNode root = new InputParser().parse(inputPath.toString(), operand -> {
+            assertNotNull(operand.getChildren(), "An operand should be complete when handed over.");
+            completed.add(operand);
+        });
+
+        assertEquals(2, completed.size(), "Only operation operands should be handed over.");
+        assertSame(root.getChildren().get(0), completed.get(0));
+        assertSame(root.getChildren().get(2), completed.get(1));
+        ComputationNode nested = completed.get(1).getChildren().get(0);
+        assertSame(completed.get(0), nested, "Operands should share identical subtrees.");
+        assertSame(completed.get(0).getChildren().get(0), root.getChildren().get(1));
+    }
+
+    // ----------------------------------------------------------------------
+    // Parallel Parse Tests
+    // ----------------------------------------------------------------------
+
+    // A matrix literal of random numbers in various notations
+    private static String literal(int rows, int cols, Random random) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < rows; i++) {
+            json.append(i == 0 ? "[" : ",\n  [");
+            for (int j = 0; j < cols; j++) {
+                json.append(j == 0 ? "" : ", ");
+                switch (random.nextInt(4)) {
+                    case 0: json.append(random.nextInt(2001) - 1000); break;
+                    case 1: json.append(random.nextDouble() * 1e6 - 5e5); break;
+                    case 2: json.append(random.nextInt(1000)).append('.').append(random.nextInt(1000)).append("e-7"); break;
+                    default: json.append(-random.nextDouble() * 1e-300);
+                }
+            }
+            json.append("]");
+        }
+        return json.append("]").toString();
+    }
+
+    /**
+     * Test that a large input, whose literals are parsed in pieces on several threads, gives the same tree
+     * as the token-by-token parse, with repeated literals shared and a literal with string elements
+     * left to the JSON parser.
+     */
+    @Test
+    void testLargeInputParsedInParallel() throws Exception {
+        Random random = new Random(45);
+        String a = literal(300, 200, random);
+        String b = literal(200, 150, random);
+        String json = "{\"operator\": \"+\", \"operands\": [\n"
+                + "{\"operator\": \"*\", \"operands\": [" + a + ", " + b + "]},\n"
+                + "{\"operator\": \"*\", \"operands\": [" + a + ", [[\"1.5\", 2]" + ", [3, 4]]]},\n"
+                + "{\"operator\": \"*\", \"operands\": [" + a + ", " + b + "]}]}";
+        Path inputPath = tempDir.resolve("large.json");
+        Files.writeString(inputPath, json);
+        assertTrue(Files.size(inputPath) >= InputParser.PARALLEL_PARSE_MIN_BYTES);
+
+        ExecutorService workers = Executors.newFixedThreadPool(4);
+        ComputationNode parallel;
+        try {
+            parallel = new InputParser(workers).parse(inputPath.toString());
+        } finally {
+            workers.shutdown();
+        }
+        ComputationNode streamed = new InputParser().parse(new ObjectMapper().readTree(json));
+
+        assertSame(parallel.getChildren().get(0), parallel.getChildren().get(2), "Repeated subtrees should be shared.");
+        ComputationNode first = parallel.getChildren().get(0);
+        assertSame(first.getChildren().get(0), parallel.getChildren().get(1).getChildren().get(0));
+        assertArrayEquals(streamed.getChildren().get(0).getChildren().get(0).getMatrix(), first.getChildren().get(0).getMatrix());
+        assertArrayEquals(streamed.getChildren().get(0).getChildren().get(1).getMatrix(), first.getChildren().get(1).getMatrix());
+        assertArrayEquals(new double[][]{{1.5, 2}, {3, 4}}, parallel.getChildren().get(1).getChildren().get(1).getMatrix());
+    }
+
+    /**
+     * Test that an invalid row in a large input is reported as a parse error.
+     */
+    @Test
+    void testLargeInputInvalidRow() throws Exception {
+        String a = literal(500, 300, new Random(46));
+        Path inputPath = tempDir.resolve("large.json");
+        Files.writeString(inputPath, "{\"operator\": \"-\", \"operands\": [" + a.substring(0, a.length() - 1) + ", [1]]]}");
+        assertTrue(Files.size(inputPath) >= InputParser.PARALLEL_PARSE_MIN_BYTES);
+
+        ParseException e = assertThrows(ParseException.class, () -> new InputParser().parse(inputPath.toString()));
+        assertTrue(e.getMessage().contains("Inconsistent row sizes"), e.getMessage());
+    }
+}
@@ -0,0 +1,140 @@
+package parser;
+
+import memory.SparseMatrix;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import spl.lae.ExecutionPlan;
+import spl.lae.LinearAlgebraEngine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MatrixMarketFileTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path mtx(String name, String content) throws IOException {
+        Path path = tempDir.resolve(name);
+        Files.writeString(path, content);
+        return path;
+    }
+
+    // ----------------------------------------------------------------------
+    // Read Tests
+    // ----------------------------------------------------------------------
+
+    /**
+     * Test that a general real file is read with its comments and blank lines skipped.
+     */
+    @Test
+    void testGeneral() throws IOException {
+        Path path = mtx("g.mtx", "%%MatrixMarket matrix coordinate real general\n"
+                + "% a comment\n\n"
+                + "2 3 3\n"
+                + "1 1 1.5\n"
+                + "2 3 -2e1\n"
+                + "% another comment\n"
+                + "1 2 4\n");
+
+        SparseMatrix matrix = MatrixMarketFile.read(path);
+
+        assertEquals(3, matrix.nonZeros());
+        assertArrayEquals(new double[][]{{1.5, 4, 0}, {0, 0, -20}}, matrix.readRowMajor());
+    }
+
+    /**
+     * Test that symmetric, skew-symmetric and pattern files are expanded into every stored element.
+     */
+    @Test
+    void testSymmetryAndPattern() throws IOException {
+        Path symmetric = mtx("s.mtx", "%%MatrixMarket matrix coordinate integer symmetric\n2 2 2\n1 1 3\n2 1 5\n");
+        assertArrayEquals(new double[][]{{3, 5}, {5, 0}}, MatrixMarketFile.read(symmetric).readRowMajor());
+
+        Path skew = mtx("k.mtx", "%%MatrixMarket matrix coordinate real skew-symmetric\n2 2 1\n2 1 5\n");
+        assertArrayEquals(new double[][]{{0, -5}, {5, 0}}, MatrixMarketFile.read(skew).readRowMajor());
+
+        Path pattern = mtx("p.mtx", "%%MatrixMarket matrix coordinate pattern general\r\n2 2 2\r\n1 2\r\n2 1\r\n");
+        assertArrayEquals(new double[][]{{0, 1}, {1, 0}}, MatrixMarketFile.read(pattern).readRowMajor());
+    }
+
+    /**
+     * Test that files with a wrong banner, a dense layout, a wrong entry count or an entry outside the matrix are rejected.
+     */
+    @Test
+    void testInvalidFiles() throws IOException {
+        Path text = mtx("t.mtx", "[[1, 2]]");
+        assertThrows(IOException.class, () -> MatrixMarketFile.read(text));
+
+        Path array = mtx("a.mtx", "%%MatrixMarket matrix array real general\n1 1\n2\n");
+        assertThrows(IOException.class, () -> MatrixMarketFile.read(array));
+
+        Path count = mtx("c.mtx", "%%MatrixMarket matrix coordinate real general\n2 2 2\n1 1 1\n");
+        assertThrows(IOException.class, () -> MatrixMarketFile.read(count));
+
+        Path outside = mtx("o.mtx", "%%MatrixMarket matrix coordinate real general\n2 2 1\n3 1 1\n");
+        assertThrows(IOException.class, () -> MatrixMarketFile.read(outside));
+    }
+
+    /**
+     * Test that a file large enough to be parsed in several chunks gives every entry exactly once.
+     */
+    @Test
+    void testChunkedParse() throws IOException {
+        int size = 400;
+        int entries = 200_000;
+        Random random = new Random(44);
+        double[][] expected = new double[size][size];
+        StringBuilder content = new StringBuilder("%%MatrixMarket matrix coordinate real general\n")
+                .append(size).append(' ').append(size).append(' ').append(entries).append('\n');
+        for (int e = 0; e < entries; e++) {
+            int i = random.nextInt(size);
+            int j = random.nextInt(size);
+            double value = random.nextInt(2000) / 8.0 - 125;
+            expected[i][j] += value;
+            content.append(i + 1).append(' ').append(j + 1).append(' ').append(value).append('\n');
+        }
+        Path path = mtx("big.mtx", content.toString());
+        assertTrue(Files.size(path) > 2 << 20, "The file should span several chunks.");
+
+        SparseMatrix matrix = MatrixMarketFile.read(path);
+
+        assertEquals(entries, matrix.nonZeros());
+        assertArrayEquals(expected, matrix.readRowMajor());
+    }
+
+    // ----------------------------------------------------------------------
+    // Operand Tests
+    // ----------------------------------------------------------------------
+
+    /**
+     * Test that sparse operands multiply with dense and sparse operands, also inside a larger expression,
+     * as the same matrices given inline do.
+     */
+    @Test
+    void testSparseOperands() throws Exception {
+        mtx("s.mtx", "%%MatrixMarket matrix coordinate real general\n2 2 2\n1 2 2\n2 1 3\n");
+        Path input = mtx("input.json", "{\"operator\": \"+\", \"operands\": ["
+                + "{\"operator\": \"*\", \"operands\": [{\"file\": \"s.mtx\"}, [[1, 2], [3, 4]]]},"
+                + "{\"operator\": \"*\", \"operands\": [[[1, 2], [3, 4]], {\"file\": \"s.mtx\"}]},"
+                + "{\"operator\": \"*\", \"operands\": [{\"file\": \"s.mtx\"}, {\"file\": \"s.mtx\"}]},"
+                + "{\"file\": \"s.mtx\"}]}");
+
+        ComputationNode root = new InputParser().parse(input.toString());
+        assertNotNull(root.getChildren().get(0).getChildren().get(0).getSparse());
+        root.associativeNesting();
+
+        LinearAlgebraEngine engine = new LinearAlgebraEngine(2);
+        try {
+            // S*A = [[6, 8], [3, 6]], A*S = [[6, 2], [12, 6]], S*S = [[6, 0], [0, 6]], S = [[0, 2], [3, 0]]
+            double[][] result = engine.evaluate(root, new ExecutionPlan(root, 2)).getMatrix();
+            assertArrayEquals(new double[][]{{18, 12}, {18, 18}}, result);
+        } finally {
+            engine.shutdown();
+        }
+    }
+}
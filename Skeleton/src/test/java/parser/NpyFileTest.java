@@ -0,0 +1,172 @@
+package parser;
+
+import memory.VectorOrientation;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import spl.lae.LinearAlgebraEngine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NpyFileTest {
+
+    @TempDir
+    Path tempDir;
+
+    // A version 1.0 file with the given header dictionary, padded as NumPy does, followed by the data
+    private Path npy(String name, String dictionary, ByteBuffer data) throws IOException {
+        StringBuilder header = new StringBuilder(dictionary);
+        while ((10 + header.length() + 1) % 64 != 0) {
+            header.append(' ');
+        }
+        header.append('\n');
+        ByteBuffer bytes = ByteBuffer.allocate(10 + header.length() + data.capacity()).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.put((byte) 0x93).put("NUMPY".getBytes(StandardCharsets.US_ASCII)).put((byte) 1).put((byte) 0);
+        bytes.putShort((short) header.length()).put(header.toString().getBytes(StandardCharsets.US_ASCII));
+        bytes.put(data.array());
+        Path path = tempDir.resolve(name);
+        Files.write(path, bytes.array());
+        return path;
+    }
+
+    // ----------------------------------------------------------------------
+    // Read and Write Tests
+    // ----------------------------------------------------------------------
+
+    /**
+     * Test that a matrix written by the output writer to a .npy path has an aligned header and reads back exactly.
+     */
+    @Test
+    void testRoundTrip() throws IOException {
+        double[][] matrix = {{1.5, -2, Double.MIN_VALUE}, {0.1, 1e300, -0.0}};
+        Path path = tempDir.resolve("m.npy");
+
+        OutputWriter.write(matrix, path.toString());
+
+        assertEquals(128 + 6 * Double.BYTES, Files.size(path), "The data should start on a 64-byte boundary.");
+        String header = new String(Files.readAllBytes(path), 10, 118, StandardCharsets.US_ASCII);
+        assertTrue(header.endsWith(" \n"), "The header should be padded with spaces up to a newline.");
+        assertTrue(header.startsWith("{'descr': '<f8', 'fortran_order': False, 'shape': (2, 3), }"), header);
+        assertArrayEquals(matrix, NpyFile.read(path).getMatrix());
+    }
+
+    /**
+     * Test that a Fortran-order array is read as a column-major matrix with the right elements.
+     */
+    @Test
+    void testFortranOrder() throws IOException {
+        // [[1, 2, 3], [4, 5, 6]] stored column after column
+        ByteBuffer data = ByteBuffer.allocate(6 * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (double value : new double[]{1, 4, 2, 5, 3, 6}) {
+            data.putDouble(value);
+        }
+        Path path = npy("f.npy", "{'descr': '<f8', 'fortran_order': True, 'shape': (2, 3), }", data);
+
+        ComputationNode leaf = NpyFile.read(path);
+
+        assertNotNull(leaf.getResult());
+        assertEquals(VectorOrientation.COLUMN_MAJOR, leaf.getResult().getOrientation());
+        assertArrayEquals(new double[][]{{1, 2, 3}, {4, 5, 6}}, leaf.getMatrix());
+    }
+
+    /**
+     * Test that big-endian and float32 arrays are read into doubles.
+     */
+    @Test
+    void testOtherElementTypes() throws IOException {
+        ByteBuffer doubles = ByteBuffer.allocate(2 * Double.BYTES).order(ByteOrder.BIG_ENDIAN);
+        doubles.putDouble(0.25).putDouble(-8);
+        Path big = npy("big.npy", "{'descr': '>f8', 'fortran_order': False, 'shape': (1, 2), }", doubles);
+        assertArrayEquals(new double[][]{{0.25, -8}}, NpyFile.read(big).getMatrix());
+
+        ByteBuffer floats = ByteBuffer.allocate(2 * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        floats.putFloat(0.5f).putFloat(-3f);
+        Path single = npy("single.npy", "{'descr': '<f4', 'fortran_order': False, 'shape': (2, 1), }", floats);
+        assertArrayEquals(new double[][]{{0.5}, {-3}}, NpyFile.read(single).getMatrix());
+    }
+
+    /**
+     * Test that arrays mapped in windows smaller than a vector read back exactly, in either order,
+     * byte order and element type.
+     */
+    @Test
+    void testWindowedRead() throws IOException {
+        double[][] matrix = new double[6][5];
+        for (int i = 0; i < 6; i++) {
+            for (int j = 0; j < 5; j++) {
+                matrix[i][j] = i * 5 + j - 7.5;
+            }
+        }
+        Path written = tempDir.resolve("w.npy");
+        NpyFile.write(matrix, written);
+        for (long window : new long[]{1, 12, 24, 40}) {
+            assertArrayEquals(matrix, NpyFile.read(written, window).getMatrix());
+        }
+
+        ByteBuffer columns = ByteBuffer.allocate(30 * Float.BYTES).order(ByteOrder.BIG_ENDIAN);
+        for (int j = 0; j < 5; j++) {
+            for (int i = 0; i < 6; i++) {
+                columns.putFloat((float) matrix[i][j]);
+            }
+        }
+        Path fortran = npy("wf.npy", "{'descr': '>f4', 'fortran_order': True, 'shape': (6, 5), }", columns);
+        for (long window : new long[]{1, 12, 24, 40}) {
+            assertArrayEquals(matrix, NpyFile.read(fortran, window).getMatrix());
+        }
+    }
+
+    /**
+     * Test that arrays that are not two-dimensional or not floating point are rejected.
+     */
+    @Test
+    void testUnsupportedArrays() throws IOException {
+        ByteBuffer data = ByteBuffer.allocate(2 * Double.BYTES);
+        Path vector = npy("v.npy", "{'descr': '<f8', 'fortran_order': False, 'shape': (2,), }", data);
+        assertThrows(IOException.class, () -> NpyFile.read(vector));
+
+        Path integers = npy("i.npy", "{'descr': '<i8', 'fortran_order': False, 'shape': (1, 2), }", data);
+        assertThrows(IOException.class, () -> NpyFile.read(integers));
+
+        Path text = tempDir.resolve("t.npy");
+        Files.writeString(text, "[[1, 2]]");
+        assertThrows(IOException.class, () -> NpyFile.read(text));
+    }
+
+    // ----------------------------------------------------------------------
+    // Operand Tests
+    // ----------------------------------------------------------------------
+
+    /**
+     * Test that .npy operands, in either order, are evaluated like the same matrices given inline.
+     */
+    @Test
+    void testNpyOperands() throws Exception {
+        NpyFile.write(new double[][]{{1, 2}, {3, 4}}, tempDir.resolve("a.npy"));
+        ByteBuffer data = ByteBuffer.allocate(4 * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (double value : new double[]{5, 7, 6, 8}) {
+            data.putDouble(value);
+        }
+        npy("b.npy", "{'descr': '<f8', 'fortran_order': True, 'shape': (2, 2), }", data);
+        Path input = tempDir.resolve("input.json");
+        Files.writeString(input, "{\"operator\": \"*\", \"operands\": [{\"file\": \"a.npy\"}, {\"file\": \"b.npy\"}]}");
+
+        ComputationNode root = new InputParser().parse(input.toString());
+        List<ComputationNode> operands = root.getChildren();
+        assertNull(operands.get(0).getResult(), "A C-order array should be read as rows.");
+        assertNotNull(operands.get(1).getResult(), "A Fortran-order array should be read as columns.");
+
+        LinearAlgebraEngine engine = new LinearAlgebraEngine(2);
+        try {
+            assertArrayEquals(new double[][]{{19, 22}, {43, 50}}, engine.run(root).getMatrix());
+        } finally {
+            engine.shutdown();
+        }
+    }
+}
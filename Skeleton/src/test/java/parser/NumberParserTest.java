@@ -0,0 +1,60 @@
+package parser;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NumberParserTest {
+
+    private static double parse(String text) {
+        ByteBuffer bytes = ByteBuffer.wrap(("[" + text + "]").getBytes(StandardCharsets.US_ASCII));
+        return NumberParser.parse(bytes, 1, 1 + text.length());
+    }
+
+    // ----------------------------------------------------------------------
+    // Parse Tests
+    // ----------------------------------------------------------------------
+
+    /**
+     * Test that numbers on both the fast and the fallback path are parsed exactly as Double.parseDouble does.
+     */
+    @Test
+    void testMatchesParseDouble() {
+        String[] samples = {"0", "0.0", "-0.0", "1", "-17", "3.25", "1e22", "1e23", "1.5E-7", "2e+3",
+                "0.1", "123456789012345678901234", "4.9e-324", "1.7976931348623157e308", "9007199254740993"};
+        for (String sample : samples) {
+            assertEquals(Double.parseDouble(sample), parse(sample), sample);
+        }
+        Random random = new Random(45);
+        for (int i = 0; i < 10_000; i++) {
+            double value = i % 2 == 0 ? random.nextDouble() * 1e6 : Double.longBitsToDouble(random.nextLong());
+            if (Double.isFinite(value)) {
+                String text = Double.toString(value);
+                assertEquals(value, parse(text), text);
+            }
+            // Up to 19 significant digits with exponents down to subnormals and up to overflow
+            StringBuilder digits = new StringBuilder().append(1 + random.nextInt(9));
+            for (int d = random.nextInt(19); d > 0; d--) {
+                digits.append(random.nextInt(10));
+            }
+            String text = digits.append('e').append(random.nextInt(700) - 350).toString();
+            assertEquals(Double.parseDouble(text), parse(text), text);
+        }
+    }
+
+    /**
+     * Test that an integer zero has no sign, as when it is read as an integer, and that malformed numbers are rejected.
+     */
+    @Test
+    void testZeroAndInvalidNumbers() {
+        assertEquals(0.0, parse("-0"));
+        assertEquals(Double.doubleToLongBits(0.0), Double.doubleToLongBits(parse("-0")));
+        for (String invalid : new String[]{"", "-", ".", "1e", "1.2.3", "--1", "e5", "1x"}) {
+            assertThrows(NumberFormatException.class, () -> parse(invalid), invalid);
+        }
+    }
+}
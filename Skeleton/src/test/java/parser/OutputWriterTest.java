@@ -0,0 +1,165 @@
+package parser;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import memory.SharedMatrix;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutputWriterTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    // ----------------------------------------------------------------------
+    // JSON Layout Tests
+    // ----------------------------------------------------------------------
+
+    /**
+     * Test that the default output is byte for byte what Jackson's default pretty printer wrote.
+     */
+    @Test
+    void testPrettyMatchesJackson() throws Exception {
+        double[][][] samples = {
+                {{-28, -31}, {-106, -118}},
+                {{0.1, -0.0, 1e-7, 1e22, Double.NaN, Double.NEGATIVE_INFINITY}},
+                {{}},
+                {}
+        };
+        for (double[][] sample : samples) {
+            Path path = tempDir.resolve("out.json");
+            OutputWriter.write(sample, path.toString());
+            String expected = mapper.writerWithDefaultPrettyPrinter()
+                    .writeValueAsString(new OutputWriter.ResultMatrix(sample));
+            assertEquals(expected, Files.readString(path));
+        }
+    }
+
+    /**
+     * Test that compact output has no white space and reads back as the same matrix.
+     */
+    @Test
+    void testCompact() throws Exception {
+        Path path = tempDir.resolve("out.json");
+        OutputWriter.write(new double[][]{{1, 2.5}, {-3, 1e-9}}, path.toString(), true);
+
+        assertEquals("{\"result\":[[1.0,2.5],[-3.0,1.0E-9]]}", Files.readString(path));
+    }
+
+    /**
+     * Test that a result in the engine's storage is written from its rows, in either orientation,
+     * across several blocks.
+     */
+    @Test
+    void testEngineResult() throws Exception {
+        Random random = new Random(47);
+        double[][] matrix = new double[3000][17];
+        for (double[] row : matrix) {
+            for (int j = 0; j < row.length; j++) {
+                row[j] = random.nextGaussian();
+            }
+        }
+        double[][] columns = new double[17][3000];
+        for (int i = 0; i < 3000; i++) {
+            for (int j = 0; j < 17; j++) {
+                columns[j][i] = matrix[i][j];
+            }
+        }
+        Path expected = tempDir.resolve("expected.json");
+        OutputWriter.write(matrix, expected.toString());
+
+        for (SharedMatrix stored : new SharedMatrix[]{new SharedMatrix(matrix), SharedMatrix.ofColumns(columns)}) {
+            ComputationNode node = new ComputationNode(stored);
+            Path path = tempDir.resolve("out.json");
+            OutputWriter.write(node, path.toString(), false);
+            assertEquals(Files.readString(expected), Files.readString(path));
+        }
+    }
+
+    // ----------------------------------------------------------------------
+    // Parallel Write Tests
+    // ----------------------------------------------------------------------
+
+    /**
+     * Test that a large result formatted in blocks on several threads is written in order,
+     * exactly as when it is formatted on the calling thread.
+     */
+    @Test
+    void testParallelWrite() throws Exception {
+        Random random = new Random(48);
+        int rows = 700;
+        int cols = 500;
+        assertTrue((long) rows * cols >= JsonMatrixWriter.PARALLEL_WRITE_MIN_ELEMENTS);
+        double[][] columns = new double[cols][rows];
+        for (double[] column : columns) {
+            for (int i = 0; i < rows; i++) {
+                column[i] = random.nextInt(4) == 0 ? random.nextInt(100) : random.nextGaussian() * 1e5;
+            }
+        }
+        ComputationNode node = new ComputationNode(SharedMatrix.ofColumns(columns));
+
+        ExecutorService workers = Executors.newFixedThreadPool(4);
+        try {
+            for (boolean compact : new boolean[]{false, true}) {
+                Path sequential = tempDir.resolve("sequential.json");
+                Path parallel = tempDir.resolve("parallel.json");
+                OutputWriter.write(node, sequential.toString(), compact);
+                OutputWriter.write(node, parallel.toString(), compact, workers);
+                assertArrayEquals(Files.readAllBytes(sequential), Files.readAllBytes(parallel));
+            }
+        } finally {
+            workers.shutdown();
+        }
+        double[][] written = mapper.convertValue(mapper.readTree(tempDir.resolve("parallel.json").toFile()).get("result"),
+                double[][].class);
+        assertArrayEquals(node.getMatrix(), written);
+    }
+
+    // ----------------------------------------------------------------------
+    // Gzip Tests
+    // ----------------------------------------------------------------------
+
+    /**
+     * Test that a path ending in .gz gets the same JSON gzip-compressed, for small and large results and for errors.
+     */
+    @Test
+    void testGzipOutput() throws Exception {
+        double[][] large = new double[600][500];
+        for (int i = 0; i < large.length; i++) {
+            large[i][i % 500] = i + 0.5;
+        }
+        ExecutorService workers = Executors.newFixedThreadPool(2);
+        try {
+            for (double[][] matrix : new double[][][]{{{1, 2}, {3, 4}}, large}) {
+                Path plain = tempDir.resolve("out.json");
+                Path compressed = tempDir.resolve("out.json.gz");
+                OutputWriter.write(matrix, plain.toString());
+                OutputWriter.write(new ComputationNode(matrix), compressed.toString(), false, workers);
+                assertArrayEquals(Files.readAllBytes(plain), gunzip(compressed));
+            }
+        } finally {
+            workers.shutdown();
+        }
+        Path error = tempDir.resolve("error.json.gz");
+        OutputWriter.write("Matrix dimensions do not match for addition.", error.toString());
+        assertEquals("Matrix dimensions do not match for addition.",
+                mapper.readTree(gunzip(error)).get("error").asText());
+    }
+
+    private static byte[] gunzip(Path path) throws Exception {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(path))) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -4,7 +4,10 @@ import org.junit.jupiter.api.Test;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -74,6 +77,93 @@ class TiredExecutorTest {
         try { executor.shutdown(); } catch (Exception e) {}
     }
     
+    @Test
+    void testSubmitAllAsync_DoesNotWait() {
+        TiredExecutor executor = new TiredExecutor(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger done = new AtomicInteger(0);
+
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            tasks.add(() -> {
+                try { release.await(); } catch (InterruptedException e) {}
+                done.incrementAndGet();
+            });
+        }
+
+        // Five tasks on one busy worker: the call must still return at once
+        CompletableFuture<Void> future = executor.submitAllAsync(tasks);
+        assertFalse(future.isDone(), "The tasks cannot be done before they are released");
+
+        release.countDown();
+        future.join();
+        assertEquals(5, done.get());
+        try { executor.shutdown(); } catch (Exception e) {}
+    }
+
+    @Test
+    void testSubmitAll_DoesNotWaitForOtherTasks() {
+        TiredExecutor executor = new TiredExecutor(2);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger done = new AtomicInteger(0);
+
+        // A long unrelated task holds one worker until the batch is done
+        CompletableFuture<Void> unrelated = executor.submitAllAsync(List.of(() -> {
+            try { release.await(); } catch (InterruptedException e) {}
+        }));
+
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            tasks.add(done::incrementAndGet);
+        }
+        executor.submitAll(tasks);
+
+        assertEquals(5, done.get());
+        assertFalse(unrelated.isDone(), "The unrelated task is still running");
+        release.countDown();
+        unrelated.join();
+        try { executor.shutdown(); } catch (Exception e) {}
+    }
+
+    @Test
+    void testShutdown_FinishesQueuedTasks() throws InterruptedException {
+        TiredExecutor executor = new TiredExecutor(2);
+        AtomicInteger done = new AtomicInteger(0);
+
+        // Far more tasks than workers, so most are still queued when shutdown starts
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(executor.submitAllAsync(List.of(() -> {
+                try { Thread.sleep(10); } catch (InterruptedException e) {}
+                done.incrementAndGet();
+            })));
+        }
+        executor.shutdown();
+
+        for (CompletableFuture<Void> future : futures) {
+            assertTrue(future.isDone(), "Every queued task should have run before the workers stopped");
+        }
+        assertEquals(20, done.get());
+        CompletableFuture<Void> late = executor.submitAllAsync(List.of(done::incrementAndGet));
+        CompletionException e = assertThrows(CompletionException.class, late::join);
+        assertInstanceOf(RejectedExecutionException.class, e.getCause());
+    }
+
+    @Test
+    void testSubmitAllAsync_Failure() {
+        TiredExecutor executor = new TiredExecutor(2);
+        AtomicInteger done = new AtomicInteger(0);
+
+        CompletableFuture<Void> future = executor.submitAllAsync(List.of(
+                () -> { throw new IllegalStateException("boom"); },
+                done::incrementAndGet));
+
+        CompletionException e = assertThrows(CompletionException.class, future::join);
+        assertEquals("boom", e.getCause().getMessage());
+        assertEquals(1, done.get(), "The other tasks should still run");
+        try { executor.shutdown(); } catch (Exception ex) {}
+    }
+
     @Test
     void testSubmit_WhenIdle() {
         TiredExecutor executor = new TiredExecutor(2);
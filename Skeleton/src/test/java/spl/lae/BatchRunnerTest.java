@@ -0,0 +1,91 @@
+package spl.lae;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchRunnerTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private LinearAlgebraEngine engine;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() {
+        engine = new LinearAlgebraEngine(2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        engine.shutdown();
+    }
+
+    // [[i]] * [[2]]
+    private static String product(int i) {
+        return "{\"operator\": \"*\", \"operands\": [[[" + i + "]], [[2]]]}";
+    }
+
+    // ----------------------------------------------------------------------
+    // Batch Tests
+    // ----------------------------------------------------------------------
+
+    /**
+     * Test that every file of a directory is evaluated into the output directory, more files than
+     * the lookahead so the pipeline is exercised, and that a bad file fails alone.
+     */
+    @Test
+    void testDirectory() throws Exception {
+        Path inputs = Files.createDirectory(tempDir.resolve("inputs"));
+        Path outputs = tempDir.resolve("outputs");
+        int count = 3 * BatchRunner.LOOKAHEAD + 1;
+        for (int i = 0; i < count; i++) {
+            Files.writeString(inputs.resolve("job" + i + ".json"), product(i));
+        }
+        Files.writeString(inputs.resolve("bad.json"), "{\"operator\": \"+\", \"operands\": [[[1, 2]], [[1]]]}");
+        Files.writeString(inputs.resolve("notes.txt"), "not a job");
+
+        List<BatchRunner.Job> jobs = BatchRunner.jobsOfDirectory(inputs, outputs);
+        BatchRunner.Summary summary = new BatchRunner(engine).run(jobs);
+
+        assertEquals(count + 1, summary.getJobCount());
+        assertEquals(1, summary.getFailedJobCount());
+        for (int i = 0; i < count; i++) {
+            JsonNode result = mapper.readTree(outputs.resolve("job" + i + ".json").toFile()).get("result");
+            assertEquals(2.0 * i, result.get(0).get(0).asDouble(), "Job " + i);
+        }
+        assertTrue(mapper.readTree(outputs.resolve("bad.json").toFile()).has("error"));
+        assertTrue(jobs.get(1).getFlops() > 0, "Each job should report the arithmetic it did.");
+    }
+
+    /**
+     * Test that a manifest pairs inputs with outputs relative to its directory, and that bad lines are rejected.
+     */
+    @Test
+    void testManifest() throws Exception {
+        Files.writeString(tempDir.resolve("a.json"), product(3));
+        Path manifest = tempDir.resolve("jobs.txt");
+        Files.writeString(manifest, "# nightly jobs\n\na.json  out/a-result.json\n");
+
+        List<BatchRunner.Job> jobs = BatchRunner.jobsOfManifest(manifest);
+        assertEquals(1, jobs.size());
+        new BatchRunner(engine).run(jobs);
+
+        JsonNode result = mapper.readTree(tempDir.resolve("out/a-result.json").toFile()).get("result");
+        assertEquals(6.0, result.get(0).get(0).asDouble());
+        assertNull(jobs.get(0).getError());
+
+        Files.writeString(manifest, "a.json\n");
+        assertThrows(IllegalArgumentException.class, () -> BatchRunner.jobsOfManifest(manifest));
+    }
+}
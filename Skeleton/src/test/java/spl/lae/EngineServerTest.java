@@ -0,0 +1,198 @@
+package spl.lae;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EngineServerTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private LinearAlgebraEngine engine;
+    private EngineServer server;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        engine = new LinearAlgebraEngine(2);
+        server = new EngineServer(engine, EngineServer.addressOf("0"));
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        server.close();
+        engine.shutdown();
+    }
+
+    // [[a]] * [[b]] + [[c]]
+    private ObjectNode inlineJob(double a, double b, double c) throws Exception {
+        ObjectNode job = mapper.createObjectNode();
+        job.set("expression", mapper.readTree("{\"operator\": \"+\", \"operands\": ["
+                + "{\"operator\": \"*\", \"operands\": [[[" + a + "]], [[" + b + "]]]}, [[" + c + "]]]}"));
+        return job;
+    }
+
+    // ----------------------------------------------------------------------
+    // Job Tests
+    // ----------------------------------------------------------------------
+
+    /**
+     * Test that an inline job is answered with its result and statistics, and that one connection
+     * can send several jobs.
+     */
+    @Test
+    void testInlineJobs() throws Exception {
+        try (EngineClient client = new EngineClient(server.getLocalAddress())) {
+            for (int i = 0; i < 3; i++) {
+                JsonNode answer = client.submit(inlineJob(i, 2, 1));
+
+                assertEquals(2.0 * i + 1, answer.get("result").get(0).get(0).asDouble(), "Job " + i);
+                assertTrue(answer.get("stats").get("steps").asInt() >= 1);
+                assertTrue(answer.get("stats").has("computeMillis"));
+            }
+        }
+        assertEquals(3, server.getJobCount());
+    }
+
+    /**
+     * Test that a job given by paths reads its input and writes its output on the server side.
+     */
+    @Test
+    void testFileJob() throws Exception {
+        Path input = tempDir.resolve("input.json");
+        Path output = tempDir.resolve("output.json");
+        Files.writeString(input, "{\"operator\": \"T\", \"operands\": [[[1, 2]]]}");
+        ObjectNode job = mapper.createObjectNode().put("input", input.toString()).put("output", output.toString());
+
+        try (EngineClient client = new EngineClient(server.getLocalAddress())) {
+            JsonNode answer = client.submit(job);
+
+            assertEquals(output.toString(), answer.get("output").asText());
+        }
+        JsonNode written = mapper.readTree(output.toFile()).get("result");
+        assertEquals(2, written.size());
+        assertEquals(2.0, written.get(1).get(0).asDouble());
+    }
+
+    /**
+     * Test that a failing job is answered with an error and leaves the connection usable.
+     */
+    @Test
+    void testFailedJob() throws Exception {
+        ObjectNode badJob = mapper.createObjectNode();
+        badJob.set("expression", mapper.readTree("{\"operator\": \"+\", \"operands\": [[[1, 2]], [[1]]]}"));
+
+        try (EngineClient client = new EngineClient(server.getLocalAddress())) {
+            JsonNode answer = client.submit(badJob);
+            assertTrue(answer.get("error").asText().contains("dimensions"), "Error should mention dimensions");
+            assertTrue(client.submit(mapper.createObjectNode()).has("error"), "A job without an expression is rejected.");
+
+            assertEquals(7.0, client.submit(inlineJob(2, 3, 1)).get("result").get(0).get(0).asDouble());
+        }
+        assertEquals(2, server.getFailedJobCount());
+    }
+
+    // ----------------------------------------------------------------------
+    // Connection Tests
+    // ----------------------------------------------------------------------
+
+    /**
+     * Test that several clients submitting at the same time all get their own results.
+     */
+    @Test
+    void testConcurrentClients() throws Exception {
+        ExecutorService clients = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Double>> answers = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                int value = i;
+                answers.add(clients.submit(() -> {
+                    try (EngineClient client = new EngineClient(server.getLocalAddress())) {
+                        return client.submit(inlineJob(value, value, 0)).get("result").get(0).get(0).asDouble();
+                    }
+                }));
+            }
+            for (int i = 0; i < answers.size(); i++) {
+                assertEquals((double) i * i, answers.get(i).get(), "Client " + i);
+            }
+        } finally {
+            clients.shutdown();
+        }
+    }
+
+    /**
+     * Test that the server can listen on a Unix-domain socket, and that it only accepts loopback TCP addresses.
+     */
+    @Test
+    void testAddresses() throws Exception {
+        Path socket = tempDir.resolve("lae.sock");
+        try (EngineServer unixServer = new EngineServer(engine, EngineServer.addressOf(socket.toString()))) {
+            unixServer.start();
+            assertInstanceOf(UnixDomainSocketAddress.class, unixServer.getLocalAddress());
+            try (EngineClient client = new EngineClient(unixServer.getLocalAddress())) {
+                assertEquals(5.0, client.submit(inlineJob(1, 2, 3)).get("result").get(0).get(0).asDouble());
+            }
+        }
+        assertFalse(Files.exists(socket), "The socket file should be removed on close.");
+
+        assertThrows(IllegalArgumentException.class,
+                () -> new EngineServer(engine, new InetSocketAddress("0.0.0.0", 0)));
+    }
+
+    /**
+     * Test that a socket path naming an existing regular file is refused, and the file left alone.
+     */
+    @Test
+    void testSocketPathIsRegularFile() throws Exception {
+        Path file = tempDir.resolve("notes.txt");
+        Files.writeString(file, "keep me");
+
+        assertThrows(IllegalArgumentException.class,
+                () -> new EngineServer(engine, EngineServer.addressOf(file.toString())));
+        assertEquals("keep me", Files.readString(file));
+    }
+
+    /**
+     * Test that a socket a running server listens on is not taken over, while a stale socket file
+     * left by a server that is gone is replaced.
+     */
+    @Test
+    void testSocketInUse() throws Exception {
+        Path socket = tempDir.resolve("busy.sock");
+        try (EngineServer first = new EngineServer(engine, EngineServer.addressOf(socket.toString()))) {
+            first.start();
+            assertThrows(IllegalStateException.class,
+                    () -> new EngineServer(engine, EngineServer.addressOf(socket.toString())));
+            try (EngineClient client = new EngineClient(first.getLocalAddress())) {
+                assertEquals(5.0, client.submit(inlineJob(1, 2, 3)).get("result").get(0).get(0).asDouble());
+            }
+        }
+
+        // Closing a bound channel leaves its socket file behind
+        ServerSocketChannel.open(StandardProtocolFamily.UNIX).bind(UnixDomainSocketAddress.of(socket)).close();
+        assertTrue(Files.exists(socket));
+        try (EngineServer second = new EngineServer(engine, EngineServer.addressOf(socket.toString()))) {
+            assertInstanceOf(UnixDomainSocketAddress.class, second.getLocalAddress());
+        }
+    }
+}
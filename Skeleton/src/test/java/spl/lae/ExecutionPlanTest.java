@@ -0,0 +1,175 @@
+package spl.lae;
+
+import memory.Precision;
+import org.junit.jupiter.api.Test;
+import parser.ComputationNode;
+import parser.ComputationNodeType;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExecutionPlanTest {
+
+    private static ComputationNode matrix(int rows, int cols) {
+        return new ComputationNode(new double[rows][cols]);
+    }
+
+    private static ComputationNode op(ComputationNodeType type, ComputationNode... children) {
+        return new ComputationNode(type, List.of(children));
+    }
+
+    // ----------------------------------------------------------------------
+    // Shape Inference Tests
+    // ----------------------------------------------------------------------
+
+    /**
+     * Test that output shapes are inferred through multiply and transpose.
+     */
+    @Test
+    void testShapeInference() {
+        ComputationNode product = op(ComputationNodeType.MULTIPLY, matrix(2, 3), matrix(3, 5));
+        ComputationNode root = op(ComputationNodeType.TRANSPOSE, product);
+
+        ExecutionPlan plan = new ExecutionPlan(root, 2);
+
+        assertArrayEquals(new int[]{2, 5}, plan.getShape(product));
+        assertArrayEquals(new int[]{5, 2}, plan.getShape(root));
+    }
+
+    /**
+     * Test that a dimension mismatch anywhere in the tree is rejected when the plan is built.
+     */
+    @Test
+    void testMismatchRejected() {
+        ComputationNode root = op(ComputationNodeType.ADD,
+            op(ComputationNodeType.MULTIPLY, matrix(2, 3), matrix(3, 2)),
+            op(ComputationNodeType.MULTIPLY, matrix(2, 3), matrix(2, 3)));
+
+        Exception e = assertThrows(IllegalArgumentException.class, () -> new ExecutionPlan(root, 2));
+        assertTrue(e.getMessage().contains("dimensions"), "Error should mention dimensions");
+    }
+
+    // ----------------------------------------------------------------------
+    // Cost Model Tests
+    // ----------------------------------------------------------------------
+
+    /**
+     * Test that an element-wise chain over a product is planned as a single fused step.
+     */
+    @Test
+    void testFusedStep() {
+        // -(A * B) + C
+        ComputationNode root = op(ComputationNodeType.ADD,
+            op(ComputationNodeType.NEGATE, op(ComputationNodeType.MULTIPLY, matrix(4, 8), matrix(8, 4))),
+            matrix(4, 4));
+
+        ExecutionPlan plan = new ExecutionPlan(root, 2);
+
+        assertEquals(1, plan.getSteps().size(), "The whole chain should be one step.");
+        ExecutionPlan.Step step = plan.getSteps().get(0);
+        assertEquals(ExecutionPlan.Kernel.FUSED, step.getKernel());
+        assertEquals(3, step.getOperands().size(), "A, B and C are the operands of the fused step.");
+        // 2*4*4*8 for the product, plus one add per output element
+        assertEquals(2 * 4 * 4 * 8 + 16, step.getFlops());
+    }
+
+    /**
+     * Test that a transpose is planned as a view that runs no tasks and moves no data.
+     */
+    @Test
+    void testTransposeIsFree() {
+        ComputationNode shared = op(ComputationNodeType.MULTIPLY, matrix(3, 3), matrix(3, 3));
+        ComputationNode root = op(ComputationNodeType.MULTIPLY, op(ComputationNodeType.TRANSPOSE, shared), shared);
+
+        ExecutionPlan plan = new ExecutionPlan(root, 2);
+
+        ExecutionPlan.Step transpose = plan.getSteps().get(1);
+        assertEquals(ExecutionPlan.Kernel.TRANSPOSE_VIEW, transpose.getKernel());
+        assertEquals(0, transpose.getFlops());
+        assertEquals(0, transpose.getTasks());
+    }
+
+    /**
+     * Test that a step with little work per row is given fewer tasks than rows.
+     */
+    @Test
+    void testSmallRowsGrouped() {
+        ComputationNode root = op(ComputationNodeType.NEGATE, matrix(1000, 2));
+
+        ExecutionPlan plan = new ExecutionPlan(root, 4);
+
+        assertEquals(1, plan.getSteps().get(0).getTasks(), "2000 flops fit in one task.");
+    }
+
+    /**
+     * Test that a plan for float matrices counts half the bytes of the same plan for doubles.
+     */
+    @Test
+    void testFloatPrecisionHalvesBytes() {
+        ComputationNode root = op(ComputationNodeType.ADD,
+            op(ComputationNodeType.MULTIPLY, matrix(20, 30), matrix(30, 10)), matrix(20, 10));
+
+        ExecutionPlan doubles = new ExecutionPlan(root, 2);
+        ExecutionPlan floats = new ExecutionPlan(root, 2, Precision.FLOAT);
+
+        assertEquals(doubles.getPeakLiveBytes(), 2 * floats.getPeakLiveBytes());
+        assertEquals(doubles.getTotalBytesMoved(), 2 * floats.getTotalBytesMoved());
+        assertEquals(doubles.getTotalFlops(), floats.getTotalFlops());
+    }
+
+    /**
+     * Test that the explain report lists every step and the totals.
+     */
+    @Test
+    void testExplainReport() {
+        ComputationNode root = op(ComputationNodeType.MULTIPLY,
+            op(ComputationNodeType.MULTIPLY, matrix(2, 2), matrix(2, 2)), matrix(2, 2));
+
+        String report = new ExecutionPlan(root, 2).explain();
+
+        assertTrue(report.contains("#1 MULTIPLY"));
+        assertTrue(report.contains("#2 MULTIPLY"));
+        assertTrue(report.contains("operands: #1 2x2, matrix 2x2 -> 2x2"));
+        assertTrue(report.contains("peak live memory="));
+    }
+
+    // ----------------------------------------------------------------------
+    // Evaluation Order Tests
+    // ----------------------------------------------------------------------
+
+    /**
+     * Test that the operand needing more memory for its evaluation is computed first,
+     * so the small result of the other operand is not held while it runs.
+     */
+    @Test
+    void testMemoryHungryOperandFirst() {
+        ComputationNode small = op(ComputationNodeType.MULTIPLY, matrix(2, 2), matrix(2, 2));
+        ComputationNode wide = op(ComputationNodeType.MULTIPLY, matrix(2, 50), matrix(50, 50));
+        ComputationNode large = op(ComputationNodeType.MULTIPLY, wide, matrix(50, 2));
+        ComputationNode root = op(ComputationNodeType.MULTIPLY, small, large);
+
+        List<ExecutionPlan.Step> steps = new ExecutionPlan(root, 2).getSteps();
+
+        assertSame(wide, steps.get(0).getNode());
+        assertSame(large, steps.get(1).getNode());
+        assertSame(small, steps.get(2).getNode());
+        // The operands of the root still keep their order
+        assertEquals(List.of(small, large), steps.get(3).getOperands());
+    }
+
+    /**
+     * Test that operands with equal needs keep their left-to-right order.
+     */
+    @Test
+    void testTiesKeepOrder() {
+        ComputationNode left = op(ComputationNodeType.NEGATE, matrix(3, 3));
+        ComputationNode right = op(ComputationNodeType.NEGATE, matrix(3, 3));
+        ComputationNode root = op(ComputationNodeType.MULTIPLY, left, right);
+
+        List<ExecutionPlan.Step> steps = new ExecutionPlan(root, 2).getSteps();
+
+        assertSame(left, steps.get(0).getNode());
+        assertSame(right, steps.get(1).getNode());
+    }
+}
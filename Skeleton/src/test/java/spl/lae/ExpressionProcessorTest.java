@@ -0,0 +1,179 @@
+package spl.lae;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpressionProcessorTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private LinearAlgebraEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        engine = new LinearAlgebraEngine(2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        engine.shutdown();
+    }
+
+    // [[i]] * [[2]], or a job whose dimensions do not match when i is negative
+    private ExpressionProcessor.Job job(int i) {
+        try {
+            String json = i >= 0
+                    ? "{\"operator\": \"*\", \"operands\": [[[" + i + "]], [[2]]]}"
+                    : "{\"operator\": \"+\", \"operands\": [[[1, 2]], [[1]]]}";
+            return new ExpressionProcessor.Job(mapper.readTree(json), null);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Publishes the given number of jobs, only as many as requested, and records the total demand.
+     */
+    private final class JobPublisher implements Flow.Publisher<ExpressionProcessor.Job> {
+        private final int count;
+        private final AtomicLong requested = new AtomicLong();
+        private int next = 0;
+        private boolean emitting = false;
+
+        JobPublisher(int count) {
+            this.count = count;
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super ExpressionProcessor.Job> subscriber) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    requested.addAndGet(n);
+                    synchronized (JobPublisher.this) {
+                        if (emitting) {
+                            return; // the loop below picks up the new demand
+                        }
+                        emitting = true;
+                        while (next < count && next < requested.get()) {
+                            subscriber.onNext(job(next == 3 ? -1 : next));
+                            next++;
+                        }
+                        emitting = false;
+                        if (next == count) {
+                            next++;
+                            subscriber.onComplete();
+                        }
+                    }
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+        }
+    }
+
+    /**
+     * Collects the results, requesting them one at a time once started.
+     */
+    private static final class Collector implements Flow.Subscriber<ExpressionProcessor.Result> {
+        private final List<ExpressionProcessor.Result> results = new CopyOnWriteArrayList<>();
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private final CompletableFuture<Flow.Subscription> subscription = new CompletableFuture<>();
+
+        void start() {
+            subscription.join().request(1);
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription.complete(subscription);
+        }
+
+        @Override
+        public void onNext(ExpressionProcessor.Result item) {
+            results.add(item);
+            subscription.join().request(1);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            done.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            done.complete(null);
+        }
+    }
+
+    // ----------------------------------------------------------------------
+    // Streaming Tests
+    // ----------------------------------------------------------------------
+
+    /**
+     * Test that every job gives its result, in job order, and that a failing job gives an error
+     * without stopping the stream.
+     */
+    @Test
+    @Timeout(value = 10, unit = TimeUnit.SECONDS)
+    void testResultsInOrder() {
+        ExpressionProcessor processor = new ExpressionProcessor(engine, 2);
+        Collector collector = new Collector();
+        processor.subscribe(collector);
+        JobPublisher jobs = new JobPublisher(20);
+        jobs.subscribe(processor);
+
+        collector.start();
+        collector.done.join();
+
+        assertEquals(20, collector.results.size());
+        for (int i = 0; i < 20; i++) {
+            ExpressionProcessor.Result result = collector.results.get(i);
+            if (i == 3) {
+                assertTrue(result.getError().contains("dimensions"), "Error should mention dimensions");
+                assertNull(result.getMatrix());
+            } else {
+                assertNull(result.getError());
+                assertEquals(2.0 * i, result.getMatrix()[0][0], "Job " + i);
+            }
+        }
+    }
+
+    /**
+     * Test that without demand for results, only a bounded number of jobs is requested upstream,
+     * and that the rest follows once results are requested.
+     */
+    @Test
+    @Timeout(value = 10, unit = TimeUnit.SECONDS)
+    void testBackpressure() throws Exception {
+        int capacity = 2;
+        ExpressionProcessor processor = new ExpressionProcessor(engine, capacity);
+        Collector collector = new Collector();
+        processor.subscribe(collector);
+        JobPublisher jobs = new JobPublisher(100);
+        jobs.subscribe(processor);
+
+        Thread.sleep(300);
+        // The four queues, one job in each stage and the subscriber's buffer
+        long bound = 4 * capacity + 4 + 2L * capacity + 1;
+        assertTrue(jobs.requested.get() <= bound,
+                "Requested " + jobs.requested.get() + " jobs while no result was requested");
+
+        collector.start();
+        collector.done.join();
+        assertEquals(100, collector.results.size());
+    }
+}
@@ -0,0 +1,101 @@
+package spl.lae;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import parser.ComputationNode;
+import parser.ComputationNodeType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IncrementalExpressionTest {
+
+    private LinearAlgebraEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        engine = new LinearAlgebraEngine(2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        engine.shutdown();
+    }
+
+    private static ComputationNode op(ComputationNodeType type, ComputationNode... children) {
+        return new ComputationNode(type, new ArrayList<>(List.of(children)));
+    }
+
+    // (A * B) * (C * D): three steps, one per product
+    private static IncrementalExpression productOfProducts() {
+        ComputationNode template = op(ComputationNodeType.MULTIPLY,
+            op(ComputationNodeType.MULTIPLY, new ComputationNode("A", 1, 1), new ComputationNode("B", 1, 1)),
+            op(ComputationNodeType.MULTIPLY, new ComputationNode("C", 1, 1), new ComputationNode("D", 1, 1)));
+        return new IncrementalExpression(template, 2, Map.of(
+            "A", new double[][]{{1}}, "B", new double[][]{{2}},
+            "C", new double[][]{{3}}, "D", new double[][]{{4}}));
+    }
+
+    // ----------------------------------------------------------------------
+    // Recomputation Tests
+    // ----------------------------------------------------------------------
+
+    /**
+     * Test that after a leaf update only the steps above that leaf are computed again.
+     */
+    @Test
+    void testOnlyAncestorsRecomputed() {
+        IncrementalExpression expression = productOfProducts();
+
+        assertArrayEquals(new double[][]{{24}}, expression.evaluate(engine));
+        assertEquals(3, expression.getLastComputedSteps(), "The first evaluation computes every step.");
+
+        expression.update("C", new double[][]{{5}});
+        assertArrayEquals(new double[][]{{40}}, expression.evaluate(engine));
+        assertEquals(2, expression.getLastComputedSteps(), "C * D and the root should be recomputed, A * B reused.");
+    }
+
+    /**
+     * Test that evaluating again without any update reuses the root result.
+     */
+    @Test
+    void testNoUpdateReusesEverything() {
+        IncrementalExpression expression = productOfProducts();
+        expression.evaluate(engine);
+
+        assertArrayEquals(new double[][]{{24}}, expression.evaluate(engine));
+        assertEquals(0, expression.getLastComputedSteps());
+    }
+
+    /**
+     * Test that several updates between evaluations are all taken into account.
+     */
+    @Test
+    void testSeveralUpdates() {
+        IncrementalExpression expression = productOfProducts();
+        expression.evaluate(engine);
+
+        expression.update("A", new double[][]{{-1}});
+        expression.update("D", new double[][]{{10}});
+
+        assertArrayEquals(new double[][]{{-60}}, expression.evaluate(engine));
+        assertEquals(3, expression.getLastComputedSteps());
+    }
+
+    /**
+     * Test that an update with the wrong shape is rejected and leaves the previous binding in place.
+     */
+    @Test
+    void testInvalidUpdate() {
+        IncrementalExpression expression = productOfProducts();
+        expression.evaluate(engine);
+
+        assertThrows(IllegalArgumentException.class, () -> expression.update("A", new double[][]{{1, 2}}));
+        assertThrows(IllegalArgumentException.class, () -> expression.update("Z", new double[][]{{1}}));
+        assertArrayEquals(new double[][]{{24}}, expression.evaluate(engine));
+    }
+}
@@ -2,17 +2,25 @@ package spl.lae;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import memory.Precision;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Timeout;
 import org.junit.jupiter.api.io.TempDir;
+import parser.ComputationNode;
+import parser.ComputationNodeType;
+import parser.InputParser;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -136,6 +144,24 @@ class LinearAlgebraEngineTest {
         assertEquals(9.0, res.get(0).get(0).asDouble());
     }
 
+    /**
+     * Test that a subtree repeated in the input is computed correctly when it is shared.
+     */
+    @Test
+    void testRepeatedSubtree() throws IOException {
+        String product = "{ \"operator\": \"*\", \"operands\": [ [[1, 2]], [[3], [4]] ] }";
+        String json = "{" +
+                "\"operator\": \"+\"," +
+                "\"operands\": [" + product + ", " + product + ", " + product + "]" +
+                "}";
+        writeInput(json);
+
+        Main.main(new String[]{"2", inputPath.toString(), outputPath.toString()});
+
+        JsonNode res = readOutput().get("result");
+        assertEquals(33.0, res.get(0).get(0).asDouble());
+    }
+
     // =================================================================
     // 2. COMPLEX OPERATIONS TESTS
     // =================================================================
@@ -168,6 +194,335 @@ class LinearAlgebraEngineTest {
         assertEquals(-6.0, result.get(1).get(0).asDouble());
     }
 
+    /**
+     * Test that a chain of element-wise operations is computed correctly as one fused kernel.
+     */
+    @Test
+    void testFusedElementWiseChain() throws IOException {
+        // T(-([[1, 2], [3, 4]] + [[10, 20], [30, 40]])) = [[-11, -33], [-22, -44]]
+        String json = "{" +
+                "\"operator\": \"T\"," +
+                "\"operands\": [ { \"operator\": \"-\", \"operands\": [" +
+                "  { \"operator\": \"+\", \"operands\": [ [[1, 2], [3, 4]], [[10, 20], [30, 40]] ] }" +
+                "] } ]" +
+                "}";
+        writeInput(json);
+
+        Main.main(new String[]{"2", inputPath.toString(), outputPath.toString()});
+
+        JsonNode res = readOutput().get("result");
+        assertEquals(-11.0, res.get(0).get(0).asDouble());
+        assertEquals(-33.0, res.get(0).get(1).asDouble());
+        assertEquals(-22.0, res.get(1).get(0).asDouble());
+        assertEquals(-44.0, res.get(1).get(1).asDouble());
+    }
+
+    /**
+     * Test that a product feeding an addition is computed correctly as a GEMM with accumulate,
+     * including a transposed product.
+     */
+    @Test
+    void testFusedMultiplyAdd() throws IOException {
+        // [[1, 2]] * [[3, 4], [5, 6]] = [[13, 16]], then T(...) + [[1], [1]] = [[14], [17]]
+        String json = "{" +
+                "\"operator\": \"+\"," +
+                "\"operands\": [" +
+                "  { \"operator\": \"T\", \"operands\": [" +
+                "    { \"operator\": \"*\", \"operands\": [ [[1, 2]], [[3, 4], [5, 6]] ] }" +
+                "  ] }," +
+                "  [[1], [1]]" +
+                "]" +
+                "}";
+        writeInput(json);
+
+        Main.main(new String[]{"2", inputPath.toString(), outputPath.toString()});
+
+        JsonNode res = readOutput().get("result");
+        assertEquals(14.0, res.get(0).get(0).asDouble());
+        assertEquals(17.0, res.get(1).get(0).asDouble());
+    }
+
+    /**
+     * Test that a shape mismatch inside a fused chain is still reported as a dimension error.
+     */
+    @Test
+    void testFusedChainInvalidDimensions() throws IOException {
+        String json = "{" +
+                "\"operator\": \"+\"," +
+                "\"operands\": [ { \"operator\": \"T\", \"operands\": [ [[1, 2]] ] }, [[1, 2]] ]" +
+                "}";
+        writeInput(json);
+
+        Main.main(new String[]{"2", inputPath.toString(), outputPath.toString()});
+
+        JsonNode root = readOutput();
+        assertTrue(root.has("error"), "Output should contain error");
+        assertTrue(root.get("error").asText().contains("dimensions"), "Error should mention dimensions");
+    }
+
+    /**
+     * Test that an intermediate result read by two parents is not overwritten
+     * when it is handed over to the last one without a copy.
+     */
+    @Test
+    void testSharedIntermediateOwnership() {
+        ComputationNode a = new ComputationNode(new double[][]{{1, 2}, {3, 4}});
+        ComputationNode shared = new ComputationNode(ComputationNodeType.NEGATE, List.of(a));
+        ComputationNode negated = new ComputationNode(ComputationNodeType.NEGATE, List.of(shared));
+        ComputationNode root = new ComputationNode(ComputationNodeType.ADD, List.of(negated, shared));
+
+        double[][] result = new LinearAlgebraEngine(2).run(root).getMatrix();
+
+        // -(-A) + (-A) = 0
+        assertArrayEquals(new double[]{0, 0}, result[0]);
+        assertArrayEquals(new double[]{0, 0}, result[1]);
+    }
+
+    /**
+     * Test that every operand lets go of its matrix once the operation reading it has run,
+     * while the root keeps the final result.
+     */
+    @Test
+    void testConsumedOperandsReleased() {
+        ComputationNode a = new ComputationNode(new double[][]{{1, 2}});
+        ComputationNode b = new ComputationNode(new double[][]{{3}, {4}});
+        ComputationNode product = new ComputationNode(ComputationNodeType.MULTIPLY, List.of(a, b));
+        ComputationNode root = new ComputationNode(ComputationNodeType.MULTIPLY, List.of(product, product));
+
+        new LinearAlgebraEngine(2).run(root);
+
+        assertThrows(IllegalStateException.class, a::getMatrix, "A parsed operand should be released.");
+        assertThrows(IllegalStateException.class, product::getMatrix, "A shared intermediate should be released.");
+        assertArrayEquals(new double[]{121}, root.getMatrix()[0]);
+    }
+
+    /**
+     * Test that many expressions evaluated asynchronously at once, sharing subexpressions,
+     * all complete with the same results as a blocking evaluation.
+     */
+    @Test
+    @Timeout(value = 10, unit = TimeUnit.SECONDS)
+    void testEvaluateAsync_ConcurrentExpressions() {
+        double[][] expected = new LinearAlgebraEngine(2).run(spillTestTree()).getMatrix();
+        LinearAlgebraEngine engine = new LinearAlgebraEngine(3);
+        try {
+            List<CompletableFuture<double[][]>> results = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                results.add(engine.evaluateAsync(spillTestTree()));
+            }
+            for (CompletableFuture<double[][]> result : results) {
+                assertArrayEquals(expected, result.join());
+            }
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    /**
+     * Test that an intermediate read by two parents is not overwritten when the parents run at the same time.
+     */
+    @Test
+    @Timeout(value = 5, unit = TimeUnit.SECONDS)
+    void testEvaluateAsync_SharedIntermediate() {
+        ComputationNode a = new ComputationNode(new double[][]{{1, 2}, {3, 4}});
+        ComputationNode shared = new ComputationNode(ComputationNodeType.NEGATE, List.of(a));
+        ComputationNode negated = new ComputationNode(ComputationNodeType.NEGATE, List.of(shared));
+        ComputationNode root = new ComputationNode(ComputationNodeType.ADD, List.of(negated, shared));
+        LinearAlgebraEngine engine = new LinearAlgebraEngine(2);
+
+        double[][] result = engine.evaluateAsync(root).join();
+        engine.shutdown();
+
+        // -(-A) + (-A) = 0
+        assertArrayEquals(new double[]{0, 0}, result[0]);
+        assertArrayEquals(new double[]{0, 0}, result[1]);
+    }
+
+    /**
+     * Test that an invalid expression gives a failed future instead of throwing at the caller.
+     */
+    @Test
+    void testEvaluateAsync_InvalidDimensions() {
+        ComputationNode root = new ComputationNode(ComputationNodeType.ADD, List.of(
+                new ComputationNode(new double[][]{{1, 2}}), new ComputationNode(new double[][]{{1}})));
+        LinearAlgebraEngine engine = new LinearAlgebraEngine(2);
+
+        CompletableFuture<double[][]> result = engine.evaluateAsync(root);
+        engine.shutdown();
+
+        CompletionException e = assertThrows(CompletionException.class, result::join);
+        assertTrue(e.getCause().getMessage().contains("dimensions"), "Error should mention dimensions");
+    }
+
+    /**
+     * Test that resolveAsync leaves the result in the root, where a later evaluation reads it as an operand.
+     */
+    @Test
+    @Timeout(value = 5, unit = TimeUnit.SECONDS)
+    void testResolveAsync_ResultStaysInRoot() {
+        ComputationNode a = new ComputationNode(new double[][]{{1, 2}, {3, 4}});
+        ComputationNode product = new ComputationNode(ComputationNodeType.MULTIPLY, List.of(a, a));
+        LinearAlgebraEngine engine = new LinearAlgebraEngine(2);
+        try {
+            assertSame(product, engine.resolveAsync(product).join());
+            assertEquals(ComputationNodeType.MATRIX, product.getNodeType());
+            assertNotNull(product.getResult(), "The result should stay in engine form.");
+
+            ComputationNode b = new ComputationNode(new double[][]{{1, 1}, {1, 1}});
+            ComputationNode root = new ComputationNode(ComputationNodeType.ADD, List.of(product, b));
+            assertArrayEquals(new double[][]{{8, 11}, {16, 23}}, engine.evaluate(root).getMatrix());
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    /**
+     * Test that operands computed while the rest of the input is parsed give the same result as
+     * parsing first, also with identical subtrees in several operands.
+     */
+    @Test
+    @Timeout(value = 10, unit = TimeUnit.SECONDS)
+    void testPipelinedParse() throws Exception {
+        String product = "{\"operator\": \"*\", \"operands\": [[[1, 2], [3, 4]], [[5, 6], [7, 8]]]}";
+        writeInput("{\"operator\": \"+\", \"operands\": [" + product + ", [[1, 1], [1, 1]], "
+                + "{\"operator\": \"-\", \"operands\": [" + product + "]}, "
+                + "{\"operator\": \"T\", \"operands\": [" + product + "]}, " + product + "]}");
+        ComputationNode parsed = new InputParser().parse(inputPath.toString());
+        Main.recursiveAssociativeNesting(parsed);
+        double[][] expected = new LinearAlgebraEngine(2).run(parsed).getMatrix();
+
+        LinearAlgebraEngine engine = new LinearAlgebraEngine(2);
+        ComputationNode root = Main.parseAndStartOperands(new InputParser(engine.getWorkers()), inputPath.toString(), engine);
+        assertEquals(ComputationNodeType.MATRIX, root.getChildren().get(0).getNodeType(),
+                "The product should be computed while the input is parsed.");
+        Main.recursiveAssociativeNesting(root);
+
+        assertArrayEquals(expected, engine.run(root).getMatrix());
+    }
+
+    /**
+     * Test that a subexpression under two operands of the root is one node, computed once while the input
+     * is parsed, and that the evaluation of the whole tree then reads it instead of computing it again.
+     */
+    @Test
+    @Timeout(value = 10, unit = TimeUnit.SECONDS)
+    void testPipelinedParse_SharedSubexpressionComputedOnce() throws Exception {
+        String product = "{\"operator\": \"*\", \"operands\": [[[1, 2], [3, 4]], [[5, 6], [7, 8]]]}";
+        writeInput("{\"operator\": \"+\", \"operands\": ["
+                + "{\"operator\": \"+\", \"operands\": [" + product + ", [[1, 1], [1, 1]]]}, "
+                + "{\"operator\": \"-\", \"operands\": [" + product + "]}]}");
+        LinearAlgebraEngine engine = new LinearAlgebraEngine(2);
+
+        ComputationNode root = Main.parseAndStartOperands(new InputParser(engine.getWorkers()), inputPath.toString(), engine);
+        ComputationNode shared = root.getChildren().get(0).getChildren().get(0);
+        assertSame(shared, root.getChildren().get(1).getChildren().get(0), "Both operands should share the product.");
+        assertEquals(ComputationNodeType.MATRIX, shared.getNodeType());
+        Main.recursiveAssociativeNesting(root);
+        for (ExecutionPlan.Step step : new ExecutionPlan(root, 2).getSteps()) {
+            assertNotEquals(ExecutionPlan.Kernel.MULTIPLY, step.getKernel(), "The product should not be computed again.");
+        }
+
+        // (P + 1) + -P = 1
+        assertArrayEquals(new double[][]{{1, 1}, {1, 1}}, engine.run(root).getMatrix());
+    }
+
+    /**
+     * Test that an operand failing while the input is still parsed is reported like any other error.
+     */
+    @Test
+    void testPipelinedOperandFailure() throws IOException {
+        writeInput("{\"operator\": \"+\", \"operands\": ["
+                + "{\"operator\": \"*\", \"operands\": [[[1, 2]], [[1, 2]]]}, [[1]]]}");
+
+        Main.main(new String[]{"2", inputPath.toString(), outputPath.toString()});
+
+        JsonNode root = readOutput();
+        assertTrue(root.has("error"), "Output should contain error");
+        assertTrue(root.get("error").asText().contains("dimensions"), "Error should mention dimensions");
+    }
+
+    /**
+     * Test that a run over its memory budget spills matrices to disk and still gets the right result.
+     */
+    @Test
+    void testMemoryBudgetSpills() {
+        ComputationNode root = spillTestTree();
+        double[][] expected = new LinearAlgebraEngine(2).run(spillTestTree()).getMatrix();
+
+        // Room for a few 20x20 matrices only, while the tree parses eight of them
+        LinearAlgebraEngine engine = new LinearAlgebraEngine(2, 4 * 20 * 20 * Double.BYTES);
+        double[][] result = engine.run(root).getMatrix();
+
+        assertTrue(engine.getSpillCount() > 0, "Matrices should have been spilled.");
+        assertArrayEquals(expected, result);
+    }
+
+    /**
+     * Test that the memory budget can be given on the command line.
+     */
+    @Test
+    void testMaxMemoryArgument() throws IOException {
+        writeInput("{\"operator\": \"+\", \"operands\": [ [[1, 2]], [[3, 4]] ]}");
+
+        Main.main(new String[]{"--max-memory", "1k", "2", inputPath.toString(), outputPath.toString()});
+
+        JsonNode res = readOutput().get("result");
+        assertEquals(4.0, res.get(0).get(0).asDouble());
+        assertEquals(6.0, res.get(0).get(1).asDouble());
+        assertEquals(2L << 30, Main.parseMemorySize("2g"));
+        assertThrows(IllegalArgumentException.class, () -> Main.parseMemorySize("lots"));
+    }
+
+    /**
+     * Test that a float run keeps its result in floats and stays close to the double result, with either accumulation,
+     * and that --float32 writes float decimals.
+     */
+    @Test
+    void testFloatPrecision() throws IOException {
+        double[][] expected = new LinearAlgebraEngine(2).run(spillTestTree()).getMatrix();
+        for (Precision accumulation : Precision.values()) {
+            LinearAlgebraEngine engine = new LinearAlgebraEngine(2);
+            engine.setPrecision(Precision.FLOAT, accumulation);
+            ComputationNode result = engine.run(spillTestTree());
+
+            assertEquals(Precision.FLOAT, result.getResult().getPrecision());
+            double[][] matrix = result.getMatrix();
+            for (int i = 0; i < expected.length; i++) {
+                for (int j = 0; j < expected[i].length; j++) {
+                    // Exact products of small integers, up to the rounding of the large ones to float
+                    assertEquals(expected[i][j], matrix[i][j], Math.abs(expected[i][j]) * 1e-6);
+                }
+            }
+        }
+
+        writeInput("{\"operator\": \"+\", \"operands\": [ [[0.1, 2]], [[0.2, 4]] ]}");
+        Main.main(new String[]{"--float32", "--accumulation", "float", "2", inputPath.toString(),
+                outputPath.toString()});
+        assertTrue(Files.readString(outputPath).contains(Float.toString(0.1f + 0.2f)), "Output should hold floats");
+        assertThrows(IllegalArgumentException.class, () -> Main.accumulationOf("half"));
+    }
+
+    // -((A1 * A2) * (A3 * A4)) * ((A5 * A6) * (A7 * A8)) over distinct 20x20 matrices
+    private ComputationNode spillTestTree() {
+        ComputationNode[] products = new ComputationNode[4];
+        for (int p = 0; p < products.length; p++) {
+            double[][] a = new double[20][20];
+            double[][] b = new double[20][20];
+            for (int i = 0; i < 20; i++) {
+                for (int j = 0; j < 20; j++) {
+                    a[i][j] = (i + 2 * j + p) % 5 - 2;
+                    b[i][j] = (3 * i + j + p) % 7 - 3;
+                }
+            }
+            products[p] = new ComputationNode(ComputationNodeType.MULTIPLY,
+                List.of(new ComputationNode(a), new ComputationNode(b)));
+        }
+        ComputationNode left = new ComputationNode(ComputationNodeType.NEGATE,
+            List.of(new ComputationNode(ComputationNodeType.MULTIPLY, List.of(products[0], products[1]))));
+        ComputationNode right = new ComputationNode(ComputationNodeType.MULTIPLY, List.of(products[2], products[3]));
+        return new ComputationNode(ComputationNodeType.MULTIPLY, List.of(left, right));
+    }
+
     // =================================================================
     // 3. ERROR HANDLING & BOUNDARY TESTS
     // =================================================================
@@ -190,6 +545,24 @@ class LinearAlgebraEngineTest {
         assertTrue(root.get("error").asText().contains("dimensions"), "Error should mention dimensions");
     }
 
+    /**
+     * Test that a dimension error is reported before any operation runs,
+     * even when it is in the last operation of the tree.
+     */
+    @Test
+    void testInvalidDimensionsRejectedUpfront() {
+        ComputationNode a = new ComputationNode(new double[][]{{1, 2}, {3, 4}});
+        ComputationNode product = new ComputationNode(ComputationNodeType.MULTIPLY, List.of(a, a));
+        ComputationNode mismatched = new ComputationNode(new double[][]{{1, 2, 3}});
+        ComputationNode root = new ComputationNode(ComputationNodeType.ADD, List.of(product, mismatched));
+
+        Exception e = assertThrows(IllegalArgumentException.class, () -> new LinearAlgebraEngine(2).run(root));
+
+        assertTrue(e.getMessage().contains("dimensions"), "Error should mention dimensions");
+        assertEquals(ComputationNodeType.MULTIPLY, product.getNodeType(), "No operation should have run.");
+        assertArrayEquals(new double[]{1, 2}, a.getMatrix()[0]);
+    }
+
     /**
      * Test handling of null values within a matrix.
      */
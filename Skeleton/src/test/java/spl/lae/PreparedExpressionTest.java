@@ -0,0 +1,107 @@
+package spl.lae;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import parser.ComputationNode;
+import parser.ComputationNodeType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PreparedExpressionTest {
+
+    private LinearAlgebraEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        engine = new LinearAlgebraEngine(2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        engine.shutdown();
+    }
+
+    private static ComputationNode op(ComputationNodeType type, ComputationNode... children) {
+        return new ComputationNode(type, new ArrayList<>(List.of(children)));
+    }
+
+    // ----------------------------------------------------------------------
+    // Execution Tests
+    // ----------------------------------------------------------------------
+
+    /**
+     * Test that one prepared expression gives the right result for several bindings in a row.
+     */
+    @Test
+    void testRepeatedExecution() {
+        // -(A * B) + C, where C is a constant
+        ComputationNode a = new ComputationNode("A", 1, 2);
+        ComputationNode b = new ComputationNode("B", 2, 1);
+        ComputationNode c = new ComputationNode(new double[][]{{10}});
+        PreparedExpression expression = new PreparedExpression(
+            op(ComputationNodeType.ADD, op(ComputationNodeType.NEGATE, op(ComputationNodeType.MULTIPLY, a, b)), c), 2);
+
+        assertEquals(List.of("A", "B"), new ArrayList<>(expression.getPlaceholderNames()));
+        for (int i = 0; i < 5; i++) {
+            double[][] result = expression.execute(engine, Map.of(
+                "A", new double[][]{{1, i}},
+                "B", new double[][]{{2}, {3}}));
+            assertArrayEquals(new double[][]{{10 - (2 + 3 * i)}}, result, "Execution " + i);
+        }
+    }
+
+    /**
+     * Test that a placeholder used twice reads the same bound matrix, and that n-ary operations are nested.
+     */
+    @Test
+    void testSharedPlaceholder() {
+        ComputationNode x = new ComputationNode("X", 2, 2);
+        PreparedExpression expression = new PreparedExpression(
+            op(ComputationNodeType.ADD, x, op(ComputationNodeType.TRANSPOSE, x), x), 2);
+
+        double[][] result = expression.execute(engine, Map.of("X", new double[][]{{1, 2}, {3, 4}}));
+
+        assertArrayEquals(new double[][]{{3, 7}, {8, 12}}, result);
+        assertArrayEquals(new int[]{2, 2}, expression.getPlaceholderShape("X"));
+    }
+
+    // ----------------------------------------------------------------------
+    // Binding Validation Tests
+    // ----------------------------------------------------------------------
+
+    /**
+     * Test that missing, unknown and wrongly shaped bindings are rejected before anything runs.
+     */
+    @Test
+    void testInvalidBindings() {
+        PreparedExpression expression = new PreparedExpression(
+            op(ComputationNodeType.NEGATE, new ComputationNode("A", 1, 2)), 2);
+
+        assertThrows(IllegalArgumentException.class, () -> expression.execute(engine, Map.of()));
+        assertThrows(IllegalArgumentException.class,
+            () -> expression.execute(engine, Map.of("A", new double[][]{{1, 2}}, "Z", new double[][]{{1}})));
+        Exception e = assertThrows(IllegalArgumentException.class,
+            () -> expression.execute(engine, Map.of("A", new double[][]{{1, 2, 3}})));
+        assertTrue(e.getMessage().contains("dimensions"), "Error should mention dimensions");
+
+        // The expression is still usable afterwards
+        assertArrayEquals(new double[][]{{-1, -2}}, expression.execute(engine, Map.of("A", new double[][]{{1, 2}})));
+    }
+
+    /**
+     * Test that a template whose placeholder shapes do not fit together is rejected when it is prepared.
+     */
+    @Test
+    void testInvalidTemplate() {
+        ComputationNode template = op(ComputationNodeType.MULTIPLY,
+            new ComputationNode("A", 2, 3), new ComputationNode("B", 2, 3));
+
+        Exception e = assertThrows(IllegalArgumentException.class, () -> new PreparedExpression(template, 2));
+        assertTrue(e.getMessage().contains("dimensions"), "Error should mention dimensions");
+    }
+}
@@ -0,0 +1,128 @@
+package spl.lae;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import parser.ComputationNode;
+import parser.ComputationNodeType;
+
+import java.nio.file.Path;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResultCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static ComputationNode product(double[][] a, double[][] b) {
+        return new ComputationNode(ComputationNodeType.MULTIPLY,
+            List.of(new ComputationNode(a), new ComputationNode(b)));
+    }
+
+    private static String key(ComputationNode node) {
+        return ResultCache.keyOf(node, new IdentityHashMap<>());
+    }
+
+    // ----------------------------------------------------------------------
+    // Key Tests
+    // ----------------------------------------------------------------------
+
+    /**
+     * Test that separately parsed subtrees with the same operators and elements get the same key,
+     * and that a different element or operator changes it.
+     */
+    @Test
+    void testKeysFollowContent() {
+        String key = key(product(new double[][]{{1, 2}}, new double[][]{{3}, {4}}));
+
+        assertEquals(key, key(product(new double[][]{{1, 2}}, new double[][]{{3}, {4}})));
+        assertNotEquals(key, key(product(new double[][]{{1, 2}}, new double[][]{{3}, {5}})));
+        assertNotEquals(key, key(new ComputationNode(ComputationNodeType.ADD,
+            List.of(new ComputationNode(new double[][]{{1, 2}}), new ComputationNode(new double[][]{{3}, {4}})))));
+        // Same elements in another shape
+        assertNotEquals(key(new ComputationNode(new double[][]{{1, 2}})), key(new ComputationNode(new double[][]{{1}, {2}})));
+    }
+
+    // ----------------------------------------------------------------------
+    // Eviction Tests
+    // ----------------------------------------------------------------------
+
+    /**
+     * Test that the least recently used entry is evicted once the cache is over its byte bound.
+     */
+    @Test
+    void testLeastRecentlyUsedEvicted() {
+        // Room for two 1x2 results
+        ResultCache cache = new ResultCache(2 * 2 * Double.BYTES);
+        cache.put("a", new double[][]{{1, 1}});
+        cache.put("b", new double[][]{{2, 2}});
+        cache.get("a");
+        cache.put("c", new double[][]{{3, 3}});
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"), "The least recently used entry should be evicted.");
+        assertNotNull(cache.get("c"));
+        assertEquals(2 * 2 * Double.BYTES, cache.getMemoryBytes());
+    }
+
+    /**
+     * Test that a result larger than the whole cache is not stored.
+     */
+    @Test
+    void testOversizedResultSkipped() {
+        ResultCache cache = new ResultCache(Double.BYTES);
+        cache.put("big", new double[][]{{1, 2}});
+
+        assertNull(cache.get("big"));
+        assertEquals(0, cache.getMemoryBytes());
+    }
+
+    // ----------------------------------------------------------------------
+    // Persistence and Engine Tests
+    // ----------------------------------------------------------------------
+
+    /**
+     * Test that entries written to the cache directory are found by a new cache over the same directory.
+     */
+    @Test
+    void testPersistedAcrossInstances() throws Exception {
+        new ResultCache(1 << 20, tempDir).put("k", new double[][]{{1.5, -2}});
+
+        ResultCache reopened = new ResultCache(1 << 20, tempDir);
+
+        assertArrayEquals(new double[][]{{1.5, -2}}, reopened.get("k"));
+        assertEquals(1, reopened.getHits());
+    }
+
+    /**
+     * Test that a second run over an identical expression is answered from the cache,
+     * without computing any of the steps below the cached one.
+     */
+    @Test
+    void testEngineReusesResults() {
+        ResultCache cache = new ResultCache(1 << 20);
+        double[][] a = {{1, 2}, {3, 4}};
+        double[][] b = {{0, 1}, {1, 0}};
+
+        LinearAlgebraEngine first = new LinearAlgebraEngine(2);
+        first.setResultCache(cache);
+        ComputationNode firstRoot = new ComputationNode(ComputationNodeType.MULTIPLY,
+            List.of(product(a, b), new ComputationNode(a)));
+        double[][] expected = first.run(firstRoot).getMatrix();
+        assertEquals(0, cache.getHits());
+        assertEquals(2, cache.getMisses(), "Both steps should have been looked up and computed.");
+
+        LinearAlgebraEngine second = new LinearAlgebraEngine(2);
+        second.setResultCache(cache);
+        ComputationNode secondRoot = new ComputationNode(ComputationNodeType.MULTIPLY,
+            List.of(product(a, b), new ComputationNode(a)));
+        double[][] result = second.run(secondRoot).getMatrix();
+
+        assertArrayEquals(expected, result);
+        assertArrayEquals(new double[]{5, 8}, result[0]);
+        assertEquals(1, cache.getHits(), "The root should be found in the cache.");
+        assertEquals(2, cache.getMisses(), "The step below the root should not be looked up.");
+    }
+}